@@ -82,6 +82,27 @@ angular.module('squashApp.bookingsService', ['squashApp.identityService'])
         console.dir(error)
       })
 
+    // Bundle of cached bookings for all the valid dates - loaded once, on first use. It is
+    // rebuilt only nightly, so each date's entry is revalidated before use - see below.
+    var cachedBookingsBundle = null
+    var getCachedBookingsBundle = function () {
+      if (!cachedBookingsBundle) {
+        cachedBookingsBundle = getS3Client()
+          .then(function (client) {
+            return client.makeUnauthenticatedRequest('getObject', {Bucket: comSquashWebsiteBucket, Key: 'NoScript/bookings.json'}).promise()
+          })
+          .then(function (response) {
+            return JSON.parse(response.Body.toString()).dates
+          })
+          .catch(function (error) {
+            // Just swallow any errors - we can get each date's cached bookings separately instead
+            console.dir(error)
+            return {}
+          })
+      }
+      return cachedBookingsBundle
+    }
+
     // Our custom error type - allowing us to pass back the builder as well as the error
     function BookingServiceError (error, builder) {
       this.name = 'BookingServiceError'
@@ -143,15 +164,35 @@ angular.module('squashApp.bookingsService', ['squashApp.identityService'])
           })
       },
       getCachedBookings: function (builder) {
-        // Return the bookings for the specified date
-        return getS3Client()
-          .then(function (client) {
-            return client.makeUnauthenticatedRequest('getObject', {Bucket: comSquashWebsiteBucket, Key: 'NoScript/' + builder.getSelectedDate() + '.json'}).promise()
+        // Return the bookings for the specified date. The date's own cached bookings are updated on
+        // every booking change, but the bundle only nightly - so use the bundle's entry only if the
+        // date's cached bookings still have the ETag the bundle recorded for them.
+        return getCachedBookingsBundle()
+          .then(function (dates) {
+            var params = {Bucket: comSquashWebsiteBucket, Key: 'NoScript/' + builder.getSelectedDate() + '.json'}
+            var bundledDate = dates.hasOwnProperty(builder.getSelectedDate()) ? dates[builder.getSelectedDate()] : null
+            if (bundledDate && bundledDate.etag) {
+              params.IfNoneMatch = '"' + bundledDate.etag + '"'
+            }
+            return getS3Client()
+              .then(function (client) {
+                return client.makeUnauthenticatedRequest('getObject', params).promise()
+              })
+              .then(function (response) {
+                return JSON.parse(response.Body.toString())
+              })
+              .catch(function (error) {
+                if (bundledDate && (error.statusCode === 304)) {
+                  // Not modified since the bundle was built - so the bundle's entry is current
+                  return bundledDate.data
+                }
+                throw error
+              })
           })
-          .then(function (response) {
-            builder.setBookings(JSON.parse(response.Body.toString()).bookings)
-            builder.setLifecycleState(JSON.parse(response.Body.toString()).lifecycleState.state)
-            builder.setForwardingUrl(JSON.parse(response.Body.toString()).lifecycleState.url)
+          .then(function (data) {
+            builder.setBookings(data.bookings)
+            builder.setLifecycleState(data.lifecycleState.state)
+            builder.setForwardingUrl(data.lifecycleState.url)
             return builder
           })
           .catch(function (error) {
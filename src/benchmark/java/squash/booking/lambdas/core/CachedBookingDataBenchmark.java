@@ -0,0 +1,155 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.booking.lambdas.core;
+
+import squash.booking.lambdas.core.ILifecycleManager.LifecycleState;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a date's cached booking data by streaming it through the page manager's
+ * shared generator against building and writing a json tree with a new factory and mapper -
+ * as the page manager used to.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedBookingDataBenchmark {
+
+  private PageManager pageManager;
+  private String date;
+  private List<Booking> bookings;
+
+  @Setup
+  public void setup() throws Exception {
+    pageManager = new BenchmarkPageManager();
+    pageManager.initialise(null, new BenchmarkLifecycleManager(), new BenchmarkLogger());
+
+    LocalDate today = LocalDate.of(2016, 2, 15);
+    date = today.toString();
+    bookings = new ArrayList<>();
+    bookings.add(new Booking(1, 1, 3, 1, "A.Shabana/J.Power"));
+    bookings.add(new Booking(2, 1, 5, 1, "J.Willstrop/N.Matthew"));
+    bookings.add(new Booking(3, 3, 10, 2, "Team Training"));
+  }
+
+  @Benchmark
+  public String streaming() throws Exception {
+    return pageManager.createCachedBookingData(date, bookings);
+  }
+
+  @Benchmark
+  public String tree() throws Exception {
+    ImmutablePair<LifecycleState, Optional<String>> lifecycleState = new ImmutablePair<>(
+        LifecycleState.ACTIVE, Optional.empty());
+
+    JsonNodeFactory factory = new JsonNodeFactory(false);
+    JsonFactory jsonFactory = new JsonFactory();
+    ObjectNode rootNode = factory.objectNode();
+
+    rootNode.put("date", date);
+    ArrayNode bookingsNode = rootNode.putArray("bookings");
+    for (int i = 0; i < bookings.size(); i++) {
+      Booking booking = bookings.get(i);
+      ObjectNode bookingNode = factory.objectNode();
+      bookingNode.put("court", booking.getCourt());
+      bookingNode.put("courtSpan", booking.getCourtSpan());
+      bookingNode.put("slot", booking.getSlot());
+      bookingNode.put("slotSpan", booking.getSlotSpan());
+      bookingNode.put("name", booking.getName());
+      bookingsNode.add(bookingNode);
+    }
+    ObjectNode lifecycleStateNode = rootNode.putObject("lifecycleState");
+    lifecycleStateNode.put("state", lifecycleState.left.name());
+    lifecycleStateNode.put("url", lifecycleState.right.isPresent() ? lifecycleState.right.get()
+        : "");
+
+    ByteArrayOutputStream bookingDataStream = new ByteArrayOutputStream();
+    PrintStream printStream = new PrintStream(bookingDataStream);
+    try (JsonGenerator generator = jsonFactory.createGenerator(printStream)) {
+      ObjectMapper mapper = new ObjectMapper();
+      mapper.writeTree(generator, rootNode);
+    }
+    return bookingDataStream.toString(StandardCharsets.UTF_8.name());
+  }
+
+  private static class BenchmarkPageManager extends PageManager {
+    @Override
+    protected String getEnvironmentVariable(String variableName) {
+      return variableName.equals("AWS_REGION") ? "eu-west-1" : variableName;
+    }
+  }
+
+  private static class BenchmarkLifecycleManager implements ILifecycleManager {
+    @Override
+    public void initialise(LambdaLogger logger) {
+    }
+
+    @Override
+    public void throwIfOperationInvalidForCurrentLifecycleState(boolean operationIsReadOnly,
+        boolean isSquashServiceUserCall) {
+    }
+
+    @Override
+    public void setLifecycleState(LifecycleState lifecycleState, Optional<String> newServiceUrl) {
+    }
+
+    @Override
+    public ImmutablePair<LifecycleState, Optional<String>> getLifecycleState() {
+      return new ImmutablePair<>(LifecycleState.ACTIVE, Optional.empty());
+    }
+  }
+
+  private static class BenchmarkLogger implements LambdaLogger {
+    @Override
+    public void log(String message) {
+      // Discard the page manager's logging so only encoding is measured
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.booking.lambdas.core;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares clash detection using a {@link CourtSlotGrid} with the set-of-pairs code it replaced.
+ *
+ * <p>Each benchmark checks one new booking against a day's existing bookings - as
+ *    createBooking does on each attempt.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CourtSlotGridBenchmark {
+
+  @Param({ "1", "8", "40" })
+  public int numberOfExistingBookings;
+
+  private List<Booking> existingBookings;
+  private Booking bookingToCreate;
+
+  @Setup
+  public void setup() {
+    // Fixed seed, so every run benchmarks the same bookings
+    Random random = new Random(42);
+    existingBookings = new ArrayList<>();
+    for (int booking = 0; booking < numberOfExistingBookings; booking++) {
+      int court = random.nextInt(CourtSlotGrid.NUMBER_OF_COURTS) + 1;
+      int slot = random.nextInt(CourtSlotGrid.NUMBER_OF_SLOTS) + 1;
+      existingBookings.add(new Booking(court, 1, slot, 1, "A.Shabana/J.Power"));
+    }
+    bookingToCreate = new Booking(1, 5, 15, 2, "J.Willstrop/N.Matthew");
+  }
+
+  @Benchmark
+  public boolean setOfPairs() {
+    Set<ImmutablePair<Integer, Integer>> bookedCourts = new HashSet<>();
+    existingBookings.forEach(booking -> addBookingToSet(booking, bookedCourts));
+    Set<ImmutablePair<Integer, Integer>> courtsToBook = new HashSet<>();
+    addBookingToSet(bookingToCreate, courtsToBook);
+    return Sets.intersection(courtsToBook, bookedCourts).size() > 0;
+  }
+
+  @Benchmark
+  public boolean courtSlotGrid() {
+    return CourtSlotGrid.of(existingBookings).clashesWith(bookingToCreate);
+  }
+
+  private static void addBookingToSet(Booking booking,
+      Set<ImmutablePair<Integer, Integer>> bookedCourts) {
+    for (int court = booking.getCourt(); court < booking.getCourt() + booking.getCourtSpan(); court++) {
+      for (int slot = booking.getSlot(); slot < booking.getSlot() + booking.getSlotSpan(); slot++) {
+        bookedCourts.add(new ImmutablePair<>(court, slot));
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.booking.lambdas.core;
+
+import squash.booking.lambdas.core.ILifecycleManager.LifecycleState;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.velocity.Template;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering a booking page with the shared, pre-parsed template against creating a
+ * Velocity engine and parsing the template for every page - as the page manager used to.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageRenderBenchmark {
+
+  private PageManager sharedTemplatePageManager;
+  private PageManager perRenderTemplatePageManager;
+  private String date;
+  private List<String> validDates;
+  private List<Booking> bookings;
+
+  @Setup
+  public void setup() throws Exception {
+    sharedTemplatePageManager = new BenchmarkPageManager();
+    sharedTemplatePageManager.initialise(null, new BenchmarkLifecycleManager(),
+        new BenchmarkLogger());
+    perRenderTemplatePageManager = new BenchmarkPageManager() {
+      @Override
+      protected Template getBookingPageTemplate() {
+        return createVelocityEngine().getTemplate("squash/booking/lambdas/BookingPage.vm",
+            "utf-8");
+      }
+    };
+    perRenderTemplatePageManager.initialise(null, new BenchmarkLifecycleManager(),
+        new BenchmarkLogger());
+
+    LocalDate today = LocalDate.of(2016, 2, 15);
+    date = today.toString();
+    validDates = new ArrayList<>();
+    for (int day = 0; day < 21; day++) {
+      validDates.add(today.plusDays(day).toString());
+    }
+    bookings = new ArrayList<>();
+    bookings.add(new Booking(1, 1, 3, 1, "A.Shabana/J.Power"));
+    bookings.add(new Booking(2, 1, 5, 1, "J.Willstrop/N.Matthew"));
+    bookings.add(new Booking(3, 3, 10, 2, "Team Training"));
+  }
+
+  @Benchmark
+  public String sharedTemplate() throws Exception {
+    return render(sharedTemplatePageManager);
+  }
+
+  @Benchmark
+  public String perRenderTemplate() throws Exception {
+    return render(perRenderTemplatePageManager);
+  }
+
+  private String render(PageManager pageManager) throws Exception {
+    return pageManager.createBookingPage(date, validDates, "reservationFormGetUrl",
+        "cancellationFormGetUrl", "s3WebsiteUrl", bookings, "pageGuid", "revvingSuffix");
+  }
+
+  private static class BenchmarkPageManager extends PageManager {
+    @Override
+    protected String getEnvironmentVariable(String variableName) {
+      return variableName.equals("AWS_REGION") ? "eu-west-1" : variableName;
+    }
+  }
+
+  private static class BenchmarkLifecycleManager implements ILifecycleManager {
+    @Override
+    public void initialise(LambdaLogger logger) {
+    }
+
+    @Override
+    public void throwIfOperationInvalidForCurrentLifecycleState(boolean operationIsReadOnly,
+        boolean isSquashServiceUserCall) {
+    }
+
+    @Override
+    public void setLifecycleState(LifecycleState lifecycleState, Optional<String> newServiceUrl) {
+    }
+
+    @Override
+    public ImmutablePair<LifecycleState, Optional<String>> getLifecycleState() {
+      return new ImmutablePair<>(LifecycleState.ACTIVE, Optional.empty());
+    }
+  }
+
+  private static class BenchmarkLogger implements LambdaLogger {
+    @Override
+    public void log(String message) {
+      // Discard the page manager's logging so only rendering is measured
+    }
+  }
+}
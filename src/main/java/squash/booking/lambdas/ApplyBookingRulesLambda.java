@@ -27,6 +27,7 @@ import squash.booking.lambdas.core.IRuleManager;
 import squash.booking.lambdas.core.LifecycleManager;
 import squash.booking.lambdas.core.PageManager;
 import squash.booking.lambdas.core.RuleManager;
+import squash.deployment.lambdas.utils.RetryHelper;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
@@ -129,6 +130,7 @@ public class ApplyBookingRulesLambda {
   public ApplyBookingRulesLambdaResponse applyBookingRules(ApplyBookingRulesLambdaRequest request,
       Context context) throws Exception {
     LambdaLogger logger = context.getLogger();
+    RetryHelper.startInvocation(context);
     logger.log("Apply booking rules for request: " + request.toString());
 
     // Apply all booking rules
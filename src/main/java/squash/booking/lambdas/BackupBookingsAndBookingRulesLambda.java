@@ -26,6 +26,7 @@ import squash.booking.lambdas.core.ILifecycleManager;
 import squash.booking.lambdas.core.IRuleManager;
 import squash.booking.lambdas.core.LifecycleManager;
 import squash.booking.lambdas.core.RuleManager;
+import squash.deployment.lambdas.utils.RetryHelper;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
@@ -113,6 +114,7 @@ public class BackupBookingsAndBookingRulesLambda {
   public BackupBookingsAndBookingRulesLambdaResponse backupBookingsAndBookingRules(
       BackupBookingsAndBookingRulesLambdaRequest request, Context context) throws Exception {
     LambdaLogger logger = context.getLogger();
+    RetryHelper.startInvocation(context);
     logger.log("Backup bookings and booking rules for request: " + request.toString());
 
     // Backup all bookings and booking rules
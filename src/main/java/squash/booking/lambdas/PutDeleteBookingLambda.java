@@ -29,6 +29,7 @@ import squash.booking.lambdas.core.LifecycleManager;
 import squash.booking.lambdas.core.PageManager;
 import squash.booking.lambdas.core.RuleManager;
 import squash.deployment.lambdas.utils.ExceptionUtils;
+import squash.deployment.lambdas.utils.RetryHelper;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -154,6 +155,7 @@ public class PutDeleteBookingLambda {
   public PutDeleteBookingLambdaResponse createOrDeleteBooking(
       PutDeleteBookingLambdaRequest request, Context context) throws Exception {
     LambdaLogger logger = context.getLogger();
+    RetryHelper.startInvocation(context);
     String redirectUrl = request.redirectUrl;
     try {
       logger.log("CreateOrDelete booking for request: " + request.toString());
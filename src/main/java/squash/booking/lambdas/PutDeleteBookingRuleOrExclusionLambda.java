@@ -29,6 +29,7 @@ import squash.booking.lambdas.core.LifecycleManager;
 import squash.booking.lambdas.core.PageManager;
 import squash.booking.lambdas.core.RuleManager;
 import squash.deployment.lambdas.utils.ExceptionUtils;
+import squash.deployment.lambdas.utils.RetryHelper;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -158,6 +159,7 @@ public class PutDeleteBookingRuleOrExclusionLambda {
   public PutDeleteBookingRuleOrExclusionLambdaResponse createOrDeleteBookingRuleOrExclusion(
       PutDeleteBookingRuleOrExclusionLambdaRequest request, Context context) throws Exception {
     LambdaLogger logger = context.getLogger();
+    RetryHelper.startInvocation(context);
     try {
       logger.log("CreateOrDelete booking rule or exclusion for request: " + request.toString());
 
@@ -24,6 +24,7 @@ import squash.booking.lambdas.core.ILifecycleManager;
 import squash.booking.lambdas.core.IRuleManager;
 import squash.booking.lambdas.core.LifecycleManager;
 import squash.booking.lambdas.core.RuleManager;
+import squash.deployment.lambdas.utils.RetryHelper;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
@@ -110,6 +111,7 @@ public class RestoreBookingsAndBookingRulesLambda {
   public RestoreBookingsAndBookingRulesLambdaResponse restoreBookingsAndBookingRules(
       RestoreBookingsAndBookingRulesLambdaRequest request, Context context) throws Exception {
     LambdaLogger logger = context.getLogger();
+    RetryHelper.startInvocation(context);
     logger.log("Restoring bookings and booking rules for request: " + request.toString());
     getBackupManager(logger).restoreAllBookingsAndBookingRules(request.getBookings(),
         request.getBookingRules(), request.getClearBeforeRestore());
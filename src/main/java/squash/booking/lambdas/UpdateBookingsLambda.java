@@ -23,6 +23,7 @@ import squash.booking.lambdas.core.ILifecycleManager;
 import squash.booking.lambdas.core.IPageManager;
 import squash.booking.lambdas.core.LifecycleManager;
 import squash.booking.lambdas.core.PageManager;
+import squash.deployment.lambdas.utils.RetryHelper;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
@@ -117,6 +118,8 @@ public class UpdateBookingsLambda {
    *    <li>adding a new page for the most-future bookable date</li>
    *    <li>refreshing all other booking pages to account for the new date range</li>
    *    <li>removing the previous day's page</li>
+   *    <li>purging deleted bookings and booking rules from the database</li>
+   *    <li>deleting booking pages orphaned by booking mutations</li>
    * </ul>
    *
    * @return response containing the current date.
@@ -125,6 +128,7 @@ public class UpdateBookingsLambda {
   public UpdateBookingsLambdaResponse updateBookings(UpdateBookingsLambdaRequest request,
       Context context) throws Exception {
     LambdaLogger logger = context.getLogger();
+    RetryHelper.startInvocation(context);
 
     try {
       logger.log("About to refresh all bookings pages");
@@ -142,6 +146,28 @@ public class UpdateBookingsLambda {
       IBookingManager bookingManager = getBookingManager(logger);
       bookingManager.deleteYesterdaysBookings(false);
       logger.log("Removed yesterday's bookings from database");
+
+      // Purge deleted bookings and rules from the database. Failure here is not
+      // fatal - reads ignore deleted attributes, and we'll try again tomorrow.
+      // N.B. The booking manager notifies the admin of the failure.
+      try {
+        logger.log("About to compact the database");
+        bookingManager.compactDatabase(false);
+        logger.log("Compacted the database");
+      } catch (Exception e) {
+        logger.log("Exception caught compacting the database - so swallowing: " + e.getMessage());
+      }
+
+      // Delete booking pages orphaned by booking mutations. Failure here is
+      // not fatal either - we'll try again tomorrow.
+      try {
+        logger.log("About to delete orphaned booking pages");
+        pageManager.deleteOrphanedPages();
+        logger.log("Deleted orphaned booking pages");
+      } catch (Exception e) {
+        logger.log("Exception caught deleting orphaned booking pages - so swallowing: "
+            + e.getMessage());
+      }
     } catch (Exception e) {
       logger.log("Exception caught in updateBookings Lambda: " + e.getMessage());
       throw new Exception("Apologies - something has gone wrong. Please try again.", e);
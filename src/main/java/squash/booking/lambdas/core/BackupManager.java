@@ -16,41 +16,33 @@
 
 package squash.booking.lambdas.core;
 
+import squash.deployment.lambdas.utils.AwsClientRegistry;
 import squash.deployment.lambdas.utils.IS3TransferManager;
-import squash.deployment.lambdas.utils.RetryHelper;
 import squash.deployment.lambdas.utils.S3TransferManager;
 import squash.deployment.lambdas.utils.TransferUtils;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.sns.AmazonSNS;
-import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 
 /**
  * Manages backups of the bookings/rules database.
@@ -160,37 +152,33 @@ public class BackupManager implements IBackupManager {
       throw new IllegalStateException("The backup manager has not been initialised");
     }
 
-    // Encode bookings and booking rules as JSON
-    JsonNodeFactory factory = new JsonNodeFactory(false);
-    // Create a json factory to write the treenode as json.
-    JsonFactory jsonFactory = new JsonFactory();
-    ObjectNode rootNode = factory.objectNode();
-
-    ArrayNode bookingsNode = rootNode.putArray("bookings");
+    // Encode bookings and booking rules as JSON - writing each straight to the
+    // output, rather than first building the whole backup as a JSON tree.
     List<Booking> bookings = bookingManager.getAllBookings(false);
-    for (Booking booking : bookings) {
-      bookingsNode.add((JsonNode) (mapper.valueToTree(booking)));
-    }
-
-    ArrayNode bookingRulesNode = rootNode.putArray("bookingRules");
     List<BookingRule> bookingRules = ruleManager.getRules(false);
-    for (BookingRule bookingRule : bookingRules) {
-      bookingRulesNode.add((JsonNode) (mapper.valueToTree(bookingRule)));
-    }
-
-    // Add this, as will be needed for restore in most common case.
-    rootNode.put("clearBeforeRestore", true);
-
     ByteArrayOutputStream backupDataStream = new ByteArrayOutputStream();
-    PrintStream printStream = new PrintStream(backupDataStream);
-    try (JsonGenerator generator = jsonFactory.createGenerator(printStream)) {
-      mapper.writeTree(generator, rootNode);
+    try (JsonGenerator generator = mapper.getFactory().createGenerator(backupDataStream,
+        JsonEncoding.UTF8)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("bookings");
+      for (Booking booking : bookings) {
+        mapper.writeValue(generator, booking);
+      }
+      generator.writeEndArray();
+      generator.writeArrayFieldStart("bookingRules");
+      for (BookingRule bookingRule : bookingRules) {
+        mapper.writeValue(generator, bookingRule);
+      }
+      generator.writeEndArray();
+      // Add this, as will be needed for restore in most common case.
+      generator.writeBooleanField("clearBeforeRestore", true);
+      generator.writeEndObject();
     }
-    String backupString = backupDataStream.toString(StandardCharsets.UTF_8.name());
+    byte[] backupAsBytes = backupDataStream.toByteArray();
+    String backupString = new String(backupAsBytes, StandardCharsets.UTF_8);
 
     logger.log("Backing up all bookings and booking rules to S3 bucket");
     IS3TransferManager transferManager = getS3TransferManager();
-    byte[] backupAsBytes = backupString.getBytes(StandardCharsets.UTF_8);
     ByteArrayInputStream backupAsStream = new ByteArrayInputStream(backupAsBytes);
     ObjectMetadata metadata = new ObjectMetadata();
     metadata.setContentLength(backupAsBytes.length);
@@ -216,10 +204,6 @@ public class BackupManager implements IBackupManager {
     }
 
     if (clearBeforeRestore) {
-      // It is possible that not all bookings and booking rules can be restored
-      // within the execution time limit of lambda functions, whilst avoiding
-      // 'Too many requests' errors. This boolean allows for doing the restore
-      // in multiple parts to workaround this.
       logger.log("About to delete all bookings from the database");
       bookingManager.deleteAllBookings(false);
       logger.log("Deleted all bookings from the database");
@@ -228,21 +212,11 @@ public class BackupManager implements IBackupManager {
       logger.log("Deleted all booking rules from the database");
     }
 
-    // Restore bookings
-    logger.log("About to restore the provided bookings to the database");
-    logger.log("Got " + bookings.size() + " bookings to restore");
+    // Validate everything before restoring anything
     for (Booking booking : bookings) {
       validateDates(Arrays.asList(booking.getDate()));
       bookingManager.validateBooking(booking);
-
-      RetryHelper.DoWithRetries(() -> bookingManager.createBooking(booking, false),
-          AmazonServiceException.class, Optional.of("429"), logger);
     }
-    logger.log("Restored all bookings to the database");
-
-    // Restore booking rules
-    logger.log("About to restore the provided booking rules to the database");
-    logger.log("Got " + bookingRules.size() + " booking rules to restore");
     for (BookingRule bookingRule : bookingRules) {
       // Verify dates are valid dates.
       List<String> datesToCheck = new ArrayList<>();
@@ -251,11 +225,20 @@ public class BackupManager implements IBackupManager {
           (dateToExclude) -> datesToCheck.add(dateToExclude));
       validateDates(datesToCheck);
       bookingManager.validateBooking(bookingRule.getBooking());
+    }
 
-      RetryHelper.DoWithRetries(() -> ruleManager.createRule(bookingRule, false),
-          AmazonServiceException.class, Optional.of("429"), logger);
+    // Restore bookings. These are written in batches, so even a full backup
+    // needs only a handful of requests. N.B. We do not retry the whole restore,
+    // as it is not idempotent - instead the persister retries each batch.
+    logger.log("About to restore the provided bookings to the database");
+    logger.log("Got " + bookings.size() + " bookings to restore");
+    bookingManager.restoreBookings(bookings, false);
+    logger.log("Restored all bookings to the database");
 
-    }
+    // Restore booking rules
+    logger.log("About to restore the provided booking rules to the database");
+    logger.log("Got " + bookingRules.size() + " booking rules to restore");
+    ruleManager.restoreRules(bookingRules, false);
     logger.log("Restored all booking rules to the database");
   }
 
@@ -300,8 +283,7 @@ public class BackupManager implements IBackupManager {
   protected AmazonSNS getSNSClient() {
 
     // Use a getter here so unit tests can substitute a mock client
-    AmazonSNS client = AmazonSNSClientBuilder.standard().withRegion(region.getName()).build();
-    return client;
+    return AwsClientRegistry.getSNSClient(region.getName());
   }
 
   /**
@@ -16,29 +16,45 @@
 
 package squash.booking.lambdas.core;
 
+import squash.deployment.lambdas.utils.AwsClientRegistry;
 import squash.deployment.lambdas.utils.RetryHelper;
+import squash.deployment.lambdas.utils.RetryPolicy;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.owasp.encoder.Encode;
 
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.simpledb.model.Attribute;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
 import com.amazonaws.services.sns.AmazonSNS;
-import com.amazonaws.services.sns.AmazonSNSClientBuilder;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Manages all bookings.
@@ -52,6 +68,17 @@ import java.util.regex.Pattern;
 public class BookingManager implements IBookingManager {
 
   private Integer maxNumberOfBookingsPerDay = 100;
+  // Limits for bulk deletion of bookings
+  private final int maxDatesPerBatchDelete = 25;
+  private final int maxParallelBatchDeletes = 4;
+  private final double maxBatchDeletesPerSecond = 5.0;
+  // Limits for parallel reads of a range of dates
+  private static final int maxParallelDateReads = 4;
+  private static final long idleDateReadThreadTimeoutSeconds = 60;
+  // Shared by every call in the container - so warm invocations reuse its threads
+  private static final ExecutorService dateReadExecutor = newDateReadExecutor();
+  // Name of the attribute summarising which courts and time slots a date has booked
+  private final String occupancyAttributeName = "Occupancy";
   private Region region;
   private String adminSnsTopicArn;
   private IOptimisticPersister optimisticPersister;
@@ -89,24 +116,20 @@ public class BookingManager implements IBookingManager {
     return RetryHelper
         .DoWithRetries(
             () -> {
-              ImmutablePair<Optional<Integer>, List<Booking>> versionedBookings = getVersionedBookings(itemName);
-
-              // Check that the court(s) we're booking is/are currently free
-              // Get individual booked courts as (court, slot) pairs
-              Set<ImmutablePair<Integer, Integer>> bookedCourts = new HashSet<>();
-              versionedBookings.right.forEach((booking) -> {
-                addBookingToSet(booking, bookedCourts);
-              });
-
-              // Get courts we're trying to book as (court, slot) pairs
-              Set<ImmutablePair<Integer, Integer>> courtsToBook = new HashSet<>();
-              addBookingToSet(bookingToCreate, courtsToBook);
+              ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = getOptimisticPersister()
+                  .get(itemName);
+              List<Attribute> bookingAttributes = versionedAttributes.right.stream()
+                  .filter(this::isBookingAttribute).collect(Collectors.toList());
+
+              // Check that the court(s) we're booking is/are currently free -
+              // using the date's occupancy attribute, so we need not parse
+              // every booking. Dates last written before we kept this attribute
+              // do not have it, so we fall back to parsing their bookings.
+              CourtSlotGrid bookedCourts = getOccupancy(versionedAttributes.right).orElseGet(
+                  () -> getBookedCourtsFromAttributes(bookingAttributes));
 
               // Does the new booking clash with existing bookings?
-              boolean bookingClashes = Boolean.valueOf(Sets
-                  .intersection(courtsToBook, bookedCourts).size() > 0);
-
-              if (bookingClashes) {
+              if (bookedCourts.clashesWith(bookingToCreate)) {
                 // Case of trying to book an already-booked slot - this
                 // probably means either:
                 // - more than one person was trying to book the slot at once,
@@ -120,7 +143,8 @@ public class BookingManager implements IBookingManager {
               logger.log("Required courts are currently free - so proceeding to make booking");
 
               // Do a conditional put - so we don't overwrite someone else's
-              // booking
+              // booking. The occupancy is updated in the same put, so it always
+              // matches the bookings.
               String attributeName = getAttributeNameFromBooking(bookingToCreate);
               String attributeValue = bookingToCreate.getName();
               logger.log("ItemName: " + itemName);
@@ -130,22 +154,126 @@ public class BookingManager implements IBookingManager {
               bookingAttribute.setName(attributeName);
               bookingAttribute.setValue(attributeValue);
 
-              getOptimisticPersister().put(itemName, versionedBookings.left, bookingAttribute);
+              bookedCourts.add(bookingToCreate);
+
+              getOptimisticPersister().putAttributes(itemName, versionedAttributes.left,
+                  Arrays.asList(bookingAttribute, getOccupancyAttribute(bookedCourts)),
+                  bookingAttributes.size());
               logger.log("Created booking in database");
               // Add the booking we've just made to the pre-existing ones.
-              List<Booking> bookings = versionedBookings.right;
+              List<Booking> bookings = getBookingsFromAttributes(bookingAttributes, itemName);
               bookings.add(bookingToCreate);
               return bookings;
-            }, Exception.class, Optional.of("Database put failed - conditional check failed"),
-            logger);
+            }, RetryPolicy.CONFLICTS, "CreateBooking", logger);
   }
 
-  private void addBookingToSet(Booking booking, Set<ImmutablePair<Integer, Integer>> bookedCourts) {
-    for (int court = booking.getCourt(); court < booking.getCourt() + booking.getCourtSpan(); court++) {
-      for (int slot = booking.getSlot(); slot < booking.getSlot() + booking.getSlotSpan(); slot++) {
-        bookedCourts.add(new ImmutablePair<>(court, slot));
+  @Override
+  public List<ImmutablePair<Booking, Boolean>> createBookings(String date,
+      List<Booking> bookingsToCreate, boolean isSquashServiceUserCall) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The booking manager has not been initialised");
+    }
+
+    getLifecycleManager().throwIfOperationInvalidForCurrentLifecycleState(false,
+        isSquashServiceUserCall);
+
+    logger.log("About to create " + bookingsToCreate.size() + " bookings in database for date: "
+        + date);
+    if (bookingsToCreate.stream().anyMatch(booking -> !date.equals(booking.getDate()))) {
+      logger.log("Cannot create bookings for more than one date at once, so throwing a"
+          + " 'Booking creation failed' exception");
+      throw new Exception("Booking creation failed");
+    }
+
+    // We retry the creation of the bookings if necessary if we get a
+    // ConditionalCheckFailed exception, i.e. if someone else modifies
+    // the database between us reading and writing it.
+    return RetryHelper.DoWithRetries(() -> {
+      ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes =
+          getOptimisticPersister().get(date);
+      List<Attribute> bookingAttributes = versionedAttributes.right.stream()
+          .filter(this::isBookingAttribute).collect(Collectors.toList());
+      CourtSlotGrid bookedCourts = getOccupancy(versionedAttributes.right).orElseGet(
+          () -> getBookedCourtsFromAttributes(bookingAttributes));
+
+      // Check each booking in turn - so a booking also clashes with any earlier
+      // booking in the list.
+      List<ImmutablePair<Booking, Boolean>> outcomes = new ArrayList<>();
+      List<ReplaceableAttribute> attributesToPut = new ArrayList<>();
+      for (Booking booking : bookingsToCreate) {
+        if (bookedCourts.clashesWith(booking)) {
+          logger.log("Cannot create booking which clashes with another booking: " + booking);
+          outcomes.add(new ImmutablePair<>(booking, false));
+          continue;
+        }
+        bookedCourts.add(booking);
+        ReplaceableAttribute bookingAttribute = new ReplaceableAttribute();
+        bookingAttribute.setName(getAttributeNameFromBooking(booking));
+        bookingAttribute.setValue(booking.getName());
+        attributesToPut.add(bookingAttribute);
+        outcomes.add(new ImmutablePair<>(booking, true));
+      }
+
+      if (attributesToPut.isEmpty()) {
+        logger.log("No bookings to create in database");
+        return outcomes;
       }
+
+      // Create all the bookings, and update the occupancy to match, in a single conditional put
+      attributesToPut.add(getOccupancyAttribute(bookedCourts));
+      getOptimisticPersister().putAttributes(date, versionedAttributes.left, attributesToPut,
+          bookingAttributes.size());
+      logger.log("Created " + (attributesToPut.size() - 1) + " bookings in database");
+      return outcomes;
+    }, RetryPolicy.CONFLICTS, "CreateBookings", logger);
+  }
+
+  @Override
+  public void restoreBookings(List<Booking> bookingsToRestore, boolean isSquashServiceUserCall)
+      throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The booking manager has not been initialised");
     }
+
+    getLifecycleManager().throwIfOperationInvalidForCurrentLifecycleState(false,
+        isSquashServiceUserCall);
+
+    logger.log("About to restore " + bookingsToRestore.size() + " bookings to database");
+
+    // Restore each date's bookings, and update its occupancy to match, in a
+    // single conditional put - so concurrent bookings are neither lost nor
+    // double-booked. Check every date for clashes, reading only the dates
+    // being restored, before writing anything.
+    SortedMap<String, List<Booking>> bookingsByDate = bookingsToRestore.stream().collect(
+        Collectors.groupingBy(Booking::getDate, TreeMap::new, Collectors.toList()));
+    Map<String, ImmutablePair<Optional<Integer>, Set<Attribute>>> checkedAttributesByDate =
+        new HashMap<>();
+    for (Map.Entry<String, List<Booking>> entry : bookingsByDate.entrySet()) {
+      ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = getOptimisticPersister()
+          .get(entry.getKey());
+      getAttributesToRestore(versionedAttributes.right, entry.getValue());
+      checkedAttributesByDate.put(entry.getKey(), versionedAttributes);
+    }
+
+    for (Map.Entry<String, List<Booking>> entry : bookingsByDate.entrySet()) {
+      String date = entry.getKey();
+      RetryHelper.DoWithRetries(() -> {
+        // Read the date again if it has changed since we checked it
+        ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = checkedAttributesByDate
+            .remove(date);
+        if (versionedAttributes == null) {
+          versionedAttributes = getOptimisticPersister().get(date);
+        }
+        getOptimisticPersister().putAttributes(date, versionedAttributes.left,
+            getAttributesToRestore(versionedAttributes.right, entry.getValue()),
+            (int) versionedAttributes.right.stream().filter(this::isBookingAttribute).count());
+        return null;
+      }, RetryPolicy.CONFLICTS, "RestoreBookings", logger);
+      logger.log("Restored " + entry.getValue().size() + " bookings for date: " + date);
+    }
+    logger.log("Restored bookings to database");
   }
 
   @Override
@@ -162,6 +290,91 @@ public class BookingManager implements IBookingManager {
     return (getVersionedBookings(date).right);
   }
 
+  @Override
+  public CourtSlotGrid getBookedCourts(String date, boolean isSquashServiceUserCall)
+      throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The booking manager has not been initialised");
+    }
+
+    getLifecycleManager().throwIfOperationInvalidForCurrentLifecycleState(true,
+        isSquashServiceUserCall);
+
+    logger.log("About to get booked courts from database for date: " + date);
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedOccupancy = getOptimisticPersister()
+        .get(date, Collections.singletonList(occupancyAttributeName));
+    Optional<CourtSlotGrid> bookedCourts = getOccupancy(versionedOccupancy.right);
+    if (bookedCourts.isPresent() || !versionedOccupancy.left.isPresent()) {
+      // N.B. A date with no version number has no bookings
+      return bookedCourts.orElseGet(CourtSlotGrid::new);
+    }
+
+    // Dates last written before we kept the occupancy attribute do not have
+    // it, so we fall back to parsing their bookings.
+    logger.log("Date has no occupancy attribute - so getting all its bookings instead");
+    return getBookedCourtsFromAttributes(getOptimisticPersister().get(date).right.stream()
+        .filter(this::isBookingAttribute).collect(Collectors.toList()));
+  }
+
+  @Override
+  public SortedMap<String, List<Booking>> getBookings(String fromDate, String toDate,
+      boolean fetchDatesInParallel, boolean isSquashServiceUserCall) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The booking manager has not been initialised");
+    }
+
+    getLifecycleManager().throwIfOperationInvalidForCurrentLifecycleState(true,
+        isSquashServiceUserCall);
+
+    // Every date in the range gets an entry - even if it has no bookings
+    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    LocalDate lastDate = LocalDate.parse(toDate, formatter);
+    SortedMap<String, List<Booking>> bookingsByDate = new TreeMap<>();
+    for (LocalDate date = LocalDate.parse(fromDate, formatter); !date.isAfter(lastDate); date = date
+        .plusDays(1)) {
+      bookingsByDate.put(date.format(formatter), new ArrayList<>());
+    }
+    if (bookingsByDate.isEmpty()) {
+      throw new Exception("The booking date range is invalid");
+    }
+
+    if (fetchDatesInParallel) {
+      logger.log("About to get bookings from database in parallel for dates: " + fromDate
+          + " to " + toDate);
+      // Get the persister here, as the reads must not each race to create one
+      IOptimisticPersister persister = getOptimisticPersister();
+      Map<String, Future<List<Booking>>> futures = new HashMap<>();
+      try {
+        for (String date : bookingsByDate.keySet()) {
+          futures.put(date, dateReadExecutor.submit(() -> getBookingsFromAttributes(persister
+              .get(date).right, date)));
+        }
+        for (Map.Entry<String, Future<List<Booking>>> future : futures.entrySet()) {
+          try {
+            bookingsByDate.put(future.getKey(), future.getValue().get());
+          } catch (ExecutionException executionException) {
+            // Rethrow the original exception
+            Throwable cause = executionException.getCause();
+            throw (cause instanceof Exception) ? (Exception) cause : executionException;
+          }
+        }
+      } finally {
+        // Stop any reads still waiting if one has failed
+        futures.values().forEach(future -> future.cancel(true));
+      }
+    } else {
+      logger.log("About to get bookings from database for dates: " + fromDate + " to " + toDate);
+      getOptimisticPersister().streamItems(fromDate, toDate).forEach(
+          pair -> bookingsByDate.get(pair.left).addAll(
+              getBookingsFromAttributes(pair.right, pair.left)));
+    }
+    logger.log("Got bookings from database for dates: " + fromDate + " to " + toDate);
+
+    return bookingsByDate;
+  }
+
   @Override
   public List<Booking> getAllBookings(boolean isSquashServiceUserCall) throws Exception {
 
@@ -177,17 +390,14 @@ public class BookingManager implements IBookingManager {
     // Query database to get bookings
     List<Booking> bookings = new ArrayList<>();
     getOptimisticPersister()
-        .getAllItems()
-        .stream()
+        .streamAllItems()
         // Want only items corresponding to bookings
         .filter(
             pair -> !pair.left.equals("BookingRulesAndExclusions")
                 && !pair.left.equals("LifecycleState"))
         .forEach(
             pair -> {
-              pair.right.forEach(attribute -> {
-                Booking booking = getBookingFromAttribute(attribute, pair.left);
-
+              getBookingsFromAttributes(pair.right, pair.left).forEach(booking -> {
                 logger.log("Adding booking to returned list: Date: " + pair.left + ", Details: "
                     + booking.toString());
                 bookings.add(booking);
@@ -207,32 +417,114 @@ public class BookingManager implements IBookingManager {
         .get(date);
 
     // Convert attributes to Bookings:
-    List<Booking> existingBookings = new ArrayList<>();
-    versionedAttributes.right.stream().forEach(attribute -> {
-      existingBookings.add(getBookingFromAttribute(attribute, date));
-    });
+    return new ImmutablePair<>(versionedAttributes.left, getBookingsFromAttributes(
+        versionedAttributes.right, date));
+  }
+
+  private List<Booking> getBookingsFromAttributes(Collection<Attribute> attributes, String date) {
+    // N.B. Skips the occupancy attribute, which is not a booking
+    return attributes.stream().filter(this::isBookingAttribute)
+        .map(attribute -> getBookingFromAttribute(attribute, date))
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  private List<ReplaceableAttribute> getAttributesToRestore(Set<Attribute> attributes,
+      List<Booking> bookingsToRestore) throws Exception {
+    // Check the restored bookings clash neither with the date's existing
+    // bookings nor with each other.
+    CourtSlotGrid bookedCourts = getOccupancy(attributes).orElseGet(
+        () -> getBookedCourtsFromAttributes(attributes.stream().filter(this::isBookingAttribute)
+            .collect(Collectors.toList())));
+    List<ReplaceableAttribute> attributesToRestore = new ArrayList<>();
+    for (Booking booking : bookingsToRestore) {
+      if (bookedCourts.clashesWith(booking)) {
+        logger.log("Cannot restore booking which clashes with another booking: " + booking
+            + ", so throwing a 'Booking creation failed' exception");
+        throw new Exception("Booking creation failed");
+      }
+      bookedCourts.add(booking);
+
+      ReplaceableAttribute bookingAttribute = new ReplaceableAttribute();
+      bookingAttribute.setName(getAttributeNameFromBooking(booking));
+      bookingAttribute.setValue(booking.getName());
+      attributesToRestore.add(bookingAttribute);
+    }
+    attributesToRestore.add(getOccupancyAttribute(bookedCourts));
+    return attributesToRestore;
+  }
+
+  private boolean isBookingAttribute(Attribute attribute) {
+    return !attribute.getName().equals(occupancyAttributeName);
+  }
 
-    return new ImmutablePair<>(versionedAttributes.left, existingBookings);
+  private Optional<CourtSlotGrid> getOccupancy(Collection<Attribute> attributes) {
+    return attributes.stream().filter(attribute -> !isBookingAttribute(attribute))
+        .map(attribute -> CourtSlotGrid.decode(attribute.getValue())).findFirst();
+  }
+
+  private ReplaceableAttribute getOccupancyAttribute(CourtSlotGrid bookedCourts) {
+    // Replaces the date's previous occupancy attribute, if any
+    ReplaceableAttribute occupancyAttribute = new ReplaceableAttribute();
+    occupancyAttribute.setName(occupancyAttributeName);
+    occupancyAttribute.setValue(bookedCourts.encode());
+    occupancyAttribute.setReplace(true);
+    return occupancyAttribute;
+  }
+
+  private CourtSlotGrid getBookedCourtsFromAttributes(Collection<Attribute> bookingAttributes) {
+    // Marks each booking straight from its attribute name - without creating the booking
+    CourtSlotGrid bookedCourts = new CourtSlotGrid();
+    for (Attribute attribute : bookingAttributes) {
+      int[] block = getBlockFromAttributeName(attribute.getName());
+      bookedCourts.add(block[0], block[1], block[2], block[3]);
+    }
+    return bookedCourts;
   }
 
   private Booking getBookingFromAttribute(Attribute attribute, String date) {
+    int[] block = getBlockFromAttributeName(attribute.getName());
+    Booking booking = new Booking(block[0], block[1], block[2], block[3], attribute.getValue());
+    booking.setDate(date);
+    return booking;
+  }
+
+  private static int[] getBlockFromAttributeName(String attributeName) {
     // N.B. Attributes have names like <court>-<courtSpan>-<slot>-<slotSpan>
     // e.g. 4-1-7-1 is a single booking for court 4 at time slot 7
     // e.g. 4-2-7-3 is a block booking for courts 4-5 for time slots 7-9
-    String[] parts = attribute.getName().split("-");
-    Integer court = Integer.parseInt(parts[0]);
-    Integer courtSpan = Integer.parseInt(parts[1]);
-    Integer slot = Integer.parseInt(parts[2]);
-    Integer slotSpan = Integer.parseInt(parts[3]);
-    String name = attribute.getValue();
-    Booking booking = new Booking(court, courtSpan, slot, slotSpan, name);
-    booking.setDate(date);
-    return booking;
+    // These are decoded in one pass - without splitting them into substrings.
+    int[] block = new int[4];
+    int part = 0;
+    int value = 0;
+    boolean hasDigits = false;
+    for (int index = 0; index < attributeName.length(); index++) {
+      char character = attributeName.charAt(index);
+      if ((character >= '0') && (character <= '9') && (value < 100000)) {
+        value = value * 10 + (character - '0');
+        hasDigits = true;
+      } else if ((character == '-') && hasDigits && (part < 3)) {
+        block[part++] = value;
+        value = 0;
+        hasDigits = false;
+      } else {
+        throw new IllegalArgumentException("The booking attribute name is invalid: "
+            + attributeName);
+      }
+    }
+    if (!hasDigits || (part != 3)) {
+      throw new IllegalArgumentException("The booking attribute name is invalid: "
+          + attributeName);
+    }
+    block[3] = value;
+    return block;
   }
 
   private String getAttributeNameFromBooking(Booking booking) {
-    return booking.getCourt().toString() + "-" + booking.getCourtSpan().toString() + "-"
-        + booking.getSlot().toString() + "-" + booking.getSlotSpan().toString();
+    // Sized for the longest name with 2-digit numbers, so never needs to grow
+    return new StringBuilder(11).append(booking.getCourt().intValue()).append('-')
+        .append(booking.getCourtSpan().intValue()).append('-')
+        .append(booking.getSlot().intValue()).append('-')
+        .append(booking.getSlotSpan().intValue()).toString();
   }
 
   @Override
@@ -247,14 +539,35 @@ public class BookingManager implements IBookingManager {
         isSquashServiceUserCall);
 
     logger.log("About to delete booking from database: " + bookingToDelete.toString());
+    String itemName = bookingToDelete.getDate();
     Attribute attribute = new Attribute();
     attribute.setName(getAttributeNameFromBooking(bookingToDelete));
     attribute.setValue(bookingToDelete.getName());
-    getOptimisticPersister().delete(bookingToDelete.getDate(), attribute);
 
-    logger.log("Deleted booking from database");
+    // We retry the deletion of the booking if necessary if we get a
+    // ConditionalCheckFailed exception, i.e. if someone else modifies
+    // the database between us reading and writing it.
+    return RetryHelper.DoWithRetries(() -> {
+      // Get today's bookings (and version number), via consistent read:
+      ImmutablePair<Optional<Integer>, List<Booking>> versionedBookings = getVersionedBookings(itemName);
+      List<Booking> bookings = versionedBookings.right;
+
+      if (!bookings.contains(bookingToDelete)) {
+        logger.log("The booking did not exist - so we have nothing to delete.");
+        return bookings;
+      }
+
+      // Remove the booking we're deleting from the pre-existing ones - and
+      // update the occupancy to match in the same conditional put.
+      bookings.remove(bookingToDelete);
+
+      // We've just read the bookings - so the persister can delete without reading them again
+      getOptimisticPersister().delete(itemName, versionedBookings.left, attribute,
+          Arrays.asList(getOccupancyAttribute(CourtSlotGrid.of(bookings))));
+      logger.log("Deleted booking from database");
 
-    return getVersionedBookings(bookingToDelete.getDate()).right;
+      return bookings;
+    }, RetryPolicy.CONFLICTS, "DeleteBooking", logger);
   }
 
   @Override
@@ -286,6 +599,34 @@ public class BookingManager implements IBookingManager {
     }
   }
 
+  @Override
+  public void compactDatabase(boolean isSquashServiceUserCall) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The booking manager has not been initialised");
+    }
+
+    getLifecycleManager().throwIfOperationInvalidForCurrentLifecycleState(false,
+        isSquashServiceUserCall);
+
+    try {
+      logger.log("About to purge deleted bookings and booking rules from database");
+      int numberPurged = getOptimisticPersister().purgeInactiveAttributes();
+      logger.log("Purged " + numberPurged + " deleted bookings and booking rules from database");
+    } catch (Exception exception) {
+      // Callers treat compaction as housekeeping and carry on - so tell the
+      // admin, or deleted bookings would build up unnoticed.
+      logger.log("Exception caught while compacting the database - so notifying sns topic");
+      getSNSClient()
+          .publish(
+              adminSnsTopicArn,
+              "Apologies - but there was an error purging deleted bookings and booking rules from the database. Please check that the database is not accumulating deleted data. The error message was: "
+                  + exception.getMessage(), "Sqawsh database failed to compact");
+      // Rethrow
+      throw exception;
+    }
+  }
+
   @Override
   public void deleteAllBookings(boolean isSquashServiceUserCall) throws Exception {
 
@@ -296,14 +637,56 @@ public class BookingManager implements IBookingManager {
     getLifecycleManager().throwIfOperationInvalidForCurrentLifecycleState(false,
         isSquashServiceUserCall);
 
-    logger.log("Getting all bookings to delete");
-    List<Booking> bookings = getAllBookings(isSquashServiceUserCall);
-    logger.log("Found " + bookings.size() + " bookings to delete");
+    // Delete each date's item whole, in batches - running the batches in
+    // parallel, but rate-limited to avoid 'Too many requests' errors.
+    logger.log("Getting all dates with bookings to delete");
+    // Streamed, so only the item names - not every item's attributes - are held
+    List<String> datesToDelete = getOptimisticPersister().streamAllItems()
+        .map(pair -> pair.left)
+        .filter(itemName -> !itemName.equals("BookingRulesAndExclusions")
+            && !itemName.equals("LifecycleState")).sorted().collect(Collectors.toList());
+    logger.log("Found " + datesToDelete.size() + " dates with bookings to delete");
+    if (datesToDelete.isEmpty()) {
+      return;
+    }
+
     logger.log("About to delete all bookings");
-    for (Booking booking : bookings) {
-      RetryHelper.DoWithRetries(() -> deleteBooking(booking, isSquashServiceUserCall),
-          AmazonServiceException.class, Optional.of("429"), logger);
+    List<List<String>> batches = Lists.partition(datesToDelete, maxDatesPerBatchDelete);
+    RateLimiter rateLimiter = RateLimiter.create(maxBatchDeletesPerSecond);
+    AtomicInteger datesDeleted = new AtomicInteger();
+    IOptimisticPersister persister = getOptimisticPersister();
+    long startTime = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(batches.size(),
+        maxParallelBatchDeletes));
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (List<String> batch : batches) {
+        futures.add(executor.submit(() -> {
+          rateLimiter.acquire();
+          RetryHelper.DoWithRetries(() -> {
+            persister.deleteItems(batch);
+            return null;
+          }, RetryPolicy.THROTTLING, "DeleteAllBookings", logger);
+          logger.log("Deleted bookings for " + datesDeleted.addAndGet(batch.size()) + " of "
+              + datesToDelete.size() + " dates");
+          return null;
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException executionException) {
+          // Rethrow the original exception
+          Throwable cause = executionException.getCause();
+          throw (cause instanceof Exception) ? (Exception) cause : executionException;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
     }
+    long elapsedMillis = Math.max(System.currentTimeMillis() - startTime, 1);
+    logger.log("Deleted bookings for " + datesToDelete.size() + " dates in " + elapsedMillis
+        + "ms (" + (datesToDelete.size() * 1000 / elapsedMillis) + " dates/s)");
     logger.log("Deleted all bookings");
   }
 
@@ -352,8 +735,21 @@ public class BookingManager implements IBookingManager {
   protected AmazonSNS getSNSClient() {
 
     // Use a getter here so unit tests can substitute a mock client
-    AmazonSNS client = AmazonSNSClientBuilder.standard().withRegion(region.getName()).build();
-    return client;
+    return AwsClientRegistry.getSNSClient(region.getName());
+  }
+
+  private static ExecutorService newDateReadExecutor() {
+    AtomicInteger threadNumber = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxParallelDateReads,
+        maxParallelDateReads, idleDateReadThreadTimeoutSeconds, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "date-read-" + threadNumber.incrementAndGet());
+          // Never let date read threads keep the JVM alive
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   /**
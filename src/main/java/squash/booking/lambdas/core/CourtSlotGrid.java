@@ -0,0 +1,186 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.booking.lambdas.core;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Grid of booked court/time slots, for detecting booking clashes.
+ *
+ * <p>Each court's time slots are held as bits of a single long - so marking a booking's block of
+ *    courts and slots costs one bitwise OR per court, and testing for a clash costs one bitwise AND
+ *    per court.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class CourtSlotGrid {
+
+  /** The number of courts at the club. */
+  public static final int NUMBER_OF_COURTS = 5;
+  /** The number of bookable time slots each day. */
+  public static final int NUMBER_OF_SLOTS = 16;
+
+  // Bit (slot - 1) of slotsByCourt[court - 1] is set if the court/slot is booked
+  private final long[] slotsByCourt;
+  private final int numberOfSlots;
+
+  /**
+   * Constructs an empty grid, sized for the club's courts and time slots.
+   */
+  public CourtSlotGrid() {
+    this(NUMBER_OF_COURTS, NUMBER_OF_SLOTS);
+  }
+
+  /**
+   * Constructs an empty grid.
+   *
+   * @param numberOfCourts the number of courts.
+   * @param numberOfSlots the number of time slots - at most 64.
+   */
+  public CourtSlotGrid(int numberOfCourts, int numberOfSlots) {
+    if ((numberOfCourts < 1) || (numberOfSlots < 1) || (numberOfSlots > Long.SIZE)) {
+      throw new IllegalArgumentException("The court/slot grid size is invalid");
+    }
+    this.slotsByCourt = new long[numberOfCourts];
+    this.numberOfSlots = numberOfSlots;
+  }
+
+  /**
+   * Constructs a grid with some bookings marked.
+   *
+   * @param bookings the bookings to mark.
+   */
+  public static CourtSlotGrid of(Iterable<Booking> bookings) {
+    CourtSlotGrid grid = new CourtSlotGrid();
+    for (Booking booking : bookings) {
+      grid.add(booking);
+    }
+    return grid;
+  }
+
+  /**
+   * Marks a booking's block of courts and time slots as booked.
+   *
+   * @param booking the booking.
+   */
+  public void add(Booking booking) {
+    add(booking.getCourt(), booking.getCourtSpan(), booking.getSlot(), booking.getSlotSpan());
+  }
+
+  /**
+   * Marks a block of courts and time slots as booked.
+   *
+   * @param court the first court, numbered from 1.
+   * @param courtSpan the number of courts.
+   * @param slot the first time slot, numbered from 1.
+   * @param slotSpan the number of time slots.
+   */
+  public void add(int court, int courtSpan, int slot, int slotSpan) {
+    long slotMask = slotMask(court, courtSpan, slot, slotSpan);
+    for (int courtIndex = court - 1; courtIndex < court - 1 + courtSpan; courtIndex++) {
+      slotsByCourt[courtIndex] |= slotMask;
+    }
+  }
+
+  /**
+   * Returns whether any of a booking's courts and time slots are already booked.
+   *
+   * @param booking the booking.
+   */
+  public boolean clashesWith(Booking booking) {
+    return clashesWith(booking.getCourt(), booking.getCourtSpan(), booking.getSlot(),
+        booking.getSlotSpan());
+  }
+
+  /**
+   * Returns whether any of a block of courts and time slots are already booked.
+   *
+   * @param court the first court, numbered from 1.
+   * @param courtSpan the number of courts.
+   * @param slot the first time slot, numbered from 1.
+   * @param slotSpan the number of time slots.
+   */
+  public boolean clashesWith(int court, int courtSpan, int slot, int slotSpan) {
+    long slotMask = slotMask(court, courtSpan, slot, slotSpan);
+    for (int courtIndex = court - 1; courtIndex < court - 1 + courtSpan; courtIndex++) {
+      if ((slotsByCourt[courtIndex] & slotMask) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Encodes the grid as a short string, e.g. for persisting as a database attribute.
+   *
+   * <p>The string holds each court's booked slots as hex, separated by dashes - so an empty grid
+   *    of the club's courts is encoded as 0-0-0-0-0.
+   *
+   * @see #decode(String)
+   */
+  public String encode() {
+    return Arrays.stream(slotsByCourt).mapToObj(Long::toHexString)
+        .collect(Collectors.joining("-"));
+  }
+
+  /**
+   * Decodes a grid, of the club's time slots, from a string returned by {@link #encode()}.
+   *
+   * @param encodedGrid the encoded grid.
+   * @throws IllegalArgumentException if the string is not a valid encoded grid.
+   */
+  public static CourtSlotGrid decode(String encodedGrid) {
+    String[] encodedCourts = encodedGrid.split("-");
+    CourtSlotGrid grid = new CourtSlotGrid(encodedCourts.length, NUMBER_OF_SLOTS);
+    long validSlots = -1L >>> (Long.SIZE - NUMBER_OF_SLOTS);
+    for (int courtIndex = 0; courtIndex < encodedCourts.length; courtIndex++) {
+      try {
+        grid.slotsByCourt[courtIndex] = Long.parseUnsignedLong(encodedCourts[courtIndex], 16);
+      } catch (NumberFormatException exception) {
+        throw new IllegalArgumentException("The court/slot grid encoding is invalid");
+      }
+      if ((grid.slotsByCourt[courtIndex] & ~validSlots) != 0) {
+        throw new IllegalArgumentException("The court/slot grid encoding is invalid");
+      }
+    }
+    return grid;
+  }
+
+  private long slotMask(int court, int courtSpan, int slot, int slotSpan) {
+    if ((court < 1) || (courtSpan < 1) || (court - 1 + courtSpan > slotsByCourt.length)
+        || (slot < 1) || (slotSpan < 1) || (slot - 1 + slotSpan > numberOfSlots)) {
+      throw new IllegalArgumentException("The booking lies outside the court/slot grid");
+    }
+    // N.B. Shift -1L right rather than 1L left, so a span of all 64 slots works
+    return (-1L >>> (Long.SIZE - slotSpan)) << (slot - 1);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof CourtSlotGrid)) {
+      return false;
+    }
+    CourtSlotGrid other = (CourtSlotGrid) object;
+    return (numberOfSlots == other.numberOfSlots) && Arrays.equals(slotsByCourt, other.slotsByCourt);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * numberOfSlots + Arrays.hashCode(slotsByCourt);
+  }
+}
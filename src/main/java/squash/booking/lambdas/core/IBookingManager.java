@@ -16,9 +16,12 @@
 
 package squash.booking.lambdas.core;
 
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 
 import java.util.List;
+import java.util.SortedMap;
 
 /**
  * Interface for all classes managing bookings.
@@ -43,6 +46,35 @@ public interface IBookingManager {
    */
   List<Booking> createBooking(Booking booking, boolean isSquashServiceUserCall) throws Exception;
 
+  /**
+   * Creates several court bookings for the same day at once.
+   * 
+   * <p>Each booking is checked for clashes - both with existing bookings and with the bookings
+   *    before it in the list - and those that do not clash are all created in a single
+   *    conditional put. So this costs one round trip however many bookings there are.
+   * 
+   * @param date the day of the bookings, in yyyy-MM-dd format.
+   * @param bookings the bookings to create - all for the given day.
+   * @param isSquashServiceUserCall false if call is for backup/restore or application of rules.
+   * @return Pairs of each booking and whether it was created - in the same order as the bookings.
+   * @throws Exception when the booking creation fails.
+   */
+  List<ImmutablePair<Booking, Boolean>> createBookings(String date, List<Booking> bookings,
+      boolean isSquashServiceUserCall) throws Exception;
+
+  /**
+   * Restores court bookings, e.g. from a backup.
+   * 
+   * <p>Each date's bookings are written in a single conditional put, so this is much faster than
+   *    creating each booking separately - yet bookings made concurrently are not lost. The bookings
+   *    must not clash with each other or with existing bookings.
+   * 
+   * @param bookings the bookings to restore - possibly for many dates.
+   * @param isSquashServiceUserCall false if call is for backup/restore or application of rules.
+   * @throws Exception when the restore fails.
+   */
+  void restoreBookings(List<Booking> bookings, boolean isSquashServiceUserCall) throws Exception;
+
   /**
    * Validates a court booking.
    * 
@@ -59,6 +91,33 @@ public interface IBookingManager {
    */
   List<Booking> getBookings(String date, boolean isSquashServiceUserCall) throws Exception;
 
+  /**
+   * Returns which courts and time slots are booked on a given date.
+   * 
+   * <p>This reads just the date's small occupancy attribute rather than all its bookings - so
+   *    checking whether courts are free is cheap.
+   * 
+   * @param date the date in YYYY-MM-DD format.
+   * @param isSquashServiceUserCall false if call is for backup/restore or application of rules.
+   * @throws Exception when the retrieval fails.
+   */
+  CourtSlotGrid getBookedCourts(String date, boolean isSquashServiceUserCall) throws Exception;
+
+  /**
+   * Returns all court bookings for a range of dates.
+   * 
+   * @param fromDate the first date in the range, in YYYY-MM-DD format.
+   * @param toDate the last date in the range, in YYYY-MM-DD format.
+   * @param fetchDatesInParallel true to read each date with its own consistent read, in parallel,
+   *        or false to read the whole range with a single paged query.
+   * @param isSquashServiceUserCall false if call is for backup/restore or application of rules.
+   * @return the bookings for every date in the range - in date order, and including dates with no
+   *         bookings.
+   * @throws Exception when the booking retrieval fails.
+   */
+  SortedMap<String, List<Booking>> getBookings(String fromDate, String toDate,
+      boolean fetchDatesInParallel, boolean isSquashServiceUserCall) throws Exception;
+
   /**
    * Returns all court bookings for all dates.
    * 
@@ -84,6 +143,18 @@ public interface IBookingManager {
    */
   void deleteYesterdaysBookings(boolean isSquashServiceUserCall) throws Exception;
 
+  /**
+   * Physically removes deleted bookings and booking rules from the database.
+   * 
+   * <p>Deletions leave inactive tombstones behind, which are ignored by all reads. This
+   *    removes them, and is intended to be run periodically, off the user request path. If
+   *    the compaction fails, the admin SNS topic is notified before the exception is thrown.
+   * 
+   * @param isSquashServiceUserCall false if call is for backup/restore or application of rules.
+   * @throws Exception when the compaction fails.
+   */
+  void compactDatabase(boolean isSquashServiceUserCall) throws Exception;
+
   /**
    * Deletes all bookings for all dates.
    * 
@@ -22,9 +22,12 @@ import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.simpledb.model.Attribute;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Interface for reading, creating, and deleting attributes of a simpleDB item.
@@ -43,12 +46,29 @@ public interface IOptimisticPersister {
   /**
    * Performs consistent read of all item's attributes.
    * 
+   * Tombstones count towards SimpleDB's limit of 256 attributes per item until they are purged.
+   * So if the item has built up many tombstones, the read also purges them.
+   * 
    * @param itemName the name of the item to query
    * @return Pair with item's version and all the item's attributes.
    * @throws Exception when the read fails.
    */
   ImmutablePair<Optional<Integer>, Set<Attribute>> get(String itemName) throws Exception;
 
+  /**
+   * Performs consistent read of just some of an item's attributes.
+   * 
+   * This is cheaper than reading every attribute when only a few small ones are needed. Unlike
+   * get(String), it never purges tombstones, as it cannot see them.
+   * 
+   * @param itemName the name of the item to query
+   * @param attributeNames the names of the attributes to read
+   * @return Pair with item's version and those of the named attributes the item has.
+   * @throws Exception when the read fails.
+   */
+  ImmutablePair<Optional<Integer>, Set<Attribute>> get(String itemName,
+      Collection<String> attributeNames) throws Exception;
+
   /**
    * Performs consistent read of all items.
    * 
@@ -59,6 +79,32 @@ public interface IOptimisticPersister {
    */
   List<ImmutablePair<String, List<Attribute>>> getAllItems();
 
+  /**
+   * Performs consistent read of all items, fetching each page only when the stream reaches it.
+   * 
+   * <p>Prefer this to {@link #getAllItems()} when the caller can process items one at a time, as
+   * at most one page of the database query is then held in memory.
+   * 
+   * <p>N.B. As for {@link #getAllItems()}, second and subsequent pages will be eventually-consistent
+   * only. The stream is single-use, and any database error is thrown when it is consumed.
+   * 
+   * @return stream of pairs of item-names and the item's attributes.
+   */
+  Stream<ImmutablePair<String, List<Attribute>>> streamAllItems();
+
+  /**
+   * Performs consistent read of all items whose names lie in a range, fetching each page only when
+   * the stream reaches it.
+   * 
+   * <p>N.B. As for {@link #streamAllItems()}, second and subsequent pages will be
+   * eventually-consistent only.
+   * 
+   * @param fromItemName the first item-name in the range, inclusive.
+   * @param toItemName the last item-name in the range, inclusive.
+   * @return stream of pairs of item-names and the item's attributes, for items in the range.
+   */
+  Stream<ImmutablePair<String, List<Attribute>>> streamItems(String fromItemName, String toItemName);
+
   /**
    * Writes a new attribute to an item.
    * 
@@ -73,19 +119,124 @@ public interface IOptimisticPersister {
   int put(String itemName, Optional<Integer> version, ReplaceableAttribute attribute)
       throws Exception;
 
+  /**
+   * Writes a new attribute to an item whose attribute count the caller already knows.
+   * 
+   * This is as put(String, Optional, ReplaceableAttribute), except it does not first read the
+   * item to check the put will not exceed the maximum number of attributes. Callers that have
+   * just read the item can so save a round trip. If the count is stale, the version will be
+   * too, so the write will still fail safely.
+   * 
+   * @param itemName the name of the item to put the attribute to.
+   * @param version the version of the item if the write is to proceed.
+   * @param attribute the attribute to add to the item.
+   * @param numberOfAttributes the number of active attributes the item has at this version.
+   * @return the version number of the item after the put.
+   * @throws Exception when the put fails.
+   */
+  int put(String itemName, Optional<Integer> version, ReplaceableAttribute attribute,
+      int numberOfAttributes) throws Exception;
+
+  /**
+   * Writes several attributes to an item, in a single conditional put.
+   * 
+   * This is as put(String, Optional, ReplaceableAttribute, int), except the attributes are all
+   * written - or, if the version has changed, none are - so attributes derived from others, e.g.
+   * summaries of them, can be kept in step with them.
+   * 
+   * @param itemName the name of the item to put the attributes to.
+   * @param version the version of the item if the write is to proceed.
+   * @param attributes the attributes to add to the item.
+   * @param numberOfAttributes the number of active attributes the item has at this version.
+   * @return the version number of the item after the put.
+   * @throws Exception when the put fails.
+   */
+  int putAttributes(String itemName, Optional<Integer> version, List<ReplaceableAttribute> attributes,
+      int numberOfAttributes) throws Exception;
+
+  /**
+   * Writes new attributes to several items at once.
+   * 
+   * This groups the writes into batches of up to 25 items, so needs far fewer round trips than
+   * a put per attribute. Each item's version is still bumped, but batched writes cannot be
+   * conditional, so the caller must not rely on this to detect concurrent writes. It is intended
+   * for bulk operations, such as restoring a backup, whose data has already been validated.
+   * A throttled batch is retried on its own, so earlier batches are never written twice.
+   * 
+   * @param attributesByItem the attributes to add, keyed by the name of their item.
+   * @throws Exception when the put fails.
+   */
+  void putAll(Map<String, List<ReplaceableAttribute>> attributesByItem) throws Exception;
+
   /**
    * Deletes an attribute from an item.
    * 
+   * The attribute is replaced by an inactive tombstone, which is ignored by all reads, and
+   * which is physically removed later by purgeInactiveAttributes.
+   * 
    * @param itemName the name of the item to delete the attribute from.
    * @param attribute the attribute to delete from the item.
    * @throws Exception when the delete fails.
    */
   void delete(String itemName, Attribute attribute) throws Exception;
 
+  /**
+   * Deletes an attribute from an item whose version the caller already knows.
+   * 
+   * This writes the tombstone in a single conditional put, without first reading the item.
+   * It performs the write only if the item's version attribute has the specified value, and
+   * otherwise throws a 'Database put failed - conditional check failed' exception.
+   * 
+   * @param itemName the name of the item to delete the attribute from.
+   * @param version the version of the item if the delete is to proceed.
+   * @param attribute the attribute to delete from the item.
+   * @return the version number of the item after the delete.
+   * @throws Exception when the delete fails.
+   */
+  int delete(String itemName, Optional<Integer> version, Attribute attribute) throws Exception;
+
+  /**
+   * Deletes an attribute from an item whose version the caller already knows, and writes other
+   * attributes to it in the same conditional put.
+   * 
+   * This is as delete(String, Optional, Attribute), except the other attributes are written
+   * along with the tombstone - so attributes derived from others can be kept in step with them.
+   * 
+   * @param itemName the name of the item to delete the attribute from.
+   * @param version the version of the item if the delete is to proceed.
+   * @param attribute the attribute to delete from the item.
+   * @param attributesToPut the attributes to write to the item along with the delete.
+   * @return the version number of the item after the delete.
+   * @throws Exception when the delete fails.
+   */
+  int delete(String itemName, Optional<Integer> version, Attribute attribute,
+      List<ReplaceableAttribute> attributesToPut) throws Exception;
+
+  /**
+   * Physically removes the tombstones of deleted attributes from all items.
+   * 
+   * Reads ignore tombstones, so this is not needed for correctness. It is intended to be run
+   * periodically, off the user request path, so items do not accumulate them.
+   * 
+   * @return the number of tombstones removed.
+   */
+  int purgeInactiveAttributes();
+
   /**
    * Deletes all attributes from an item.
    * 
    * @param itemName the name of the item to delete the attributes from.
    */
   void deleteAllAttributes(String itemName);
+
+  /**
+   * Deletes several items, i.e. all their attributes, at once.
+   * 
+   * This groups the deletes into batches of up to 25 items. Like deleteAllAttributes, it is
+   * not conditional on the items' versions.
+   * 
+   * @param itemNames the names of the items to delete.
+   * @throws Exception when the delete fails.
+   */
+  void deleteItems(List<String> itemNames) throws Exception;
 }
\ No newline at end of file
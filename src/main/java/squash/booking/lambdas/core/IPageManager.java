@@ -41,20 +41,26 @@ public interface IPageManager {
   /**
    * Refreshes a bookings web page and cached JSON data for a specified date.
    * 
-   * <p>This has a parameter for requesting a guid-suffixed duplicate of the page also be created.
+   * <p>This has a parameter for requesting that the page be published under a guid-suffixed key,
+   *    with the non-suffixed key redirecting to it. The guid is derived from the page's content.
    *    This is a workaround for S3's only-eventual-consistency, to ensure someone creating or
    *    deleting a booking will always be shown a booking page with their change immediately visible.
    *    The cached JSON data does not have a guid suffix - we assume the javascript client for this
    *    is capable of handling eventual-consistency issues itself.
    *
+   * <p>This does not refresh the bundle of cached JSON data for all the valid dates - only
+   *    refreshAllPages does that. So the bundle's entry for this date may be stale until the next
+   *    full refresh, and clients should use it only once they have revalidated it against this
+   *    date's cached JSON data, using the ETag the bundle records for it.
+   *
    * @param date the date to refresh in YYYY-MM-DD format.
    * @param validDates the dates for which bookings can be made, in YYYY-MM-DD format.
    * @param apiGatewayBaseUrl the base Url of our apigateway Api, e.g. https://dhfmlwxdgr.execute-api.eu-west-1.amazonaws.com/SquashApi.
-   * @param createDuplicate whether to create a duplicate of the page in S3 with a GUID suffix.
+   * @param createDuplicate whether to publish the page in S3 under a GUID-suffixed key.
    * @param bookings the bookings for the specified date.
    * @param revvingSuffix the suffix to use for the linked css file, used for cache rev-ing.
    *
-   * @return The guid embedded in the refreshed page, and used as a suffix when a duplicate is created.
+   * @return The guid embedded in the refreshed page, and used as the key suffix when requested.
    * @throws Exception when the method fails.
    */
   String refreshPage(String date, List<String> validDates, String apiGatewayBaseUrl,
@@ -66,8 +72,9 @@ public interface IPageManager {
    * <p>Refreshes all booking pages for dates that are currently bookable:
    * <ul>
    *     <li>Updates all web pages for currently-bookable dates.</li>
-   *     <li>Does not create guid-suffixed duplicates of these pages.</li>
+   *     <li>Does not publish these pages under guid-suffixed keys.</li>
    *     <li>Updates the index web page to redirect to the current day's booking page.</li>
+   *     <li>Updates the bundle of cached JSON data for all currently-bookable dates.</li>
    *     <li>Deletes the booking page for the previous day - if there is one.</li>
    * </ul>
    *
@@ -90,4 +97,16 @@ public interface IPageManager {
    * @throws Exception when the method fails.
    */
   void uploadFamousPlayers() throws Exception;
+
+  /**
+   * Deletes orphaned guid-suffixed booking pages.
+   * 
+   * <p>Each booking mutation publishes its booking page under a new guid-suffixed key. This
+   *    deletes suffixed pages older than a grace period, unless the booking page for today or a
+   *    later date still redirects to them, and is intended to be run periodically, off the user
+   *    request path.
+   *
+   * @throws Exception when the method fails.
+   */
+  void deleteOrphanedPages() throws Exception;
 }
\ No newline at end of file
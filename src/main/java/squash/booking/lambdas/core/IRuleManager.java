@@ -46,6 +46,19 @@ public interface IRuleManager {
   Set<BookingRule> createRule(BookingRule bookingRuleToCreate, boolean isSquashServiceUserCall)
       throws Exception;
 
+  /**
+   * Restores booking rules, e.g. from a backup.
+   * 
+   * <p>The rules are written in a single batch, rather than one at a time. The rules must not
+   *    clash with each other or with existing rules.
+   * 
+   * @param bookingRulesToRestore the rules to restore.
+   * @param isSquashServiceUserCall false if call is for backup/restore.
+   * @throws Exception when the restore fails.
+   */
+  void restoreRules(List<BookingRule> bookingRulesToRestore, boolean isSquashServiceUserCall)
+      throws Exception;
+
   /**
    * Returns all booking rules.
    * 
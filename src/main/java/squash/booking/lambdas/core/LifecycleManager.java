@@ -24,15 +24,24 @@ import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
 
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages the lifecycle state of the bookings service.
  * 
+ * <p>The lifecycle state is read before almost every operation, but changes only rarely - so it is
+ * cached, in static scope so the cache outlives each invocation of a warm lambda container. Cached
+ * state expires after a short time-to-live, so a change made from another container takes effect
+ * here within that time. A change made from this container updates the cache at once.
+ * 
  * @author robinsteel19@outlook.com (Robin Steel)
  */
 public class LifecycleManager implements ILifecycleManager {
 
   private Integer maxNumberOfBookingsPerDay = 100;
+  // Time-to-live of the cached lifecycle state, unless overridden by an environment variable
+  private final long defaultLifecycleStateCacheTtlSeconds = 30;
+  private static final LifecycleStateCache lifecycleStateCache = new LifecycleStateCache();
   protected IOptimisticPersister optimisticPersister;
   private LambdaLogger logger;
   private Boolean initialised = false;
@@ -125,7 +134,7 @@ public class LifecycleManager implements ILifecycleManager {
     lifecycleAttribute.setValue(lifecycleState.name());
     lifecycleAttribute.setReplace(true);
     int newVersion = getOptimisticPersister().put(lifecycleItemName, lifecycleStateItem.left,
-        lifecycleAttribute);
+        lifecycleAttribute, lifecycleStateItem.right.size());
     logger.log("Updated lifecycle state in database to: " + lifecycleState.name());
 
     if (newServiceUrl.isPresent()) {
@@ -134,9 +143,18 @@ public class LifecycleManager implements ILifecycleManager {
       urlAttribute.setName("Url");
       urlAttribute.setValue(newServiceUrl.get());
       urlAttribute.setReplace(true);
-      getOptimisticPersister().put(lifecycleItemName, Optional.of(newVersion), urlAttribute);
+      // The state put can have added at most one attribute
+      newVersion = getOptimisticPersister().put(lifecycleItemName, Optional.of(newVersion),
+          urlAttribute, lifecycleStateItem.right.size() + 1);
       logger.log("Updated lifecycle state url in database to: " + newServiceUrl.get());
     }
+
+    // Update the cache now - rather than waiting for the cached state to expire
+    Optional<String> url = lifecycleState.equals(LifecycleState.RETIRED) ? newServiceUrl
+        : Optional.empty();
+    getLifecycleStateCache().put(Optional.of(newVersion),
+        new ImmutablePair<>(lifecycleState, url), getCurrentTimeMillis(),
+        getLifecycleStateCacheTtlMillis());
   }
 
   @Override
@@ -146,6 +164,13 @@ public class LifecycleManager implements ILifecycleManager {
       throw new IllegalStateException("The lifecycle manager has not been initialised");
     }
 
+    Optional<ImmutablePair<LifecycleState, Optional<String>>> cachedLifecycleState =
+        getLifecycleStateCache().get(getCurrentTimeMillis());
+    if (cachedLifecycleState.isPresent()) {
+      logger.log("Using cached lifecycle state");
+      return cachedLifecycleState.get();
+    }
+
     ImmutablePair<Optional<Integer>, Set<Attribute>> lifecycleStateItem = getOptimisticPersister()
         .get(lifecycleItemName);
     Optional<Attribute> stateAttribute = lifecycleStateItem.right.stream()
@@ -158,7 +183,103 @@ public class LifecycleManager implements ILifecycleManager {
     // Populate url only if in RETIRED state.
     Optional<String> url = (urlAttribute.isPresent() && state.equals(LifecycleState.RETIRED)) ? Optional
         .of(urlAttribute.get().getValue()) : Optional.empty();
-    return new ImmutablePair<LifecycleState, Optional<String>>(state, url);
+    ImmutablePair<LifecycleState, Optional<String>> lifecycleState = new ImmutablePair<>(state,
+        url);
+    getLifecycleStateCache().put(lifecycleStateItem.left, lifecycleState, getCurrentTimeMillis(),
+        getLifecycleStateCacheTtlMillis());
+    return lifecycleState;
+  }
+
+  /**
+   * Cache of the lifecycle state, with the version of the database item it was read from.
+   *
+   * <p>Entries from an older version of the item never replace unexpired entries from a newer one -
+   * so a slow read cannot undo a lifecycle state change.
+   */
+  protected static class LifecycleStateCache {
+
+    // Version of the lifecycle-state item, its state and url, and when they expire
+    private static class Entry {
+      final Optional<Integer> version;
+      final ImmutablePair<LifecycleState, Optional<String>> lifecycleState;
+      final long expiryTimeMillis;
+
+      Entry(Optional<Integer> version,
+          ImmutablePair<LifecycleState, Optional<String>> lifecycleState, long expiryTimeMillis) {
+        this.version = version;
+        this.lifecycleState = lifecycleState;
+        this.expiryTimeMillis = expiryTimeMillis;
+      }
+    }
+
+    private final AtomicReference<Entry> entry = new AtomicReference<>();
+
+    /**
+     * Returns the cached lifecycle state - unless it has expired.
+     *
+     * @param currentTimeMillis the current time.
+     */
+    public Optional<ImmutablePair<LifecycleState, Optional<String>>> get(long currentTimeMillis) {
+      Entry currentEntry = entry.get();
+      if ((currentEntry == null) || (currentTimeMillis >= currentEntry.expiryTimeMillis)) {
+        return Optional.empty();
+      }
+      return Optional.of(currentEntry.lifecycleState);
+    }
+
+    /**
+     * Caches a lifecycle state - unless a newer version of it is already cached.
+     *
+     * @param version the version of the lifecycle-state item the state was read from.
+     * @param lifecycleState the lifecycle state and any forwarding url.
+     * @param currentTimeMillis the current time.
+     * @param ttlMillis how long to cache the state for.
+     */
+    public void put(Optional<Integer> version,
+        ImmutablePair<LifecycleState, Optional<String>> lifecycleState, long currentTimeMillis,
+        long ttlMillis) {
+      entry.accumulateAndGet(new Entry(version, lifecycleState, currentTimeMillis + ttlMillis), (
+          currentEntry, newEntry) -> {
+        // N.B. Expired entries are always replaced - in case the item was deleted,
+        // which would reset its version.
+        boolean currentEntryIsNewer = (currentEntry != null)
+            && (currentTimeMillis < currentEntry.expiryTimeMillis)
+            && (currentEntry.version.orElse(-1) > newEntry.version.orElse(-1));
+        return currentEntryIsNewer ? currentEntry : newEntry;
+      });
+    }
+  }
+
+  /**
+   * Returns the lifecycle state cache.
+   */
+  protected LifecycleStateCache getLifecycleStateCache() {
+    // Use a getter here so unit tests can substitute a fresh cache.
+    return lifecycleStateCache;
+  }
+
+  /**
+   * Returns the time-to-live of the cached lifecycle state.
+   */
+  protected long getLifecycleStateCacheTtlMillis() {
+    // Use a getter here so unit tests can substitute a different value. The
+    // environment variable lets the time-to-live be changed without a release.
+    String ttlSeconds = System.getenv("LifecycleStateCacheTtlSeconds");
+    try {
+      return 1000 * ((ttlSeconds != null) ? Long.parseLong(ttlSeconds)
+          : defaultLifecycleStateCacheTtlSeconds);
+    } catch (NumberFormatException exception) {
+      logger.log("LifecycleStateCacheTtlSeconds is not a number - so using the default");
+      return 1000 * defaultLifecycleStateCacheTtlSeconds;
+    }
+  }
+
+  /**
+   * Returns the current time.
+   */
+  protected long getCurrentTimeMillis() {
+    // Use a getter here so unit tests can substitute a different time.
+    return System.currentTimeMillis();
   }
 
   /**
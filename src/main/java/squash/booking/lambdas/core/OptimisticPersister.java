@@ -16,7 +16,9 @@
 
 package squash.booking.lambdas.core;
 
+import squash.deployment.lambdas.utils.AwsClientRegistry;
 import squash.deployment.lambdas.utils.RetryHelper;
+import squash.deployment.lambdas.utils.RetryPolicy;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
@@ -25,23 +27,37 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.simpledb.AmazonSimpleDB;
-import com.amazonaws.services.simpledb.AmazonSimpleDBClientBuilder;
 import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
 import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
 import com.amazonaws.services.simpledb.model.GetAttributesRequest;
 import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.Item;
 import com.amazonaws.services.simpledb.model.PutAttributesRequest;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
 import com.amazonaws.services.simpledb.model.SelectRequest;
 import com.amazonaws.services.simpledb.model.SelectResult;
 import com.amazonaws.services.simpledb.model.UpdateCondition;
+import com.google.common.collect.AbstractIterator;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Manages reading, creating, and deleting attributes of a simpleDB item.
@@ -64,6 +80,13 @@ public class OptimisticPersister implements IOptimisticPersister {
   private String versionAttributeName;
   private Integer maxNumberOfAttributes;
   private Region region;
+  // SimpleDB limit on the number of items in a batch request
+  private final int maxItemsPerBatch = 25;
+  // SimpleDB limit on the number of values in a select's 'in' clause
+  private final int maxItemNamesPerSelect = 20;
+  // Tombstones count towards SimpleDB's hard limit of 256 attributes per item until they are
+  // purged - so an item with this many is purged straight away, rather than at the nightly purge.
+  private final int maxInactiveAttributesPerItem = 100;
   private LambdaLogger logger;
   private Boolean initialised = false;
 
@@ -116,12 +139,53 @@ public class OptimisticPersister implements IOptimisticPersister {
       nonVersionAttributes.addAll(attributes.stream()
           .filter(attribute -> !attribute.getValue().startsWith("Inactive"))
           .collect(Collectors.toSet()));
+
+      List<Attribute> inactiveAttributes = attributes.stream()
+          .filter(attribute -> attribute.getValue().startsWith("Inactive"))
+          .collect(Collectors.toList());
+      if (inactiveAttributes.size() >= maxInactiveAttributesPerItem) {
+        // Safe without a version check, for the same reasons as purgeInactiveAttributes
+        logger.log("Item has " + inactiveAttributes.size()
+            + " inactive attributes - so purging them now");
+        client.deleteAttributes(new DeleteAttributesRequest(simpleDbDomainName, itemName,
+            inactiveAttributes));
+      }
     }
     logger.log("Got all attributes from simpledb");
 
     return new ImmutablePair<>(version, nonVersionAttributes);
   }
 
+  @Override
+  public ImmutablePair<Optional<Integer>, Set<Attribute>> get(String itemName,
+      Collection<String> attributeNames) {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    logger.log("About to get attributes " + attributeNames + " from simpledb item: " + itemName);
+
+    // Do a consistent read of just the named attributes and the version number
+    List<String> attributeNamesToGet = new ArrayList<>(attributeNames);
+    attributeNamesToGet.add(versionAttributeName);
+    GetAttributesRequest simpleDBRequest = new GetAttributesRequest(simpleDbDomainName, itemName)
+        .withAttributeNames(attributeNamesToGet).withConsistentRead(true);
+    List<Attribute> attributes = getSimpleDBClient().getAttributes(simpleDBRequest)
+        .getAttributes();
+
+    Optional<Integer> version = attributes.stream()
+        .filter(attribute -> attribute.getName().equals(versionAttributeName))
+        .map(attribute -> Integer.parseInt(attribute.getValue())).findFirst();
+    Set<Attribute> nonVersionAttributes = attributes.stream()
+        .filter(attribute -> !attribute.getName().equals(versionAttributeName))
+        .filter(attribute -> !attribute.getValue().startsWith("Inactive"))
+        .collect(Collectors.toSet());
+    logger.log("Got attributes from simpledb at version: " + version);
+
+    return new ImmutablePair<>(version, nonVersionAttributes);
+  }
+
   @Override
   public List<ImmutablePair<String, List<Attribute>>> getAllItems() {
 
@@ -129,8 +193,36 @@ public class OptimisticPersister implements IOptimisticPersister {
       throw new IllegalStateException("The optimistic persister has not been initialised");
     }
 
+    return streamAllItems().collect(Collectors.toList());
+  }
+
+  @Override
+  public Stream<ImmutablePair<String, List<Attribute>>> streamAllItems() {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Query all items in the domain
+    return streamSelect("select * from `" + simpleDbDomainName + "`");
+  }
+
+  @Override
+  public Stream<ImmutablePair<String, List<Attribute>>> streamItems(String fromItemName,
+      String toItemName) {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Query only items in the range - N.B. SimpleDB escapes quotes by doubling
+    return streamSelect("select * from `" + simpleDbDomainName + "` where itemName() between '"
+        + fromItemName.replace("'", "''") + "' and '" + toItemName.replace("'", "''") + "'");
+  }
+
+  private Stream<ImmutablePair<String, List<Attribute>>> streamSelect(String selectExpression) {
+
     // Query database to get items
-    List<ImmutablePair<String, List<Attribute>>> items = new ArrayList<>();
     AmazonSimpleDB client = getSimpleDBClient();
 
     SelectRequest selectRequest = new SelectRequest();
@@ -140,29 +232,40 @@ public class OptimisticPersister implements IOptimisticPersister {
     // even if we were fully consistent, someone could still add a new booking
     // right after our call anyway.
     selectRequest.setConsistentRead(true);
-    // Query all items in the domain
-    selectRequest.setSelectExpression("select * from `" + simpleDbDomainName + "`");
-    String nextToken = null;
-    do {
-      SelectResult selectResult = client.select(selectRequest);
-      selectResult.getItems().forEach(
-          item -> {
-            List<Attribute> attributes = new ArrayList<>();
-            item.getAttributes()
-                .stream()
-                // Do not return the version attribute or inactive attributes
-                .filter(
-                    attribute -> (!attribute.getName().equals(versionAttributeName) && !attribute
-                        .getValue().startsWith("Inactive"))).forEach(attribute -> {
-                  attributes.add(attribute);
-                });
-            items.add(new ImmutablePair<>(item.getName(), attributes));
-          });
-      nextToken = selectResult.getNextToken();
-      selectRequest.setNextToken(nextToken);
-    } while (nextToken != null);
-
-    return items;
+    selectRequest.setSelectExpression(selectExpression);
+
+    // Fetch each page of the select only when the stream reaches it, so
+    // callers need never hold more than one page in memory.
+    Iterator<Item> items = new AbstractIterator<Item>() {
+      private Iterator<Item> page = Collections.emptyIterator();
+      private boolean morePages = true;
+
+      @Override
+      protected Item computeNext() {
+        while (!page.hasNext()) {
+          if (!morePages) {
+            return endOfData();
+          }
+          SelectResult selectResult = client.select(selectRequest);
+          page = selectResult.getItems().iterator();
+          String nextToken = selectResult.getNextToken();
+          selectRequest.setNextToken(nextToken);
+          morePages = nextToken != null;
+        }
+        return page.next();
+      }
+    };
+
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(items, Spliterator.ORDERED | Spliterator.NONNULL),
+        false).map(
+        item -> new ImmutablePair<>(item.getName(), item
+            .getAttributes()
+            .stream()
+            // Do not return the version attribute or inactive attributes
+            .filter(
+                attribute -> (!attribute.getName().equals(versionAttributeName) && !attribute
+                    .getValue().startsWith("Inactive"))).collect(Collectors.toList())));
   }
 
   @Override
@@ -173,13 +276,7 @@ public class OptimisticPersister implements IOptimisticPersister {
       throw new IllegalStateException("The optimistic persister has not been initialised");
     }
 
-    logger.log("About to add attrbutes to simpledb item: " + itemName);
-
-    AmazonSimpleDB client = getSimpleDBClient();
-
-    // Check the put will not take us over the maximum number of attributes:
-    // N.B. if (replace == true) then this check could be over-eager, but not
-    // worth refining it, since this effectively just alters the limit by one.
+    // Read the item to count its attributes
     ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = get(itemName);
 
     if (versionedAttributes.left.isPresent()) {
@@ -191,9 +288,46 @@ public class OptimisticPersister implements IOptimisticPersister {
           + ") have no version number");
     }
 
-    Boolean tooManyAttributes = versionedAttributes.right.size() >= maxNumberOfAttributes;
-    if (tooManyAttributes && !attribute.getValue().startsWith("Inactive")) {
-      // We allow puts to inactivate attributes even when on the limit -
+    return put(itemName, version, attribute, versionedAttributes.right.size());
+  }
+
+  @Override
+  public int put(String itemName, Optional<Integer> version, ReplaceableAttribute attribute,
+      int numberOfAttributes) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    return putAttributes(itemName, version, Collections.singletonList(attribute),
+        numberOfAttributes);
+  }
+
+  @Override
+  public int putAttributes(String itemName, Optional<Integer> version,
+      List<ReplaceableAttribute> attributes, int numberOfAttributes) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    logger.log("About to add attrbutes to simpledb item: " + itemName);
+
+    AmazonSimpleDB client = getSimpleDBClient();
+
+    // Check the put will not take us over the maximum number of attributes:
+    // N.B. We treat puts with (replace == true) as not adding an attribute. This
+    // is wrong only if the attribute does not yet exist, but not worth refining,
+    // since this effectively just alters the limit by one.
+    // N.B. We trust the caller's count here. If it was read at an earlier version,
+    // the conditional put below will fail anyway.
+    long numberOfAttributesAdded = attributes.stream()
+        .filter(attribute -> !attribute.getValue().startsWith("Inactive"))
+        .filter(attribute -> !Boolean.TRUE.equals(attribute.isReplace())).count();
+    Boolean tooManyAttributes = (numberOfAttributes + numberOfAttributesAdded)
+        > maxNumberOfAttributes;
+    if (tooManyAttributes && (numberOfAttributesAdded > 0)) {
+      // We allow puts to inactivate (or replace) attributes even when on the limit -
       // otherwise we could never delete when we're on the limit.
       logger.log("Cannot create attribute - the maximum number of attributes already exists ("
           + maxNumberOfAttributes
@@ -223,8 +357,8 @@ public class OptimisticPersister implements IOptimisticPersister {
     List<ReplaceableAttribute> replaceableAttributes = new ArrayList<>();
     replaceableAttributes.add(versionAttribute);
 
-    // Add the new attribute
-    replaceableAttributes.add(attribute);
+    // Add the new attributes
+    replaceableAttributes.addAll(attributes);
 
     PutAttributesRequest simpleDBPutRequest = new PutAttributesRequest(simpleDbDomainName,
         itemName, replaceableAttributes, updateCondition);
@@ -250,78 +384,209 @@ public class OptimisticPersister implements IOptimisticPersister {
   }
 
   @Override
-  public void delete(String itemName, Attribute attribute) throws Exception {
+  public void putAll(Map<String, List<ReplaceableAttribute>> attributesByItem) throws Exception {
 
     if (!initialised) {
       throw new IllegalStateException("The optimistic persister has not been initialised");
     }
 
-    logger.log("About to delete attribute from simpledb item: " + itemName);
+    logger.log("About to batch-put attributes to " + attributesByItem.size() + " simpledb items");
+    if (attributesByItem.isEmpty()) {
+      return;
+    }
 
     AmazonSimpleDB client = getSimpleDBClient();
 
+    // Read the version number and attribute count of just the items we are
+    // writing, with a select per chunk of item names rather than a consistent
+    // get per item. N.B. SimpleDB allows at most 20 values in an 'in' clause.
+    Map<String, ImmutablePair<Optional<Integer>, Integer>> versionsAndCounts = new HashMap<>();
+    List<String> itemNames = new ArrayList<>(attributesByItem.keySet());
+    for (int chunkStart = 0; chunkStart < itemNames.size(); chunkStart += maxItemNamesPerSelect) {
+      String quotedItemNames = itemNames
+          .subList(chunkStart, Math.min(chunkStart + maxItemNamesPerSelect, itemNames.size()))
+          .stream().map(itemName -> "'" + itemName.replace("'", "''") + "'")
+          .collect(Collectors.joining(","));
+      SelectRequest selectRequest = new SelectRequest();
+      selectRequest.setConsistentRead(true);
+      selectRequest.setSelectExpression("select * from `" + simpleDbDomainName
+          + "` where itemName() in (" + quotedItemNames + ")");
+      String nextToken = null;
+      do {
+        SelectResult selectResult = client.select(selectRequest);
+        for (Item item : selectResult.getItems()) {
+          Optional<Integer> version = item.getAttributes().stream()
+              .filter(attribute -> attribute.getName().equals(versionAttributeName))
+              .map(attribute -> Integer.parseInt(attribute.getValue())).findFirst();
+          int numberOfAttributes = (int) item.getAttributes().stream()
+              .filter(attribute -> !attribute.getName().equals(versionAttributeName))
+              .filter(attribute -> !attribute.getValue().startsWith("Inactive")).count();
+          versionsAndCounts.put(item.getName(), new ImmutablePair<>(version, numberOfAttributes));
+        }
+        nextToken = selectResult.getNextToken();
+        selectRequest.setNextToken(nextToken);
+      } while (nextToken != null);
+    }
+
+    // Check no item will go over the maximum number of attributes - before we write anything
+    List<ReplaceableItem> replaceableItems = new ArrayList<>();
+    for (Map.Entry<String, List<ReplaceableAttribute>> entry : attributesByItem.entrySet()) {
+      ImmutablePair<Optional<Integer>, Integer> versionAndCount = versionsAndCounts.getOrDefault(
+          entry.getKey(), new ImmutablePair<>(Optional.empty(), 0));
+      // As for single puts, inactivating or replacing attributes adds none
+      long numberOfAttributesAdded = entry.getValue().stream()
+          .filter(attribute -> !attribute.getValue().startsWith("Inactive"))
+          .filter(attribute -> !Boolean.TRUE.equals(attribute.isReplace())).count();
+      if (versionAndCount.right + numberOfAttributesAdded > maxNumberOfAttributes) {
+        logger.log("Cannot create attributes - the maximum number of attributes ("
+            + maxNumberOfAttributes + ") would be exceeded for item: " + entry.getKey()
+            + " so throwing a 'Database put failed - too many attributes' exception");
+        throw new Exception("Database put failed - too many attributes");
+      }
+
+      // Bump up the version number, so concurrent conditional puts see the change
+      ReplaceableAttribute versionAttribute = new ReplaceableAttribute();
+      versionAttribute.setName(versionAttributeName);
+      versionAttribute.setReplace(true);
+      versionAttribute.setValue(versionAndCount.left.isPresent() ? Integer
+          .toString(versionAndCount.left.get() + 1) : "0");
+      List<ReplaceableAttribute> replaceableAttributes = new ArrayList<>();
+      replaceableAttributes.add(versionAttribute);
+      replaceableAttributes.addAll(entry.getValue());
+      replaceableItems.add(new ReplaceableItem(entry.getKey(), replaceableAttributes));
+    }
+
+    // Retry each batch on its own if it is throttled. This is safe because the
+    // new version numbers are fixed above - so rewriting a batch that partly
+    // succeeded leaves the same attributes as writing it once.
+    for (int batchStart = 0; batchStart < replaceableItems.size(); batchStart += maxItemsPerBatch) {
+      BatchPutAttributesRequest batchPutAttributesRequest = new BatchPutAttributesRequest(
+          simpleDbDomainName, replaceableItems.subList(batchStart,
+              Math.min(batchStart + maxItemsPerBatch, replaceableItems.size())));
+      RetryHelper.DoWithRetries(() -> client.batchPutAttributes(batchPutAttributesRequest),
+          RetryPolicy.THROTTLING, "BatchPutAttributes", logger);
+    }
+
+    logger.log("Batch-put attributes to simpledb");
+  }
+
+  @Override
+  public void delete(String itemName, Attribute attribute) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    logger.log("About to delete attribute from simpledb item: " + itemName);
+
     // We retry the delete if necessary if we get a
     // ConditionalCheckFailed exception, i.e. if someone else modifies the
     // database between us reading and writing it.
     RetryHelper
         .DoWithRetries(() -> {
-          try {
-            // Get existing attributes (and version number), via consistent
-            // read:
-            ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = get(itemName);
-
-            if (!versionedAttributes.left.isPresent()) {
-              logger
-                  .log("A version number attribute did not exist - this means no attributes exist, so we have nothing to delete.");
-              return null;
-            }
-            if (!versionedAttributes.right.contains(attribute)) {
-              logger.log("The attribute did not exist - so we have nothing to delete.");
-              return null;
-            }
-
-            // Since it seems impossible to update the version number while
-            // deleting an attribute, we first mark the attribute as inactive,
-            // and then delete it.
-            ReplaceableAttribute inactiveAttribute = new ReplaceableAttribute();
-            inactiveAttribute.setName(attribute.getName());
-            inactiveAttribute.setValue("Inactive" + attribute.getValue());
-            inactiveAttribute.setReplace(true);
-            put(itemName, versionedAttributes.left, inactiveAttribute);
-
-            // Now we can safely delete the attribute, as other readers will now
-            // ignore it.
-            UpdateCondition updateCondition = new UpdateCondition();
-            updateCondition.setName(inactiveAttribute.getName());
-            updateCondition.setValue(inactiveAttribute.getValue());
-            // Update will proceed unless the attribute no longer exists
-            updateCondition.setExists(true);
-
-            Attribute attributeToDelete = new Attribute();
-            attributeToDelete.setName(inactiveAttribute.getName());
-            attributeToDelete.setValue(inactiveAttribute.getValue());
-            List<Attribute> attributesToDelete = new ArrayList<>();
-            attributesToDelete.add(attributeToDelete);
-            DeleteAttributesRequest simpleDBDeleteRequest = new DeleteAttributesRequest(
-                simpleDbDomainName, itemName, attributesToDelete, updateCondition);
-            client.deleteAttributes(simpleDBDeleteRequest);
-            logger.log("Deleted attribute from simpledb");
+          // Get existing attributes (and version number), via consistent
+          // read:
+          ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = get(itemName);
+
+          if (!versionedAttributes.left.isPresent()) {
+            logger
+                .log("A version number attribute did not exist - this means no attributes exist, so we have nothing to delete.");
+            return null;
+          }
+          if (!versionedAttributes.right.contains(attribute)) {
+            logger.log("The attribute did not exist - so we have nothing to delete.");
             return null;
-          } catch (AmazonServiceException ase) {
-            if (ase.getErrorCode().contains("AttributeDoesNotExist")) {
-              // Case of trying to delete an attribute that no longer exists -
-              // that's ok - it probably just means more than one person was
-              // trying to delete the attribute at once. So swallow this
-              // exception
-              logger
-                  .log("Caught AmazonServiceException for AttributeDoesNotExist whilst deleting attribute so"
-                      + " swallowing and continuing");
-              return null;
-            } else {
-              throw ase;
-            }
           }
-        }, Exception.class, Optional.of("Database put failed - conditional check failed"), logger);
+
+          delete(itemName, versionedAttributes.left, attribute);
+          return null;
+        }, RetryPolicy.CONFLICTS, "DeleteAttribute", logger);
+  }
+
+  @Override
+  public int delete(String itemName, Optional<Integer> version, Attribute attribute)
+      throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    return delete(itemName, version, attribute, Collections.emptyList());
+  }
+
+  @Override
+  public int delete(String itemName, Optional<Integer> version, Attribute attribute,
+      List<ReplaceableAttribute> attributesToPut) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Since it seems impossible to update the version number while deleting
+    // an attribute, we instead replace the attribute with an inactive tombstone,
+    // which readers ignore. The tombstone is removed later, off the request
+    // path, by purgeInactiveAttributes.
+    ReplaceableAttribute inactiveAttribute = new ReplaceableAttribute();
+    inactiveAttribute.setName(attribute.getName());
+    inactiveAttribute.setValue("Inactive" + attribute.getValue());
+    inactiveAttribute.setReplace(true);
+
+    List<ReplaceableAttribute> replaceableAttributes = new ArrayList<>();
+    replaceableAttributes.add(inactiveAttribute);
+    replaceableAttributes.addAll(attributesToPut);
+
+    // N.B. Inactivating puts are allowed even on the attribute limit - so the
+    // count we pass is irrelevant here.
+    int newVersion = putAttributes(itemName, version, replaceableAttributes, 0);
+    logger.log("Marked attribute as inactive in simpledb");
+    return newVersion;
+  }
+
+  @Override
+  public int purgeInactiveAttributes() {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    logger.log("About to purge inactive attributes from simpledb domain: " + simpleDbDomainName);
+
+    AmazonSimpleDB client = getSimpleDBClient();
+
+    // Find every inactive attribute in the domain
+    List<DeletableItem> itemsToPurge = new ArrayList<>();
+    SelectRequest selectRequest = new SelectRequest();
+    selectRequest.setConsistentRead(true);
+    selectRequest.setSelectExpression("select * from `" + simpleDbDomainName + "`");
+    String nextToken = null;
+    do {
+      SelectResult selectResult = client.select(selectRequest);
+      for (Item item : selectResult.getItems()) {
+        List<Attribute> inactiveAttributes = item.getAttributes().stream()
+            .filter(attribute -> attribute.getValue().startsWith("Inactive"))
+            .collect(Collectors.toList());
+        if (inactiveAttributes.size() > 0) {
+          itemsToPurge.add(new DeletableItem(item.getName(), inactiveAttributes));
+        }
+      }
+      nextToken = selectResult.getNextToken();
+      selectRequest.setNextToken(nextToken);
+    } while (nextToken != null);
+
+    // Delete them in batches. We delete each inactive attribute by name and value, so
+    // this is safe without a version check: readers already ignore these attributes, and
+    // any attribute written since our select will have a different value.
+    int numberPurged = 0;
+    for (int batchStart = 0; batchStart < itemsToPurge.size(); batchStart += maxItemsPerBatch) {
+      List<DeletableItem> batch = itemsToPurge.subList(batchStart,
+          Math.min(batchStart + maxItemsPerBatch, itemsToPurge.size()));
+      client.batchDeleteAttributes(new BatchDeleteAttributesRequest(simpleDbDomainName, batch));
+      numberPurged += batch.stream().mapToInt(item -> item.getAttributes().size()).sum();
+    }
+
+    logger.log("Purged " + numberPurged + " inactive attributes from " + itemsToPurge.size()
+        + " simpledb items");
+    return numberPurged;
   }
 
   @Override
@@ -341,6 +606,27 @@ public class OptimisticPersister implements IOptimisticPersister {
     logger.log("Deleted all attributes from simpledb item.");
   }
 
+  @Override
+  public void deleteItems(List<String> itemNames) {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    logger.log("About to delete " + itemNames.size() + " simpledb items");
+
+    // A deletable item with no attributes specified has all its attributes deleted
+    AmazonSimpleDB client = getSimpleDBClient();
+    for (int batchStart = 0; batchStart < itemNames.size(); batchStart += maxItemsPerBatch) {
+      List<DeletableItem> batch = itemNames
+          .subList(batchStart, Math.min(batchStart + maxItemsPerBatch, itemNames.size())).stream()
+          .map(itemName -> new DeletableItem().withName(itemName)).collect(Collectors.toList());
+      client.batchDeleteAttributes(new BatchDeleteAttributesRequest(simpleDbDomainName, batch));
+    }
+
+    logger.log("Deleted simpledb items");
+  }
+
   /**
    * Returns a named environment variable.
    * @throws Exception 
@@ -364,8 +650,6 @@ public class OptimisticPersister implements IOptimisticPersister {
   protected AmazonSimpleDB getSimpleDBClient() {
 
     // Use a getter here so unit tests can substitute a mock client
-    AmazonSimpleDB client = AmazonSimpleDBClientBuilder.standard().withRegion(region.getName())
-        .build();
-    return client;
+    return AwsClientRegistry.getSimpleDBClient(region.getName());
   }
 }
\ No newline at end of file
@@ -17,8 +17,9 @@
 package squash.booking.lambdas.core;
 
 import squash.booking.lambdas.core.ILifecycleManager.LifecycleState;
+import squash.deployment.lambdas.utils.AwsClientRegistry;
 import squash.deployment.lambdas.utils.ExceptionUtils;
-import squash.deployment.lambdas.utils.FileUtils;
+import squash.deployment.lambdas.utils.GzipBuffer;
 import squash.deployment.lambdas.utils.IS3TransferManager;
 import squash.deployment.lambdas.utils.S3TransferManager;
 import squash.deployment.lambdas.utils.TransferUtils;
@@ -35,25 +36,28 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
-import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.sns.AmazonSNS;
-import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
@@ -61,11 +65,24 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Manages all interactions with the website pages in the S3 bucket.
@@ -77,6 +94,11 @@ import java.util.UUID;
  */
 public class PageManager implements IPageManager {
 
+  // Json factories are thread-safe, and reuse their buffers across generators
+  private static final JsonFactory jsonFactory = new JsonFactory();
+  private static final ThreadLocal<ByteArrayOutputStream> jsonBuffers = ThreadLocal
+      .withInitial(() -> new ByteArrayOutputStream(4096));
+
   private String websiteBucketName;
   private Region region;
   private String adminSnsTopicArn;
@@ -84,6 +106,21 @@ public class PageManager implements IPageManager {
   private ILifecycleManager lifecycleManager;
   private LambdaLogger logger;
   private Boolean initialised = false;
+  private final int defaultMaxParallelPageRefreshes = 4;
+  private final String bookingsBundleKey = "NoScript/bookings";
+  // ETags of the objects published before refreshing all pages, so unchanged content need
+  // not be re-uploaded
+  private volatile Map<String, String> publishedEtags = new HashMap<>();
+  private final String contentGuidPlaceholder = "00000000-0000-0000-0000-000000000000";
+  private final AtomicInteger uploadedObjectCount = new AtomicInteger();
+  private final AtomicInteger skippedObjectCount = new AtomicInteger();
+  // Limits for deleting orphaned guid-suffixed booking pages
+  private final long orphanedPageGracePeriodMillis = TimeUnit.HOURS.toMillis(24);
+  private final int maxKeysPerBatchDelete = 1000;
+  private final double maxBatchDeletesPerSecond = 2.0;
+  private final Pattern suffixedPagePattern = Pattern
+      .compile("NoScript/\\d{4}-\\d{2}-\\d{2}.+\\.html");
+  private final Pattern pagePattern = Pattern.compile("NoScript/\\d{4}-\\d{2}-\\d{2}\\.html");
 
   @Override
   public void initialise(IBookingManager bookingManager, ILifecycleManager lifecycleManager,
@@ -106,27 +143,73 @@ public class PageManager implements IPageManager {
     }
 
     // To workaround S3 ReadAfterUpdate and ReadAfterDelete being only
-    // eventually-consistent, we save new booking page and also a duplicate
-    // with a unique name - and we redirect to this duplicate - which _will_
-    // have ReadAfterWrite consistency, since it is a new key.
-    String pageGuid = UUID.randomUUID().toString();
+    // eventually-consistent, we save the new booking page under a key derived
+    // from its content - and we redirect to this key - which _will_ have
+    // ReadAfterWrite consistency, since it is a new key.
+    RenderedPage renderedPage = renderPage(date, validDates, apiGatewayBaseUrl, bookings,
+        revvingSuffix);
+    uploadPage(renderedPage, createDuplicate, false);
+
+    return renderedPage.pageGuid;
+  }
+
+  /**
+   * Renders a date's booking page and cached booking data, ready for upload to S3.
+   *
+   * <p>The page's guid is derived from the rest of the page. So an unchanged page renders to
+   *    identical bytes, and the guid can serve as a content-addressed key suffix.
+   */
+  private RenderedPage renderPage(String date, List<String> validDates,
+      String apiGatewayBaseUrl, List<Booking> bookings, String revvingSuffix) throws Exception {
 
-    logger.log("About to create booking page with guid: " + pageGuid);
+    logger.log("About to create booking page");
     String newPage = createBookingPage(date, validDates, apiGatewayBaseUrl + "/reservationform",
         apiGatewayBaseUrl + "/cancellationform", "http://" + websiteBucketName + ".s3-website-"
-            + region + ".amazonaws.com", bookings, pageGuid, revvingSuffix);
+            + region + ".amazonaws.com", bookings, contentGuidPlaceholder, revvingSuffix);
+    String pageGuid = UUID.nameUUIDFromBytes(newPage.getBytes(StandardCharsets.UTF_8))
+        .toString();
+    newPage = newPage.replace(contentGuidPlaceholder, pageGuid);
     logger.log("Created booking page with guid: " + pageGuid);
 
+    // Create cached booking data as JSON for the Angularjs app to use
+    logger.log("About to create cached booking data");
+    String cachedBookingData = createCachedBookingData(date, bookings);
+    logger.log("Created cached booking data");
+
+    return new RenderedPage(date, pageGuid, newPage, cachedBookingData);
+  }
+
+  /**
+   * Uploads a date's rendered booking page and cached booking data to S3.
+   */
+  private void uploadPage(RenderedPage renderedPage, Boolean createDuplicate,
+      boolean skipIfUnchanged) throws Exception {
     logger.log("About to copy booking page to S3");
-    copyUpdatedBookingPageToS3(date, newPage, createDuplicate ? pageGuid : "", true);
+    copyUpdatedBookingPageToS3(renderedPage.date, renderedPage.page,
+        createDuplicate ? renderedPage.pageGuid : "", true, skipIfUnchanged);
     logger.log("Copied booking page to S3");
 
-    // Create cached booking data as JSON for the Angularjs app to use
-    logger.log("About to create and upload cached booking data to S3");
-    copyJsonDataToS3("NoScript/" + date, createCachedBookingData(date, validDates, bookings));
+    logger.log("About to upload cached booking data to S3");
+    copyJsonDataToS3("NoScript/" + renderedPage.date, renderedPage.cachedBookingData,
+        skipIfUnchanged);
     logger.log("Uploaded cached booking data to S3");
+  }
 
-    return pageGuid;
+  /**
+   * A date's booking page and cached booking data, rendered but not yet uploaded.
+   */
+  private static class RenderedPage {
+    private final String date;
+    private final String pageGuid;
+    private final String page;
+    private final String cachedBookingData;
+
+    private RenderedPage(String date, String pageGuid, String page, String cachedBookingData) {
+      this.date = date;
+      this.pageGuid = pageGuid;
+      this.page = page;
+      this.cachedBookingData = cachedBookingData;
+    }
   }
 
   @Override
@@ -144,6 +227,9 @@ public class PageManager implements IPageManager {
       // seconds the update takes to complete.
       logger.log("About to refresh S3 website");
       logger.log("Using valid dates: " + validDates);
+      uploadedObjectCount.set(0);
+      skippedObjectCount.set(0);
+      publishedEtags = getPublishedEtags();
       logger.log("Using ApigatewayBaseUrl: " + apiGatewayBaseUrl);
 
       // Log time to sanity check it does occur at midnight. (_Think_ this
@@ -156,30 +242,40 @@ public class PageManager implements IPageManager {
       ImmutablePair<ILifecycleManager.LifecycleState, Optional<String>> lifecycleState = lifecycleManager
           .getLifecycleState();
 
-      uploadBookingsPagesToS3(validDates, apiGatewayBaseUrl, revvingSuffix, lifecycleState);
+      Map<String, String> cachedBookingDataByDate = uploadBookingsPagesToS3(validDates,
+          apiGatewayBaseUrl, revvingSuffix, lifecycleState);
       logger.log("Uploaded new set of bookings pages to S3");
 
+      // Save the cached booking data for all the valid dates as one bundle
+      logger.log("About to create and upload bookings bundle to S3");
+      copyJsonDataToS3(bookingsBundleKey, createBookingsBundleData(validDates,
+          cachedBookingDataByDate), true);
+      logger.log("Uploaded bookings bundle to S3");
+
       // Save the valid dates in JSON form
       logger.log("About to create and upload cached valid dates data to S3");
-      copyJsonDataToS3("NoScript/validdates", createValidDatesData(validDates));
+      copyJsonDataToS3("NoScript/validdates", createValidDatesData(validDates), true);
       logger.log("Uploaded cached valid dates data to S3");
 
       logger.log("About to upload famous players data to S3");
-      uploadFamousPlayers();
+      uploadFamousPlayers(true);
       logger.log("Uploaded famous players data to S3");
+      logger.log("Uploaded " + uploadedObjectCount.get() + " objects and skipped "
+          + skippedObjectCount.get() + " unchanged objects");
 
       // Remove the now-previous day's bookings page and cached data from S3.
       // (If this page does not exist then this is a no-op.)
       String yesterdaysDate = getCurrentLocalDate().minusDays(1).format(
           DateTimeFormatter.ofPattern("yyyy-MM-dd"));
       logger.log("About to remove yesterday's booking page and cached data from S3 bucket: "
-          + websiteBucketName + " and key: " + yesterdaysDate + ".html");
+          + websiteBucketName + " and key: NoScript/" + yesterdaysDate + ".html");
       IS3TransferManager transferManager = getS3TransferManager();
       DeleteObjectRequest deleteObjectRequest = new DeleteObjectRequest(websiteBucketName,
-          yesterdaysDate + ".html");
+          "NoScript/" + yesterdaysDate + ".html");
       AmazonS3 client = transferManager.getAmazonS3Client();
       client.deleteObject(deleteObjectRequest);
-      deleteObjectRequest = new DeleteObjectRequest(websiteBucketName, yesterdaysDate + ".json");
+      deleteObjectRequest = new DeleteObjectRequest(websiteBucketName, "NoScript/"
+          + yesterdaysDate + ".json");
       client.deleteObject(deleteObjectRequest);
       logger.log("Removed yesterday's booking page and cached data successfully from S3");
     } catch (Exception exception) {
@@ -201,6 +297,95 @@ public class PageManager implements IPageManager {
       throw new IllegalStateException("The page manager has not been initialised");
     }
 
+    uploadFamousPlayers(false);
+  }
+
+  @Override
+  public void deleteOrphanedPages() throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The page manager has not been initialised");
+    }
+
+    logger.log("About to delete orphaned booking pages from S3 bucket: " + websiteBucketName);
+    AmazonS3 client = getS3TransferManager().getAmazonS3Client();
+
+    // Find the suffixed pages, and the booking pages that may point to them
+    List<S3ObjectSummary> suffixedPages = new ArrayList<>();
+    List<String> pointers = new ArrayList<>();
+    ListObjectsRequest listObjectsRequest = new ListObjectsRequest().withBucketName(
+        websiteBucketName).withPrefix("NoScript/");
+    ObjectListing objectListing;
+    do {
+      objectListing = client.listObjects(listObjectsRequest);
+      for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
+        if (pagePattern.matcher(objectSummary.getKey()).matches()) {
+          // Pointers to suffixed pages are empty - real pages never are
+          if (objectSummary.getSize() == 0) {
+            pointers.add(objectSummary.getKey());
+          }
+        } else if (suffixedPagePattern.matcher(objectSummary.getKey()).matches()) {
+          suffixedPages.add(objectSummary);
+        }
+      }
+      listObjectsRequest.setMarker(objectListing.getNextMarker());
+    } while (objectListing.isTruncated());
+
+    // Never delete a page that a booking page still redirects to. Pointers for
+    // past dates are left only if the nightly delete failed - so they do not
+    // keep their pages alive.
+    String todaysDate = getCurrentLocalDate().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    Set<String> livePages = new HashSet<>();
+    for (String pointer : pointers) {
+      if (pointer.substring("NoScript/".length()).compareTo(todaysDate) < 0) {
+        logger.log("Ignoring pointer for a past date: " + pointer);
+        continue;
+      }
+      String redirectLocation = (String) client.getObjectMetadata(websiteBucketName, pointer)
+          .getRawMetadataValue(Headers.REDIRECT_LOCATION);
+      if (redirectLocation != null) {
+        livePages.add(redirectLocation.replaceFirst("^/", ""));
+      }
+    }
+    long cutoffTimeMillis = getCurrentTimeMillis() - orphanedPageGracePeriodMillis;
+    List<S3ObjectSummary> orphanedPages = suffixedPages
+        .stream()
+        .filter(
+            page -> (page.getLastModified().getTime() < cutoffTimeMillis)
+                && !livePages.contains(page.getKey())).collect(Collectors.toList());
+    logger.log("Found " + orphanedPages.size() + " orphaned pages of " + suffixedPages.size()
+        + " suffixed pages");
+
+    RateLimiter rateLimiter = RateLimiter.create(maxBatchDeletesPerSecond);
+    int pagesDeleted = 0;
+    long bytesFreed = 0;
+    for (List<S3ObjectSummary> batch : Lists.partition(orphanedPages, maxKeysPerBatchDelete)) {
+      rateLimiter.acquire();
+      DeleteObjectsRequest deleteObjectsRequest = new DeleteObjectsRequest(websiteBucketName)
+          .withKeys(batch.stream().map(page -> new KeyVersion(page.getKey()))
+              .collect(Collectors.toList())).withQuiet(true);
+      Set<String> failedKeys = new HashSet<>();
+      try {
+        client.deleteObjects(deleteObjectsRequest);
+      } catch (MultiObjectDeleteException multiObjectDeleteException) {
+        // Leave these for the next run to retry
+        multiObjectDeleteException.getErrors().forEach(error -> {
+          logger.log("Failed to delete orphaned page: " + error.getKey() + ": "
+              + error.getMessage());
+          failedKeys.add(error.getKey());
+        });
+      }
+      for (S3ObjectSummary page : batch) {
+        if (!failedKeys.contains(page.getKey())) {
+          pagesDeleted++;
+          bytesFreed += page.getSize();
+        }
+      }
+    }
+    logger.log("Deleted " + pagesDeleted + " orphaned pages, freeing " + bytesFreed + " bytes");
+  }
+
+  private void uploadFamousPlayers(boolean skipIfUnchanged) throws Exception {
     String famousPlayers;
     try {
       famousPlayers = IOUtils.toString(PageManager.class
@@ -210,7 +395,7 @@ public class PageManager implements IPageManager {
       throw new Exception("Exception caught reading FamousPlayers.json file");
     }
     logger.log("Uploading famousplayers.json to S3");
-    copyJsonDataToS3("famousplayers", famousPlayers);
+    copyJsonDataToS3("famousplayers", famousPlayers, skipIfUnchanged);
     logger.log("Uploaded famousplayers.json to S3 successfully");
   }
 
@@ -295,14 +480,6 @@ public class PageManager implements IPageManager {
     }
 
     // Create the page by merging the data with the page template
-    VelocityEngine engine = new VelocityEngine();
-    // Use the classpath loader so Velocity finds our template
-    Properties properties = new Properties();
-    properties.setProperty("resource.loader", "class");
-    properties.setProperty("class.resource.loader.class",
-        "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-    engine.init(properties);
-
     VelocityContext context = new VelocityContext();
     context.put("pageGuid", pageGuid);
     context.put("s3WebsiteUrl", s3WebsiteUrl);
@@ -329,24 +506,26 @@ public class PageManager implements IPageManager {
     // Render the page
     logger.log("About to render booking page");
     StringWriter writer = new StringWriter();
-    Template template = engine.getTemplate("squash/booking/lambdas/BookingPage.vm", "utf-8");
+    Template template = getBookingPageTemplate();
     template.merge(context, writer);
-    logger.log("Rendered booking page: " + writer);
+    logger.log("Rendered booking page of " + writer.getBuffer().length() + " characters");
     return writer.toString();
   }
 
   /**
    * Returns JSON-encoded booking data for a specified date.
    * 
+   * <p>The data does not include the valid dates, which clients get separately, so a date's
+   *    data is unchanged at midnight unless its bookings are.
+   *
    * <p>This is not private only so that it can be unit-tested.
    * 
    * @param date the date in YYYY-MM-DD format.
-   * @param validDates the dates for which bookings can be made, in YYYY-MM-DD format.
    * @param bookings the bookings for the specified date.
    * @throws Exception 
    */
-  protected String createCachedBookingData(String date, List<String> validDates,
-      List<Booking> bookings) throws Exception {
+  protected String createCachedBookingData(String date, List<Booking> bookings)
+      throws Exception {
 
     ImmutablePair<LifecycleState, Optional<String>> lifecycleState = lifecycleManager
         .getLifecycleState();
@@ -358,40 +537,36 @@ public class PageManager implements IPageManager {
       logger.log("Lifecycle state forwarding url is: " + lifecycleState.right.get());
     }
 
-    // Encode bookings as JSON
-    // Create the node factory that gives us nodes.
-    JsonNodeFactory factory = new JsonNodeFactory(false);
-    // Create a json factory to write the treenode as json.
-    JsonFactory jsonFactory = new JsonFactory();
-    ObjectNode rootNode = factory.objectNode();
-
-    rootNode.put("date", date);
-    ArrayNode validDatesNode = rootNode.putArray("validdates");
-    for (int i = 0; i < validDates.size(); i++) {
-      validDatesNode.add(validDates.get(i));
-    }
-    ArrayNode bookingsNode = rootNode.putArray("bookings");
-    for (int i = 0; i < bookings.size(); i++) {
-      Booking booking = bookings.get(i);
-      ObjectNode bookingNode = factory.objectNode();
-      bookingNode.put("court", booking.getCourt());
-      bookingNode.put("courtSpan", booking.getCourtSpan());
-      bookingNode.put("slot", booking.getSlot());
-      bookingNode.put("slotSpan", booking.getSlotSpan());
-      bookingNode.put("name", booking.getName());
-      bookingsNode.add(bookingNode);
-    }
-    // This gives the Angularjs app access to the lifecycle state.
-    ObjectNode lifecycleStateNode = rootNode.putObject("lifecycleState");
-    lifecycleStateNode.put("state", lifecycleState.left.name());
-    lifecycleStateNode.put("url", lifecycleState.right.isPresent() ? lifecycleState.right.get()
-        : "");
-
-    ByteArrayOutputStream bookingDataStream = new ByteArrayOutputStream();
-    PrintStream printStream = new PrintStream(bookingDataStream);
-    try (JsonGenerator generator = jsonFactory.createGenerator(printStream)) {
-      ObjectMapper mapper = new ObjectMapper();
-      mapper.writeTree(generator, rootNode);
+    return createCachedBookingData(date, bookings, lifecycleState);
+  }
+
+  private String createCachedBookingData(String date, List<Booking> bookings,
+      ImmutablePair<LifecycleState, Optional<String>> lifecycleState) throws IOException {
+
+    // Encode bookings as JSON, streaming them straight from the bookings list
+    ByteArrayOutputStream bookingDataStream = getJsonBuffer();
+    try (JsonGenerator generator = jsonFactory.createGenerator(bookingDataStream)) {
+      generator.writeStartObject();
+      generator.writeStringField("date", date);
+      generator.writeArrayFieldStart("bookings");
+      for (int i = 0; i < bookings.size(); i++) {
+        Booking booking = bookings.get(i);
+        generator.writeStartObject();
+        generator.writeNumberField("court", booking.getCourt());
+        generator.writeNumberField("courtSpan", booking.getCourtSpan());
+        generator.writeNumberField("slot", booking.getSlot());
+        generator.writeNumberField("slotSpan", booking.getSlotSpan());
+        generator.writeStringField("name", booking.getName());
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      // This gives the Angularjs app access to the lifecycle state.
+      generator.writeObjectFieldStart("lifecycleState");
+      generator.writeStringField("state", lifecycleState.left.name());
+      generator.writeStringField("url", lifecycleState.right.isPresent() ? lifecycleState.right
+          .get() : "");
+      generator.writeEndObject();
+      generator.writeEndObject();
     }
     String bookingData = bookingDataStream.toString(StandardCharsets.UTF_8.name());
     logger.log("Created cached booking data: " + bookingData);
@@ -414,21 +589,15 @@ public class PageManager implements IPageManager {
     logger.log("About to create cached valid dates data");
 
     // Encode valid dates as JSON
-    // Create the node factory that gives us nodes.
-    JsonNodeFactory factory = new JsonNodeFactory(false);
-    // Create a json factory to write the treenode as json.
-    JsonFactory jsonFactory = new JsonFactory();
-    ObjectNode rootNode = factory.objectNode();
-    ArrayNode validDatesNode = rootNode.putArray("dates");
-    for (int i = 0; i < validDates.size(); i++) {
-      validDatesNode.add(validDates.get(i));
-    }
-
-    ByteArrayOutputStream validDatesStream = new ByteArrayOutputStream();
-    PrintStream printStream = new PrintStream(validDatesStream);
-    try (JsonGenerator generator = jsonFactory.createGenerator(printStream)) {
-      ObjectMapper mapper = new ObjectMapper();
-      mapper.writeTree(generator, rootNode);
+    ByteArrayOutputStream validDatesStream = getJsonBuffer();
+    try (JsonGenerator generator = jsonFactory.createGenerator(validDatesStream)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("dates");
+      for (int i = 0; i < validDates.size(); i++) {
+        generator.writeString(validDates.get(i));
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
     }
     String validDatesString = validDatesStream.toString(StandardCharsets.UTF_8.name());
     logger.log("Created cached valid dates data : " + validDatesString);
@@ -436,6 +605,76 @@ public class PageManager implements IPageManager {
     return validDatesString;
   }
 
+  /**
+   * Returns JSON-encoded cached booking data for all the valid dates, as a single bundle.
+   *
+   * <p>The bundle holds each date's cached booking data, with its SHA-256 hash, so clients can
+   *    load the whole booking window in one request. Its version is a hash of all the dates'
+   *    hashes, so changes whenever any date's data changes.
+   *
+   * <p>The bundle is rebuilt only nightly, whereas each date's cached booking data is updated
+   *    on every booking mutation. So each date also has the ETag its cached booking data is
+   *    uploaded with, i.e. the MD5 hash of its bytes, which clients can use to revalidate that
+   *    date's entry with a conditional request.
+   *
+   * <p>This is not private only so that it can be unit-tested.
+   *
+   * @param validDates the dates for which bookings can be made, in YYYY-MM-DD format.
+   * @param cachedBookingDataByDate the cached booking data for each valid date.
+   * @throws IOException
+   */
+  protected String createBookingsBundleData(List<String> validDates,
+      Map<String, String> cachedBookingDataByDate) throws IOException {
+
+    logger.log("About to create bookings bundle data");
+
+    List<String> hashes = new ArrayList<>(validDates.size());
+    List<String> etags = new ArrayList<>(validDates.size());
+    Hasher versionHasher = Hashing.sha256().newHasher();
+    for (String validDate : validDates) {
+      String hash = Hashing.sha256()
+          .hashString(cachedBookingDataByDate.get(validDate), StandardCharsets.UTF_8).toString();
+      hashes.add(hash);
+      etags.add(Hashing.md5()
+          .hashString(cachedBookingDataByDate.get(validDate), StandardCharsets.UTF_8).toString());
+      versionHasher.putString(validDate, StandardCharsets.UTF_8).putString(hash,
+          StandardCharsets.UTF_8);
+    }
+
+    // Embed each date's cached booking data verbatim, so it matches its hash
+    ByteArrayOutputStream bundleStream = getJsonBuffer();
+    try (JsonGenerator generator = jsonFactory.createGenerator(bundleStream)) {
+      generator.writeStartObject();
+      generator.writeStringField("version", versionHasher.hash().toString());
+      generator.writeObjectFieldStart("dates");
+      for (int i = 0; i < validDates.size(); i++) {
+        generator.writeObjectFieldStart(validDates.get(i));
+        generator.writeStringField("hash", hashes.get(i));
+        generator.writeStringField("etag", etags.get(i));
+        generator.writeFieldName("data");
+        generator.writeRawValue(cachedBookingDataByDate.get(validDates.get(i)));
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+      generator.writeEndObject();
+    }
+    String bundleString = bundleStream.toString(StandardCharsets.UTF_8.name());
+    logger.log("Created bookings bundle data of length: " + bundleString.length());
+
+    return bundleString;
+  }
+
+  /**
+   * Returns this thread's reusable buffer for encoding JSON, emptied ready for use.
+   *
+   * <p>Booking pages are rendered in parallel, so each thread has its own buffer.
+   */
+  private static ByteArrayOutputStream getJsonBuffer() {
+    ByteArrayOutputStream jsonBuffer = jsonBuffers.get();
+    jsonBuffer.reset();
+    return jsonBuffer;
+  }
+
   private List<String> getTimeSlotLabels() {
 
     // First time slot of the day is 10am...
@@ -453,14 +692,21 @@ public class PageManager implements IPageManager {
     return timeSlots;
   }
 
-  private void copyJsonDataToS3(String keyName, String jsonToCopy) throws Exception {
+  private void copyJsonDataToS3(String keyName, String jsonToCopy, boolean skipIfUnchanged)
+      throws Exception {
 
     logger.log("About to copy cached json data to S3");
 
     try {
+      byte[] jsonAsBytes = jsonToCopy.getBytes(StandardCharsets.UTF_8);
+      if (skipIfUnchanged
+          && isPublished(keyName + ".json", Hashing.md5().hashBytes(jsonAsBytes).toString())) {
+        logger.log("Json data is unchanged - so not uploading it to S3");
+        skippedObjectCount.incrementAndGet();
+        return;
+      }
       logger.log("Uploading json data to S3 bucket: " + websiteBucketName + " and key: " + keyName
           + ".json");
-      byte[] jsonAsBytes = jsonToCopy.getBytes(StandardCharsets.UTF_8);
       ByteArrayInputStream jsonAsStream = new ByteArrayInputStream(jsonAsBytes);
       ObjectMetadata metadata = new ObjectMetadata();
       metadata.setContentLength(jsonAsBytes.length);
@@ -479,6 +725,7 @@ public class PageManager implements IPageManager {
       putObjectRequest.setCannedAcl(CannedAccessControlList.PublicRead);
       IS3TransferManager transferManager = getS3TransferManager();
       TransferUtils.waitForS3Transfer(transferManager.upload(putObjectRequest), logger);
+      uploadedObjectCount.incrementAndGet();
       logger.log("Uploaded cached json data to S3 bucket");
     } catch (AmazonServiceException ase) {
       ExceptionUtils.logAmazonServiceException(ase, logger);
@@ -494,50 +741,71 @@ public class PageManager implements IPageManager {
   }
 
   private void copyUpdatedBookingPageToS3(String pageBaseName, String page, String uidSuffix,
-      boolean usePrefix) throws Exception {
+      boolean usePrefix, boolean skipIfUnchanged) throws Exception {
 
     logger.log("About to copy booking page to S3");
 
     String pageBaseNameWithPrefix = usePrefix ? "NoScript/" + pageBaseName : pageBaseName;
+    // Encode, hash, and gzip the page in one pass into a pooled buffer
+    GzipBuffer gzipBuffer = GzipBuffer.acquire();
+    boolean interrupted = false;
     try {
+      long startTime = System.nanoTime();
+      gzipBuffer.gzip(page);
+      logger.log("Gzipped booking page from " + gzipBuffer.getUncompressedSize() + " to "
+          + gzipBuffer.getCompressedSize() + " bytes in "
+          + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime) + "us");
+      if (skipIfUnchanged && uidSuffix.equals("")
+          && isPublished(pageBaseNameWithPrefix + ".html", gzipBuffer.getCompressedMd5())) {
+        logger.log("Booking page is unchanged - so not uploading it to S3");
+        skippedObjectCount.incrementAndGet();
+        return;
+      }
       logger.log("Uploading booking page to S3 bucket: " + websiteBucketName
           + "s3websitebucketname" + " and key: " + pageBaseNameWithPrefix + uidSuffix + ".html");
-      byte[] pageAsGzippedBytes = FileUtils.gzip(page.getBytes(StandardCharsets.UTF_8), logger);
 
-      ByteArrayInputStream pageAsStream = new ByteArrayInputStream(pageAsGzippedBytes);
       ObjectMetadata metadata = new ObjectMetadata();
-      metadata.setContentLength(pageAsGzippedBytes.length);
+      metadata.setContentLength(gzipBuffer.getCompressedSize());
       metadata.setContentEncoding("gzip");
       metadata.setContentType("text/html");
-      // Direct caches not to satisfy future requests with this data without
-      // revalidation.
-      metadata.setCacheControl("no-cache, must-revalidate");
+      if (uidSuffix.equals("")) {
+        // Direct caches not to satisfy future requests with this data without
+        // revalidation.
+        metadata.setCacheControl("no-cache, must-revalidate");
+      } else {
+        // Content-addressed pages never change - so are good for a year
+        metadata.setCacheControl("max-age=31536000");
+      }
       PutObjectRequest putObjectRequest = new PutObjectRequest(websiteBucketName,
-          pageBaseNameWithPrefix + uidSuffix + ".html", pageAsStream, metadata);
+          pageBaseNameWithPrefix + uidSuffix + ".html", gzipBuffer.getInputStream(), metadata);
       // Page must be public so it can be served from the website
       putObjectRequest.setCannedAcl(CannedAccessControlList.PublicRead);
       IS3TransferManager transferManager = getS3TransferManager();
       TransferUtils.waitForS3Transfer(transferManager.upload(putObjectRequest), logger);
+      uploadedObjectCount.incrementAndGet();
       logger.log("Uploaded booking page to S3 bucket");
 
       if (uidSuffix.equals("")) {
-        // Nothing to copy - so return
-        logger.log("UidSuffix is empty - so not creating duplicate page");
+        // Nothing to point to - so return
+        logger.log("UidSuffix is empty - so not creating pointer to page");
         return;
       }
 
-      // N.B. We copy from hashed key to non-hashed (and not vice versa)
-      // to ensure consistency
-      logger.log("Copying booking page in S3 bucket: " + websiteBucketName + " and key: "
-          + pageBaseNameWithPrefix + ".html");
-      CopyObjectRequest copyObjectRequest = new CopyObjectRequest(websiteBucketName,
-          pageBaseNameWithPrefix + uidSuffix + ".html", websiteBucketName, pageBaseNameWithPrefix
-              + ".html");
-      copyObjectRequest.setCannedAccessControlList(CannedAccessControlList.PublicRead);
-      // N.B. Copied object will get same metadata as the source (e.g. the
-      // cache-control header etc.)
-      TransferUtils.waitForS3Transfer(transferManager.copy(copyObjectRequest), logger);
-      logger.log("Copied booking page successfully in S3");
+      // Point the non-suffixed key at the suffixed page, using an empty
+      // object that the S3 website serves as a redirect. N.B. This is written
+      // after the suffixed page (and not vice versa) to ensure consistency.
+      logger.log("Pointing booking page in S3 bucket: " + websiteBucketName + " and key: "
+          + pageBaseNameWithPrefix + ".html at the suffixed page");
+      ObjectMetadata pointerMetadata = new ObjectMetadata();
+      pointerMetadata.setContentLength(0);
+      pointerMetadata.setCacheControl("no-cache, must-revalidate");
+      PutObjectRequest pointerRequest = new PutObjectRequest(websiteBucketName,
+          pageBaseNameWithPrefix + ".html", new ByteArrayInputStream(new byte[0]),
+          pointerMetadata).withRedirectLocation("/" + pageBaseNameWithPrefix + uidSuffix
+          + ".html");
+      pointerRequest.setCannedAcl(CannedAccessControlList.PublicRead);
+      TransferUtils.waitForS3Transfer(transferManager.upload(pointerRequest), logger);
+      logger.log("Pointed booking page successfully in S3");
     } catch (AmazonServiceException ase) {
       ExceptionUtils.logAmazonServiceException(ase, logger);
       throw new Exception("Exception caught while copying booking page to S3");
@@ -545,13 +813,60 @@ public class PageManager implements IPageManager {
       ExceptionUtils.logAmazonClientException(ace, logger);
       throw new Exception("Exception caught while copying booking page to S3");
     } catch (InterruptedException e) {
+      interrupted = true;
       logger.log("Caught interrupted exception: ");
       logger.log("Error Message: " + e.getMessage());
       throw new Exception("Exception caught while copying booking page to S3");
+    } finally {
+      // A completed or failed upload has finished reading the buffer - so it
+      // can be reused. But an interrupted wait may leave the upload running.
+      if (interrupted) {
+        GzipBuffer.discard(gzipBuffer);
+      } else {
+        GzipBuffer.release(gzipBuffer);
+      }
+    }
+  }
+
+  /**
+   * Returns whether content with the given MD5 hash was already published at an S3 key.
+   */
+  private boolean isPublished(String keyName, String contentMd5) {
+    return contentMd5.equals(publishedEtags.get(keyName));
+  }
+
+  /**
+   * Returns the ETag of every object in the website bucket, by key.
+   *
+   * <p>We upload each object in a single part, so its ETag is the MD5 hash of its content. So
+   *    one listing tells us which objects are unchanged, without a request per object.
+   */
+  private Map<String, String> getPublishedEtags() {
+    Map<String, String> etags = new HashMap<>();
+    try {
+      AmazonS3 client = getS3TransferManager().getAmazonS3Client();
+      ListObjectsRequest listObjectsRequest = new ListObjectsRequest()
+          .withBucketName(websiteBucketName);
+      ObjectListing objectListing;
+      do {
+        objectListing = client.listObjects(listObjectsRequest);
+        for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
+          etags.put(objectSummary.getKey(), objectSummary.getETag());
+        }
+        listObjectsRequest.setMarker(objectListing.getNextMarker());
+      } while (objectListing.isTruncated());
+    } catch (AmazonServiceException ase) {
+      // Uploading everything is always safe - so just carry on
+      logger.log("Could not list published objects - so assuming they have all changed: "
+          + ase.getMessage());
+      return new HashMap<>();
     }
+    logger.log("Found " + etags.size() + " published objects");
+    return etags;
   }
 
-  private void uploadBookingsPagesToS3(List<String> validDates, String apiGatewayBaseUrl,
+  private Map<String, String> uploadBookingsPagesToS3(List<String> validDates,
+      String apiGatewayBaseUrl,
       String revvingSuffix,
       ImmutablePair<ILifecycleManager.LifecycleState, Optional<String>> lifecycleState)
       throws Exception {
@@ -566,17 +881,70 @@ public class PageManager implements IPageManager {
     refreshIndexPages(currentDate);
     logger.log("Refreshed index pages");
 
-    // Dates will be in time order. We want to iterate in reverse time order to
-    // ensure that we refresh the most-future page first, which ensures all
-    // links remain valid during the update process.
-    List<Booking> bookings;
-    for (String validDate : Lists.reverse(validDates)) {
-      logger.log("About to upload booking page for: " + validDate);
-      bookings = bookingManager.getBookings(validDate, false);
-      refreshPage(validDate, validDates, // Still in forward time order
-          apiGatewayBaseUrl, false, bookings, revvingSuffix);
+    // Read the bookings for all the dates in one query up front.
+    SortedMap<String, List<Booking>> bookingsByDate = bookingManager.getBookings(
+        validDates.get(0), validDates.get(validDates.size() - 1), false, false);
+
+    // Dates will be in time order. We render the pages in parallel, but must
+    // upload the most-future page before any other, which ensures all links
+    // remain valid during the update process. Every other page links only to
+    // pages that exist already, so the rest can then be uploaded in parallel.
+    List<String> datesMostFutureFirst = Lists.reverse(validDates);
+    int maxParallelPageRefreshes = getMaxParallelPageRefreshes();
+    logger.log("Refreshing up to " + maxParallelPageRefreshes + " booking pages in parallel");
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(validDates.size(),
+        maxParallelPageRefreshes));
+    try {
+      List<CompletableFuture<RenderedPage>> renders = new ArrayList<>();
+      for (String validDate : datesMostFutureFirst) {
+        renders.add(CompletableFuture.supplyAsync(() -> {
+          try {
+            logger.log("About to render booking page for: " + validDate);
+            return renderPage(validDate, validDates, // Still in forward time order
+                apiGatewayBaseUrl, bookingsByDate.get(validDate), revvingSuffix);
+          } catch (Exception exception) {
+            throw new CompletionException(exception);
+          }
+        }, executor));
+      }
+      CompletableFuture<Void> mostFutureUpload = renders.get(0).thenAcceptAsync(
+          renderedPage -> uploadRenderedPage(renderedPage), executor);
+      List<CompletableFuture<Void>> uploads = new ArrayList<>();
+      uploads.add(mostFutureUpload);
+      for (CompletableFuture<RenderedPage> render : renders.subList(1, renders.size())) {
+        uploads.add(mostFutureUpload.thenCombineAsync(render,
+            (ignored, renderedPage) -> uploadRenderedPage(renderedPage), executor));
+      }
+      for (CompletableFuture<Void> upload : uploads) {
+        try {
+          upload.join();
+        } catch (CompletionException completionException) {
+          // Rethrow the original exception
+          Throwable cause = completionException.getCause();
+          throw (cause instanceof Exception) ? (Exception) cause : completionException;
+        }
+      }
+      // All renders have completed by now
+      Map<String, String> cachedBookingDataByDate = new HashMap<>();
+      for (CompletableFuture<RenderedPage> render : renders) {
+        RenderedPage renderedPage = render.join();
+        cachedBookingDataByDate.put(renderedPage.date, renderedPage.cachedBookingData);
+      }
+      logger.log("Uploaded booking page for each valid date");
+      return cachedBookingDataByDate;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Void uploadRenderedPage(RenderedPage renderedPage) {
+    try {
+      logger.log("About to upload booking page for: " + renderedPage.date);
+      uploadPage(renderedPage, false, true);
+      return null;
+    } catch (Exception exception) {
+      throw new CompletionException(exception);
     }
-    logger.log("Uploaded booking page for each valid date");
   }
 
   private void refreshIndexPages(String currentDate) throws Exception {
@@ -595,10 +963,10 @@ public class PageManager implements IPageManager {
     String noscriptIndexPage = createIndexPage("http://" + websiteBucketName + ".s3-website-"
         + region + ".amazonaws.com?selectedDate=" + currentDate + ".html", false);
     logger.log("About to upload index pages");
-    copyUpdatedBookingPageToS3("today", todayIndexPage, "", true);
+    copyUpdatedBookingPageToS3("today", todayIndexPage, "", true, true);
     // Also copy to root of bucket - as error and index page must be there.
-    copyUpdatedBookingPageToS3("today", todayIndexPage, "", false);
-    copyUpdatedBookingPageToS3("noscript", noscriptIndexPage, "", true);
+    copyUpdatedBookingPageToS3("today", todayIndexPage, "", false, true);
+    copyUpdatedBookingPageToS3("noscript", noscriptIndexPage, "", true, true);
     logger.log("Uploaded index pages");
     logger.log("Refreshed index pages");
   }
@@ -616,26 +984,92 @@ public class PageManager implements IPageManager {
     logger.log("About to create the index page");
 
     // Create the page by merging the data with the page template
-    VelocityEngine engine = new VelocityEngine();
-    // Use the classpath loader so Velocity finds our template
-    Properties properties = new Properties();
-    properties.setProperty("resource.loader", "class");
-    properties.setProperty("class.resource.loader.class",
-        "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-    engine.init(properties);
-
     VelocityContext context = new VelocityContext();
     context.put("redirectUrl", redirectUrl);
     context.put("showRedirectMessage", showRedirectMessage);
 
     // Render the page
     StringWriter writer = new StringWriter();
-    Template template = engine.getTemplate("squash/booking/lambdas/IndexPage.vm", "utf-8");
+    Template template = getIndexPageTemplate();
     template.merge(context, writer);
     logger.log("Rendered index page: " + writer);
     return writer.toString();
   }
 
+  /**
+   * Returns the parsed template for the booking pages.
+   *
+   * <p>This method is provided so benchmarks can substitute a freshly-parsed template.
+   */
+  protected Template getBookingPageTemplate() {
+
+    // Use a getter here so benchmarks can substitute a per-render template
+    return PageTemplates.bookingPageTemplate;
+  }
+
+  /**
+   * Returns the parsed template for the index pages.
+   */
+  protected Template getIndexPageTemplate() {
+    return PageTemplates.indexPageTemplate;
+  }
+
+  /**
+   * Creates and initialises a Velocity engine that loads templates from the classpath.
+   */
+  protected static VelocityEngine createVelocityEngine() {
+    VelocityEngine engine = new VelocityEngine();
+    // Use the classpath loader so Velocity finds our templates
+    Properties properties = new Properties();
+    properties.setProperty("resource.loader", "class");
+    properties.setProperty("class.resource.loader.class",
+        "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+    // Templates are packaged in the jar, so never re-check them for modification
+    properties.setProperty("class.resource.loader.cache", "true");
+    properties.setProperty("class.resource.loader.modificationCheckInterval", "-1");
+    engine.init(properties);
+    return engine;
+  }
+
+  /**
+   * Holds the Velocity engine and page templates shared by all page managers in the container.
+   *
+   * <p>The JVM initialises this class on first use only, so the engine is created and the
+   *    templates are parsed once per Lambda container rather than once per page. Parsed
+   *    templates are safe to merge concurrently.
+   */
+  private static class PageTemplates {
+    private static final VelocityEngine engine = createVelocityEngine();
+    private static final Template bookingPageTemplate = engine.getTemplate(
+        "squash/booking/lambdas/BookingPage.vm", "utf-8");
+    private static final Template indexPageTemplate = engine.getTemplate(
+        "squash/booking/lambdas/IndexPage.vm", "utf-8");
+  }
+
+  /**
+   * Returns the maximum number of booking pages to refresh in parallel.
+   */
+  protected int getMaxParallelPageRefreshes() {
+    // Use a getter here so unit tests can substitute a different value. The
+    // environment variable lets the concurrency be tuned without a release.
+    String maxParallelPageRefreshes = System.getenv("MaxParallelPageRefreshes");
+    try {
+      return (maxParallelPageRefreshes != null) ? Math.max(Integer
+          .parseInt(maxParallelPageRefreshes), 1) : defaultMaxParallelPageRefreshes;
+    } catch (NumberFormatException exception) {
+      logger.log("MaxParallelPageRefreshes is not a number - so using the default");
+      return defaultMaxParallelPageRefreshes;
+    }
+  }
+
+  /**
+   * Returns the current time.
+   */
+  protected long getCurrentTimeMillis() {
+    // Use a getter here so unit tests can substitute a different time.
+    return System.currentTimeMillis();
+  }
+
   /**
    * Returns an SNS client.
    *
@@ -644,8 +1078,7 @@ public class PageManager implements IPageManager {
   protected AmazonSNS getSNSClient() {
 
     // Use a getter here so unit tests can substitute a mock client
-    AmazonSNS client = AmazonSNSClientBuilder.standard().withRegion(region.getName()).build();
-    return client;
+    return AwsClientRegistry.getSNSClient(region.getName());
   }
 
   /**
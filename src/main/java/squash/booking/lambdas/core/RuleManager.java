@@ -16,21 +16,21 @@
 
 package squash.booking.lambdas.core;
 
+import squash.deployment.lambdas.utils.AwsClientRegistry;
 import squash.deployment.lambdas.utils.RetryHelper;
 import squash.deployment.lambdas.utils.RetryHelper.ThrowingSupplier;
+import squash.deployment.lambdas.utils.RetryPolicy;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.simpledb.model.Attribute;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
 import com.amazonaws.services.sns.AmazonSNS;
-import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.google.common.collect.Sets;
 
 import java.io.IOException;
@@ -42,12 +42,14 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.stream.Collectors;
 
 /**
  * Manages all booking rules and their exclusions.
@@ -109,16 +111,7 @@ public class RuleManager implements IRuleManager {
           Set<BookingRule> bookingRules = null;
 
           // Check that non-recurring rule is not for a date in the past.
-            if (!bookingRuleToCreate.getIsRecurring()) {
-              if ((new SimpleDateFormat("yyyy-MM-dd")).parse(
-                  bookingRuleToCreate.getBooking().getDate()).before(
-                  new SimpleDateFormat("yyyy-MM-dd").parse(getCurrentLocalDate().format(
-                      DateTimeFormatter.ofPattern("yyyy-MM-dd"))))) {
-                logger
-                    .log("Cannot add non-recurring booking rule for a date in the past, so throwing a 'Booking rule creation failed' exception");
-                throw new Exception("Booking rule creation failed");
-              }
-            }
+            throwIfNonRecurringRuleIsInThePast(bookingRuleToCreate);
 
             // We should POST or DELETE to the BookingRuleExclusion resource,
             // with a BookingRule, and an exclusion date. This will call through
@@ -151,10 +144,48 @@ public class RuleManager implements IRuleManager {
             bookingRuleAttribute.setName(attributeName);
             bookingRuleAttribute.setValue(attributeValue);
 
-            optimisticPersister.put(ruleItemName, versionedBookingRules.left, bookingRuleAttribute);
+            optimisticPersister.put(ruleItemName, versionedBookingRules.left, bookingRuleAttribute,
+                bookingRules.size());
             bookingRules.add(bookingRuleToCreate);
             return bookingRules;
-          }, Exception.class, Optional.of("Database put failed - conditional check failed"), logger);
+          }, RetryPolicy.CONFLICTS, "CreateRule", logger);
+  }
+
+  @Override
+  public void restoreRules(List<BookingRule> bookingRulesToRestore,
+      boolean isSquashServiceUserCall) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The rule manager has not been initialised");
+    }
+
+    lifecycleManager
+        .throwIfOperationInvalidForCurrentLifecycleState(false, isSquashServiceUserCall);
+
+    logger.log("About to restore " + bookingRulesToRestore.size() + " booking rules to simpledb");
+
+    // Batched puts are not conditional - so check all rules here, both against
+    // existing rules and against each other, before writing anything.
+    Set<BookingRule> bookingRules = getVersionedBookingRules().right;
+    List<ReplaceableAttribute> bookingRuleAttributes = new ArrayList<>();
+    for (BookingRule bookingRule : bookingRulesToRestore) {
+      throwIfNonRecurringRuleIsInThePast(bookingRule);
+      if (doesRuleClash(bookingRule, bookingRules)) {
+        logger
+            .log("Cannot restore rule as it clashes with another rule, so throwing a 'Booking rule creation failed - rule would clash' exception");
+        throw new Exception("Booking rule creation failed - rule would clash");
+      }
+      bookingRules.add(bookingRule);
+
+      ReplaceableAttribute bookingRuleAttribute = new ReplaceableAttribute();
+      bookingRuleAttribute.setName(getAttributeNameFromBookingRule(bookingRule));
+      bookingRuleAttribute.setValue(StringUtils.join(bookingRule.getDatesToExclude(), ","));
+      bookingRuleAttributes.add(bookingRuleAttribute);
+    }
+
+    // All rules live in a single item - so this is a single batched write
+    optimisticPersister.putAll(Collections.singletonMap(ruleItemName, bookingRuleAttributes));
+    logger.log("Restored booking rules to simpledb");
   }
 
   @Override
@@ -209,16 +240,12 @@ public class RuleManager implements IRuleManager {
     lifecycleManager
         .throwIfOperationInvalidForCurrentLifecycleState(false, isSquashServiceUserCall);
 
-    logger.log("Getting all booking rules to delete");
-    List<BookingRule> bookingRules = getRules(isSquashServiceUserCall);
-    logger.log("Found " + bookingRules.size() + " booking rules to delete");
+    // All rules live in a single item - so delete it whole, in one request.
     logger.log("About to delete all booking rules");
-    for (BookingRule bookingRule : bookingRules) {
-      RetryHelper.DoWithRetries(() -> {
-        deleteRule(bookingRule, isSquashServiceUserCall);
-        return null;
-      }, AmazonServiceException.class, Optional.of("429"), logger);
-    }
+    RetryHelper.DoWithRetries(() -> {
+      optimisticPersister.deleteItems(Collections.singletonList(ruleItemName));
+      return null;
+    }, RetryPolicy.THROTTLING, "DeleteAllBookingRules", logger);
     logger.log("Deleted all booking rules");
   }
 
@@ -319,14 +346,13 @@ public class RuleManager implements IRuleManager {
               bookingRuleAttribute.setReplace(true);
 
               optimisticPersister.put(ruleItemName, versionedBookingRules.left,
-                  bookingRuleAttribute);
+                  bookingRuleAttribute, versionedBookingRules.right.size());
               BookingRule updatedBookingRule = new BookingRule(bookingRuleToAddExclusionTo);
               updatedBookingRule.setDatesToExclude(datesToExclude.toArray(new String[datesToExclude
                   .size()]));
               logger.log("Added new rule exclusion");
               return Optional.of(updatedBookingRule);
-            }), Exception.class, Optional.of("Database put failed - conditional check failed"),
-            logger);
+            }), RetryPolicy.CONFLICTS, "AddRuleExclusion", logger);
   }
 
   @Override
@@ -396,14 +422,13 @@ public class RuleManager implements IRuleManager {
               bookingRuleAttribute.setReplace(true);
 
               optimisticPersister.put(ruleItemName, versionedBookingRules.left,
-                  bookingRuleAttribute);
+                  bookingRuleAttribute, versionedBookingRules.right.size());
               BookingRule updatedBookingRule = new BookingRule(bookingRuleToDeleteExclusionFrom);
               updatedBookingRule.setDatesToExclude(datesToExclude.toArray(new String[datesToExclude
                   .size()]));
               logger.log("Deleted rule exclusion");
               return Optional.of(updatedBookingRule);
-            }), Exception.class, Optional.of("Database put failed - conditional check failed"),
-            logger);
+            }), RetryPolicy.CONFLICTS, "DeleteRuleExclusion", logger);
   }
 
   @Override
@@ -449,19 +474,27 @@ public class RuleManager implements IRuleManager {
             logger.log("Applying booking rule to create booking: " + rule.toString());
             Booking booking = rule.getBooking();
             booking.setDate(date);
-            bookingManager.createBooking(booking, false);
             ruleBookings.add(booking);
-            // Short sleep to minimise chance of getting TooManyRequests error
-            try {
-              Thread.sleep(10);
-            } catch (InterruptedException interruptedException) {
-              logger.log("Sleep before applying next rule has been interrupted.");
-            }
-            logger.log("Rule-based booking created.");
           } else {
             logger.log("Rule does not apply to date that rules are being applied to.");
           }
         }
+
+        // Create all the rule bookings at once - so the date is written only once
+        if (!ruleBookings.isEmpty()) {
+          List<ImmutablePair<Booking, Boolean>> outcomes = bookingManager.createBookings(date,
+              ruleBookings, false);
+          List<Booking> clashingBookings = outcomes.stream().filter(outcome -> !outcome.right)
+              .map(outcome -> outcome.left).collect(Collectors.toList());
+          if (!clashingBookings.isEmpty()) {
+            // The other rule bookings have been created - but let the admin know
+            // so they can sort out the clashes.
+            logger.log("Cannot create rule-based bookings which clash with other bookings: "
+                + clashingBookings + ", so throwing a 'Booking creation failed' exception");
+            throw new Exception("Booking creation failed");
+          }
+          logger.log("Rule-based bookings created.");
+        }
       }
     } catch (Exception exception) {
       logger.log("Exception caught while applying booking rules - so notifying sns topic");
@@ -483,6 +516,18 @@ public class RuleManager implements IRuleManager {
     return ruleBookings;
   }
 
+  private void throwIfNonRecurringRuleIsInThePast(BookingRule bookingRule) throws Exception {
+    if (!bookingRule.getIsRecurring()) {
+      if ((new SimpleDateFormat("yyyy-MM-dd")).parse(bookingRule.getBooking().getDate()).before(
+          new SimpleDateFormat("yyyy-MM-dd").parse(getCurrentLocalDate().format(
+              DateTimeFormatter.ofPattern("yyyy-MM-dd"))))) {
+        logger
+            .log("Cannot add non-recurring booking rule for a date in the past, so throwing a 'Booking rule creation failed' exception");
+        throw new Exception("Booking rule creation failed");
+      }
+    }
+  }
+
   private DayOfWeek dayOfWeekFromDate(String date) throws ParseException {
     DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
     formatter.setTimeZone(TimeZone.getTimeZone("Europe/London"));
@@ -508,16 +553,14 @@ public class RuleManager implements IRuleManager {
 
     // ..and all of those that overlap the same courttimeblock
     Set<BookingRule> sameDayOverlappingRules = new HashSet<>();
-    // Get court/time pairs for the new rule
-    Set<ImmutablePair<Integer, Integer>> newBookedCourts = new HashSet<>();
-    addBookingRuleToSet(newBookingRule, newBookedCourts);
+    // Get court/times booked by the new rule
+    CourtSlotGrid newBookedCourts = new CourtSlotGrid();
+    newBookedCourts.add(newBookingRule.getBooking());
 
     for (BookingRule bookingRule : sameDayRules) {
-      // Get court/times booked by existing rules for the same day as the new
+      // Check court/times booked by existing rules for the same day as the new
       // rule
-      Set<ImmutablePair<Integer, Integer>> bookedCourts = new HashSet<>();
-      addBookingRuleToSet(bookingRule, bookedCourts);
-      if (Sets.intersection(newBookedCourts, bookedCourts).size() > 0) {
+      if (newBookedCourts.clashesWith(bookingRule.getBooking())) {
         sameDayOverlappingRules.add(bookingRule);
       }
     }
@@ -601,17 +644,6 @@ public class RuleManager implements IRuleManager {
     return false;
   }
 
-  private void addBookingRuleToSet(BookingRule bookingRule,
-      Set<ImmutablePair<Integer, Integer>> bookedCourts) {
-    for (int court = bookingRule.getBooking().getCourt(); court < bookingRule.getBooking()
-        .getCourt() + bookingRule.getBooking().getCourtSpan(); court++) {
-      for (int slot = bookingRule.getBooking().getSlot(); slot < bookingRule.getBooking().getSlot()
-          + bookingRule.getBooking().getSlotSpan(); slot++) {
-        bookedCourts.add(new ImmutablePair<>(court, slot));
-      }
-    }
-  }
-
   private ImmutablePair<Optional<Integer>, Set<BookingRule>> getVersionedBookingRules()
       throws Exception {
     logger.log("About to get all versioned booking rules from simpledb");
@@ -727,7 +759,7 @@ public class RuleManager implements IRuleManager {
           bookingRuleAttribute.setReplace(true);
           try {
             versionNumber = Optional.of(optimisticPersister.put(ruleItemName, versionNumber,
-                bookingRuleAttribute));
+                bookingRuleAttribute, existingBookingRules.size()));
             logger.log("Updated rule to purge expired exclusion(s)");
           } catch (Exception exception) {
             // Don't want to abort here if we fail to remove an exclusion -
@@ -749,8 +781,7 @@ public class RuleManager implements IRuleManager {
   protected AmazonSNS getSNSClient() {
 
     // Use a getter here so unit tests can substitute a mock client
-    AmazonSNS client = AmazonSNSClientBuilder.standard().withRegion(region.getName()).build();
-    return client;
+    return AwsClientRegistry.getSNSClient(region.getName());
   }
 
   /**
@@ -41,7 +41,6 @@ import com.amazonaws.services.s3.model.ListVersionsRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.VersionListing;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -390,7 +389,7 @@ public class AngularjsAppCustomResourceLambda implements
         .withBucketName(websiteBucket);
     VersionListing versionListing;
 
-    AmazonS3 client = TransferManagerBuilder.defaultTransferManager().getAmazonS3Client();
+    AmazonS3 client = getS3TransferManager().getAmazonS3Client();
     do {
       versionListing = client.listVersions(listVersionsRequest);
       versionListing
@@ -66,7 +66,6 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.DeleteVersionRequest;
 import com.amazonaws.services.s3.model.ListVersionsRequest;
 import com.amazonaws.services.s3.model.VersionListing;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.google.common.io.CharStreams;
 
 import java.io.File;
@@ -535,8 +534,8 @@ public class ApiGatewayCustomResourceLambda implements RequestHandler<Map<String
 
       // Upload the sdk from the temporary filesystem to S3.
       logger.log("Uploading unzipped Javascript SDK to S3 bucket: " + squashWebsiteBucket);
-      TransferUtils.waitForS3Transfer(TransferManagerBuilder.defaultTransferManager()
-          .uploadDirectory(squashWebsiteBucket, "", sdkFolder, true), logger);
+      TransferUtils.waitForS3Transfer(
+          getS3TransferManager().uploadDirectory(squashWebsiteBucket, "", sdkFolder, true), logger);
       logger.log("Uploaded sdk successfully to S3");
 
       // Add gzip content-encoding metadata to zip-ed files
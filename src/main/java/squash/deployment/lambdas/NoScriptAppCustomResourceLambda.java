@@ -34,7 +34,6 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.DeleteVersionRequest;
 import com.amazonaws.services.s3.model.ListVersionsRequest;
 import com.amazonaws.services.s3.model.VersionListing;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 
 import java.util.Map;
 
@@ -146,7 +145,7 @@ public class NoScriptAppCustomResourceLambda implements RequestHandler<Map<Strin
             .withBucketName(websiteBucket);
         VersionListing versionListing;
 
-        AmazonS3 client = TransferManagerBuilder.defaultTransferManager().getAmazonS3Client();
+        AmazonS3 client = getS3TransferManager().getAmazonS3Client();
         do {
           versionListing = client.listVersions(listVersionsRequest);
           versionListing
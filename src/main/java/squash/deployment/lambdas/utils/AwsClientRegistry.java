@@ -0,0 +1,79 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.AmazonSimpleDBClientBuilder;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSClientBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Container-scoped registry of AWS service clients.
+ *
+ * <p>SDK clients are thread-safe and expensive to construct - each builds its own
+ *    credentials chain and connection pool. This registry builds each client lazily,
+ *    once per service and region, and holds it in static scope so that warm Lambda
+ *    containers reuse it across invocations.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class AwsClientRegistry {
+
+  private static final ConcurrentMap<String, Object> clients = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the shared SimpleDB client for a region.
+   *
+   *    @param region the name of the AWS region, e.g. eu-west-1.
+   */
+  public static AmazonSimpleDB getSimpleDBClient(String region) {
+    return getClient(AmazonSimpleDB.class, region, () -> AmazonSimpleDBClientBuilder.standard()
+        .withRegion(region).build());
+  }
+
+  /**
+   * Returns the shared SNS client for a region.
+   *
+   *    @param region the name of the AWS region, e.g. eu-west-1.
+   */
+  public static AmazonSNS getSNSClient(String region) {
+    return getClient(AmazonSNS.class, region, () -> AmazonSNSClientBuilder.standard()
+        .withRegion(region).build());
+  }
+
+  /**
+   * Returns the shared S3 client for a region.
+   *
+   *    @param region the name of the AWS region, e.g. eu-west-1.
+   */
+  public static AmazonS3 getS3Client(String region) {
+    return getClient(AmazonS3.class, region, () -> AmazonS3ClientBuilder.standard()
+        .withRegion(region).build());
+  }
+
+  private static <T> T getClient(Class<T> clientInterface, String region, Supplier<T> builder) {
+    // computeIfAbsent is atomic, so concurrent callers will never build duplicate clients
+    return clientInterface.cast(clients.computeIfAbsent(clientInterface.getName() + ":" + region,
+        key -> builder.get()));
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.services.s3.transfer.Transfer;
+import com.amazonaws.services.s3.transfer.TransferProgress;
+
+/**
+ * Transfer that completed synchronously, before it was returned.
+ *
+ * <p>Returned for objects put directly with the S3 client, so callers can treat them like any
+ *    other transfer. As the transfer has already completed, progress listeners are never called.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+class CompletedTransfer implements Transfer {
+  private final String description;
+  private final TransferProgress progress = new TransferProgress();
+  private final long latencyNanos;
+
+  /**
+   * Constructs a completed transfer.
+   *
+   * @param description description of the transfer.
+   * @param bytesTransferred the number of bytes transferred.
+   * @param latencyNanos the time the transfer took, in nanoseconds.
+   */
+  CompletedTransfer(String description, long bytesTransferred, long latencyNanos) {
+    this.description = description;
+    progress.setTotalBytesToTransfer(bytesTransferred);
+    progress.updateProgress(bytesTransferred);
+    this.latencyNanos = latencyNanos;
+  }
+
+  /**
+   * Returns the time the transfer took, in nanoseconds.
+   */
+  long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  @Override
+  public boolean isDone() {
+    return true;
+  }
+
+  @Override
+  public void waitForCompletion() {
+    // Nothing to wait for - and a failed put would have thrown before we were returned
+  }
+
+  @Override
+  public AmazonClientException waitForException() {
+    return null;
+  }
+
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  @Override
+  public TransferState getState() {
+    return TransferState.Completed;
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener listener) {
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener listener) {
+  }
+
+  @Override
+  public TransferProgress getProgress() {
+    return progress;
+  }
+
+  @Override
+  @Deprecated
+  public void addProgressListener(com.amazonaws.services.s3.model.ProgressListener listener) {
+  }
+
+  @Override
+  @Deprecated
+  public void removeProgressListener(com.amazonaws.services.s3.model.ProgressListener listener) {
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reusable buffer holding gzip-ed text.
+ *
+ * <p>Text is encoded as UTF-8 and compressed in a single streaming pass, without creating
+ *    intermediate copies of the uncompressed bytes. Buffers, with their native {@link Deflater},
+ *    are pooled - so should be released once their content has been consumed.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class GzipBuffer {
+
+  private static final Queue<GzipBuffer> pool = new ConcurrentLinkedQueue<>();
+  // Header for gzip data with no optional fields
+  private static final byte[] gzipHeader = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0,
+      0, 0 };
+  private static final int chunkSize = 8192;
+
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final CRC32 crc = new CRC32();
+  private final ByteBuffer encodedChunk = ByteBuffer.allocate(chunkSize);
+  private final byte[] deflatedChunk = new byte[chunkSize];
+  private final ExposedByteArrayOutputStream gzippedBytes = new ExposedByteArrayOutputStream();
+  private long uncompressedSize;
+  // N.B. Computed only when first asked for, as most callers never need it
+  private String compressedMd5;
+
+  private GzipBuffer() {
+  }
+
+  /**
+   * Returns a buffer from the pool - or a new one if none is free.
+   */
+  public static GzipBuffer acquire() {
+    GzipBuffer gzipBuffer = pool.poll();
+    return (gzipBuffer != null) ? gzipBuffer : new GzipBuffer();
+  }
+
+  /**
+   * Returns a buffer to the pool.
+   *
+   * <p>The buffer must not be used after it is released. Buffers whose content may still be
+   *    being read - e.g. by an upload whose wait was interrupted - should be discarded instead.
+   */
+  public static void release(GzipBuffer gzipBuffer) {
+    pool.offer(gzipBuffer);
+  }
+
+  /**
+   * Frees a buffer's native resources without returning it to the pool.
+   *
+   * <p>The buffer's content can still be read, so this is safe even while an upload may be
+   *    reading it - the storage is left to the garbage collector.
+   */
+  public static void discard(GzipBuffer gzipBuffer) {
+    gzipBuffer.deflater.end();
+  }
+
+  /**
+   * Replaces the buffer's content with gzip-ed text.
+   *
+   * @param text the text to gzip, which is encoded as UTF-8.
+   * @throws CharacterCodingException if the text cannot be encoded.
+   */
+  public void gzip(CharSequence text) throws CharacterCodingException {
+    deflater.reset();
+    encoder.reset();
+    crc.reset();
+    gzippedBytes.reset();
+    uncompressedSize = 0;
+    compressedMd5 = null;
+
+    gzippedBytes.write(gzipHeader, 0, gzipHeader.length);
+    CharBuffer chars = CharBuffer.wrap(text);
+    CoderResult result;
+    do {
+      result = encoder.encode(chars, encodedChunk, true);
+      if (result.isError()) {
+        result.throwException();
+      }
+      deflateEncodedChunk();
+    } while (result.isOverflow());
+    while (encoder.flush(encodedChunk).isOverflow()) {
+      deflateEncodedChunk();
+    }
+    deflateEncodedChunk();
+
+    deflater.finish();
+    while (!deflater.finished()) {
+      gzippedBytes.write(deflatedChunk, 0, deflater.deflate(deflatedChunk));
+    }
+    writeLittleEndianInt((int) crc.getValue());
+    writeLittleEndianInt((int) uncompressedSize);
+  }
+
+  private void deflateEncodedChunk() {
+    encodedChunk.flip();
+    byte[] bytes = encodedChunk.array();
+    int length = encodedChunk.remaining();
+    crc.update(bytes, 0, length);
+    uncompressedSize += length;
+    deflater.setInput(bytes, 0, length);
+    while (!deflater.needsInput()) {
+      gzippedBytes.write(deflatedChunk, 0, deflater.deflate(deflatedChunk));
+    }
+    encodedChunk.clear();
+  }
+
+  private void writeLittleEndianInt(int value) {
+    for (int shift = 0; shift < 32; shift += 8) {
+      gzippedBytes.write((value >> shift) & 0xff);
+    }
+  }
+
+  /**
+   * Returns a stream over the gzip-ed content, which shares the buffer's storage.
+   */
+  public InputStream getInputStream() {
+    return new ByteArrayInputStream(gzippedBytes.getBuffer(), 0, gzippedBytes.size());
+  }
+
+  /**
+   * Returns the size of the gzip-ed content, in bytes.
+   */
+  public int getCompressedSize() {
+    return gzippedBytes.size();
+  }
+
+  /**
+   * Returns the size of the content before it was gzip-ed, in bytes.
+   */
+  public long getUncompressedSize() {
+    return uncompressedSize;
+  }
+
+  /**
+   * Returns the hex-encoded MD5 hash of the gzip-ed content.
+   *
+   * <p>This is the ETag S3 gives the content when it is uploaded in a single part. The gzip
+   *    header has no timestamp, so identical text always gzips to identical content.
+   */
+  public String getCompressedMd5() {
+    if (compressedMd5 == null) {
+      compressedMd5 = Hashing.md5().hashBytes(gzippedBytes.getBuffer(), 0, gzippedBytes.size())
+          .toString();
+    }
+    return compressedMd5;
+  }
+
+  /**
+   * Byte array stream whose buffer can be read without copying it.
+   */
+  private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    private ExposedByteArrayOutputStream() {
+      super(64 * 1024);
+    }
+
+    private byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the retries made during a single lambda invocation.
+ *
+ * <p>A budget holds a deadline, shortly before the lambda would time out, and a number of retries
+ *    the invocation may make in all. A retry is allowed only if both its sleep ends before the
+ *    deadline and a retry remains - so an invocation gives up cleanly, with its own error, rather
+ *    than being killed mid-retry, and a burst of failures cannot multiply into a retry storm.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class RetryBudget {
+
+  /** A budget that allows every retry. */
+  public static final RetryBudget UNLIMITED = new RetryBudget(Long.MAX_VALUE, Integer.MAX_VALUE);
+
+  // Time to keep in hand for the invocation to report any error
+  private static final long reservedMillis = 1000;
+  private static final int maxRetriesPerInvocation = 20;
+
+  private final long deadlineMillis;
+  private final AtomicInteger retriesRemaining;
+
+  private RetryBudget(long deadlineMillis, int maxRetries) {
+    this.deadlineMillis = deadlineMillis;
+    this.retriesRemaining = new AtomicInteger(maxRetries);
+  }
+
+  /**
+   * Returns a budget for the current lambda invocation.
+   *
+   * <p>If the context reports no remaining time - as e.g. mock contexts do - the budget is
+   *    unlimited.
+   *
+   * @param context the lambda invocation's context.
+   */
+  public static RetryBudget forInvocation(Context context) {
+    long remainingMillis = context.getRemainingTimeInMillis();
+    if (remainingMillis <= 0) {
+      return UNLIMITED;
+    }
+    return new RetryBudget(System.currentTimeMillis() + remainingMillis - reservedMillis,
+        maxRetriesPerInvocation);
+  }
+
+  /**
+   * Takes a retry from the budget, if the budget allows it.
+   *
+   * @param delayMillis the sleep before the retry.
+   * @return whether the retry may go ahead.
+   */
+  public boolean tryAcquire(long delayMillis) {
+    if ((deadlineMillis != Long.MAX_VALUE)
+        && (System.currentTimeMillis() + delayMillis >= deadlineMillis)) {
+      return false;
+    }
+    return retriesRemaining.getAndUpdate(retries -> Math.max(retries - 1, 0)) > 0;
+  }
+}
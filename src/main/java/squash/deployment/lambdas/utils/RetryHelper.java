@@ -16,7 +16,10 @@
 
 package squash.deployment.lambdas.utils;
 
+import squash.deployment.lambdas.utils.RetryPolicy.ErrorClass;
+
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 
 import java.util.Optional;
@@ -24,16 +27,35 @@ import java.util.Optional;
 /**
  * Helper to retry Amazon service calls.
  * 
+ * <p>Retries follow a {@link RetryPolicy}, and are limited by the current invocation's
+ *    {@link RetryBudget}. Each attempt is logged as a metric line, of the form:
+ *    <code>METRIC RetryAttempt Operation=... Attempt=... Outcome=... ErrorClass=...</code>,
+ *    which a CloudwatchLogs metric filter can count.
+ * 
  * @author robinsteel19@outlook.com (Robin Steel)
  */
 public class RetryHelper {
 
+  // Lambda containers run one invocation at a time, so the budget is static
+  private static volatile RetryBudget invocationBudget = RetryBudget.UNLIMITED;
+
   // Tweak supplier so we can use with lambdas that can throw
   @FunctionalInterface
   public interface ThrowingSupplier<T> {
     T get() throws Exception;
   }
 
+  /**
+   * Starts the retry budget for a lambda invocation.
+   * 
+   * <p>Lambdas should call this as they start handling each request.
+   * 
+   *    @param context the lambda invocation's context.
+   */
+  public static void startInvocation(Context context) {
+    invocationBudget = RetryBudget.forInvocation(context);
+  }
+
   /**
    * Attempts an operation with up to 2 retries.
    * 
@@ -44,6 +66,9 @@ public class RetryHelper {
    *    must match the result of getErrorCode() on the AmazonServiceException.</li>
    * <li>otherwise any specified errorCode must match the result of getMessage() on the exception.</li>
    * </ul>
+   * 
+   * <p>Prefer the overload taking a {@link RetryPolicy}, which classifies errors rather than
+   *    matching them exactly.
    *    
    *    @param workToDo the operation to (re)try.
    *    @param exceptionToCatch the exception type to catch
@@ -54,35 +79,76 @@ public class RetryHelper {
    */
   public static <T extends Exception, R> R DoWithRetries(ThrowingSupplier<R> workToDo,
       Class<T> exceptionToCatch, Optional<String> errorCode, LambdaLogger logger) throws Exception {
-    int retries = 0;
-    do {
+    RetryPolicy policy = new RetryPolicy(3, 500, 4000, exception -> {
+      if (!exceptionToCatch.isInstance(exception)) {
+        return false;
+      }
+      // If we have an error code, then we must also match that
+      if (!errorCode.isPresent()) {
+        return true;
+      }
+      if (AmazonServiceException.class.isInstance(exception)) {
+        return errorCode.get().equals(((AmazonServiceException) exception).getErrorCode());
+      }
+      return errorCode.get().equals(exception.getMessage());
+    });
+    return DoWithRetries(workToDo, policy, exceptionToCatch.getSimpleName(), logger);
+  }
+
+  /**
+   * Attempts an operation, retrying it as a policy allows.
+   * 
+   * <p>Will retry an operation while it throws errors the policy deems retryable, until the
+   *    policy's maximum number of attempts have been made, or until the invocation's retry budget
+   *    runs out.
+   *    
+   *    @param workToDo the operation to (re)try.
+   *    @param policy the retry policy.
+   *    @param operationName the name of the operation, for the attempt metrics.
+   *    @param logger a CloudwatchLogs logger.
+   *    @return result the result of running the operation
+   *    @throws Exception if the operation does not succeed before all retries are attempted.
+   */
+  public static <R> R DoWithRetries(ThrowingSupplier<R> workToDo, RetryPolicy policy,
+      String operationName, LambdaLogger logger) throws Exception {
+    RetryBudget budget = invocationBudget;
+    long delayMillis = 0;
+    for (int attempt = 1;; attempt++) {
       try {
         R result = workToDo.get();
+        logAttempt(operationName, attempt, "Success", Optional.empty(), logger);
         return result;
       } catch (Exception exception) {
-        if (!exceptionToCatch.isInstance(exception) || (retries++ >= 2)) {
+        ErrorClass errorClass = RetryPolicy.classify(exception);
+        if (!policy.isRetryable(exception) || (attempt >= policy.getMaxAttempts())) {
           // Wrong exception or too many retries - so give up and rethrow
+          logAttempt(operationName, attempt, "GiveUp", Optional.of(errorClass), logger);
           throw exception;
         }
-        // If we have an error code, then we must also match that
-        if (errorCode.isPresent()) {
-          if (AmazonServiceException.class.isInstance(exception)) {
-            if (!((AmazonServiceException) exception).getErrorCode().equals(errorCode.get())) {
-              throw exception;
-            }
-          } else {
-            if (!exception.getMessage().equals(errorCode.get())) {
-              throw exception;
-            }
-          }
+        delayMillis = policy.nextDelayMillis(delayMillis);
+        if (!budget.tryAcquire(delayMillis)) {
+          logger.log("Retry budget for this invocation is exhausted - so not retrying");
+          logAttempt(operationName, attempt, "BudgetExhausted", Optional.of(errorClass), logger);
+          throw exception;
         }
-        logger.log("Caught retry-able exception - so about to retry after short sleep...");
+        logAttempt(operationName, attempt, "Retry", Optional.of(errorClass), logger);
+        logger.log("Caught retry-able exception - so about to retry after sleeping for "
+            + delayMillis + "ms...");
         try {
-          Thread.sleep(500);
+          Thread.sleep(delayMillis);
         } catch (InterruptedException interruptedException) {
-          logger.log("Sleep before retrying has been interrupted.");
+          // Someone wants us to stop - so restore the flag and give up
+          logger.log("Sleep before retrying has been interrupted - so not retrying");
+          Thread.currentThread().interrupt();
+          throw exception;
         }
       }
-    } while (true);
+    }
+  }
+
+  private static void logAttempt(String operationName, int attempt, String outcome,
+      Optional<ErrorClass> errorClass, LambdaLogger logger) {
+    logger.log("METRIC RetryAttempt Operation=" + operationName + " Attempt=" + attempt
+        + " Outcome=" + outcome + " ErrorClass=" + errorClass.map(ErrorClass::name).orElse("None"));
   }
-}
\ No newline at end of file
+}
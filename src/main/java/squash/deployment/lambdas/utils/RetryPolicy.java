@@ -0,0 +1,166 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Policy for retrying failed operations.
+ *
+ * <p>A policy says which classes of error are worth retrying, how many attempts to make in all, and
+ *    how long to sleep between attempts. Sleeps use 'decorrelated jitter' - each is random between
+ *    the base delay and three times the previous sleep, capped at the maximum delay - so that
+ *    writers that collided once do not all wake up together and collide again.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class RetryPolicy {
+
+  /**
+   * Classes of error, for deciding whether a failed operation is worth retrying.
+   */
+  public enum ErrorClass {
+    /** The service is throttling us - e.g. a 429 'Too many requests' error. */
+    THROTTLED,
+    /** An optimistic-concurrency check failed, i.e. someone else wrote first. */
+    CONFLICT,
+    /** A transient service or network failure - e.g. a 5xx error. */
+    TRANSIENT,
+    /** Any other error - retrying will not help. */
+    PERMANENT
+  }
+
+  /** Retries optimistic-concurrency conflicts - e.g. two people booking the same date at once. */
+  public static final RetryPolicy CONFLICTS = new RetryPolicy(3, 50, 1000, ErrorClass.CONFLICT);
+
+  /** Retries throttling and transient service errors. */
+  public static final RetryPolicy THROTTLING = new RetryPolicy(3, 500, 4000,
+      ErrorClass.THROTTLED, ErrorClass.TRANSIENT);
+
+  // Message of the exception our persisters throw when a conditional put fails
+  private static final String conditionalCheckFailedMessage = "Database put failed - conditional check failed";
+  private static final Set<String> throttlingErrorCodes = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList("429", "Throttling", "ThrottlingException", "TooManyRequestsException",
+          "RequestLimitExceeded", "ServiceUnavailable", "SlowDown")));
+
+  private final int maxAttempts;
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+  private final Predicate<Exception> isRetryable;
+
+  /**
+   * Constructs a retry policy.
+   *
+   * @param maxAttempts the maximum number of attempts, including the first.
+   * @param baseDelayMillis the shortest sleep before a retry.
+   * @param maxDelayMillis the longest sleep before a retry.
+   * @param retryableErrorClass a class of error to retry.
+   * @param otherRetryableErrorClasses any further classes of error to retry.
+   */
+  public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+      ErrorClass retryableErrorClass, ErrorClass... otherRetryableErrorClasses) {
+    this(maxAttempts, baseDelayMillis, maxDelayMillis, EnumSet.of(retryableErrorClass,
+        otherRetryableErrorClasses));
+  }
+
+  /**
+   * Constructs a retry policy that retries errors matching a predicate.
+   *
+   * @param maxAttempts the maximum number of attempts, including the first.
+   * @param baseDelayMillis the shortest sleep before a retry.
+   * @param maxDelayMillis the longest sleep before a retry.
+   * @param isRetryable whether an error is worth retrying.
+   */
+  public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+      Predicate<Exception> isRetryable) {
+    if ((maxAttempts < 1) || (baseDelayMillis < 0) || (maxDelayMillis < baseDelayMillis)) {
+      throw new IllegalArgumentException("The retry policy limits are invalid");
+    }
+    this.maxAttempts = maxAttempts;
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.isRetryable = isRetryable;
+  }
+
+  private RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+      Set<ErrorClass> retryableErrorClasses) {
+    this(maxAttempts, baseDelayMillis, maxDelayMillis,
+        (Predicate<Exception>) exception -> retryableErrorClasses.contains(classify(exception)));
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Returns whether an error is worth retrying under this policy.
+   *
+   * @param exception the error.
+   */
+  public boolean isRetryable(Exception exception) {
+    return isRetryable.test(exception);
+  }
+
+  /**
+   * Returns how long to sleep before the next retry.
+   *
+   * @param previousDelayMillis the previous sleep - or 0 before the first retry.
+   */
+  public long nextDelayMillis(long previousDelayMillis) {
+    long upperBound = Math.max(baseDelayMillis, previousDelayMillis) * 3;
+    return Math.min(ThreadLocalRandom.current().nextLong(baseDelayMillis, upperBound + 1),
+        maxDelayMillis);
+  }
+
+  /**
+   * Classifies an error, for deciding whether it is worth retrying.
+   *
+   * @param exception the error.
+   */
+  public static ErrorClass classify(Exception exception) {
+    if (AmazonServiceException.class.isInstance(exception)) {
+      AmazonServiceException serviceException = (AmazonServiceException) exception;
+      if ("ConditionalCheckFailed".equals(serviceException.getErrorCode())) {
+        return ErrorClass.CONFLICT;
+      }
+      if ((serviceException.getStatusCode() == 429) || (serviceException.getStatusCode() == 503)
+          || throttlingErrorCodes.contains(serviceException.getErrorCode())) {
+        return ErrorClass.THROTTLED;
+      }
+      return (serviceException.getStatusCode() >= 500) ? ErrorClass.TRANSIENT
+          : ErrorClass.PERMANENT;
+    }
+    if (AmazonClientException.class.isInstance(exception)) {
+      // e.g. network errors, which never reached the service
+      return ((AmazonClientException) exception).isRetryable() ? ErrorClass.TRANSIENT
+          : ErrorClass.PERMANENT;
+    }
+    if (conditionalCheckFailedMessage.equals(exception.getMessage())) {
+      return ErrorClass.CONFLICT;
+    }
+    return ErrorClass.PERMANENT;
+  }
+}
@@ -16,27 +16,145 @@
 
 package squash.deployment.lambdas.utils;
 
+import com.amazonaws.regions.DefaultAwsRegionProviderChain;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.transfer.Transfer;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 
 import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Very thin wrapper for AWS S3 TransferManager.
  *
- * <p>Class exists solely so we can mock out the S3 TransferManager in unit tests.
+ * <p>Class exists so we can mock out the S3 TransferManager in unit tests. Every
+ *    instance delegates to a single TransferManager shared by the whole container.
+ *    Each TransferManager owns a thread pool and S3 client that are only released
+ *    by shutting it down - so creating one per transfer leaks threads across warm
+ *    Lambda invocations. The shared TransferManager is instead built lazily, once,
+ *    with a bounded pool whose idle threads time out.
+ *
+ * <p>Small uploads - e.g. cached json data and booking pages - are put directly
+ *    with the S3 client instead, and return an already-completed transfer. The
+ *    TransferManager would send them as a single put anyway, but only after
+ *    handing them to its thread pool.
  * 
  * @author robinsteel19@outlook.com (Robin Steel)
  */
 public class S3TransferManager implements IS3TransferManager {
+  private static final int maxTransferThreads = 10;
+  private static final long idleTransferThreadTimeoutSeconds = 60;
+  // Uploads smaller than this are put directly. This is the smallest multipart upload part.
+  private static final long directPutThresholdBytes = 5 * 1024 * 1024;
+  private static final AtomicInteger liveTransferThreads = new AtomicInteger();
+  private static final AtomicLong completedTransfers = new AtomicLong();
+  private static final AtomicLong totalTransferNanos = new AtomicLong();
+  private static volatile TransferManager sharedTransferManager;
   private TransferManager transferManager;
 
   public S3TransferManager() {
-    transferManager = TransferManagerBuilder.defaultTransferManager();
+    transferManager = getSharedTransferManager();
+  }
+
+  /**
+   * Constructs a wrapper for a specific TransferManager.
+   *
+   * <p>This constructor is provided so unit tests can supply a TransferManager over a mock
+   *    S3 client.
+   */
+  S3TransferManager(TransferManager transferManager) {
+    this.transferManager = transferManager;
+  }
+
+  /**
+   * Returns the number of transfer threads currently alive in this container.
+   * 
+   * <p>This is bounded by the size of the shared transfer pool, and falls back
+   *    to zero once the container has been idle for a while.
+   */
+  public static int getLiveTransferThreadCount() {
+    return liveTransferThreads.get();
+  }
+
+  /**
+   * Returns the number of transfers whose latency has been recorded in this container.
+   */
+  public static long getCompletedTransferCount() {
+    return completedTransfers.get();
+  }
+
+  /**
+   * Returns the mean latency of the transfers recorded in this container, in milliseconds.
+   */
+  public static long getMeanTransferLatencyMillis() {
+    long count = completedTransfers.get();
+    return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalTransferNanos.get() / count);
+  }
+
+  /**
+   * Records the latency of a completed transfer.
+   *
+   * @param latencyNanos the time the transfer took, in nanoseconds.
+   */
+  static void recordTransferLatency(long latencyNanos) {
+    totalTransferNanos.addAndGet(latencyNanos);
+    completedTransfers.incrementAndGet();
+  }
+
+  /**
+   * Forgets all recorded transfer latencies.
+   *
+   * <p>This method is provided so unit tests can start from a known state.
+   */
+  static void resetTransferLatencies() {
+    completedTransfers.set(0);
+    totalTransferNanos.set(0);
+  }
+
+  private static TransferManager getSharedTransferManager() {
+    if (sharedTransferManager == null) {
+      synchronized (S3TransferManager.class) {
+        if (sharedTransferManager == null) {
+          sharedTransferManager = TransferManagerBuilder.standard()
+              .withS3Client(
+                  AwsClientRegistry.getS3Client(new DefaultAwsRegionProviderChain().getRegion()))
+              .withExecutorFactory(() -> newTransferExecutor())
+              .withShutDownThreadPools(false).build();
+        }
+      }
+    }
+    return sharedTransferManager;
+  }
+
+  private static ExecutorService newTransferExecutor() {
+    AtomicInteger threadNumber = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxTransferThreads, maxTransferThreads,
+        idleTransferThreadTimeoutSeconds, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread(() -> {
+            liveTransferThreads.incrementAndGet();
+            try {
+              runnable.run();
+            } finally {
+              liveTransferThreads.decrementAndGet();
+            }
+          }, "s3-transfer-" + threadNumber.incrementAndGet());
+          // Never let transfer threads keep the JVM alive
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   @Override
@@ -51,12 +169,40 @@ public class S3TransferManager implements IS3TransferManager {
 
   @Override
   public Transfer upload(PutObjectRequest putObjectRequest) {
-    return transferManager.upload(putObjectRequest);
+    long contentLength = getContentLength(putObjectRequest);
+    if ((contentLength < 0) || (contentLength >= directPutThresholdBytes)) {
+      return transferManager.upload(putObjectRequest);
+    }
+    return putDirectly(putObjectRequest, contentLength);
   }
 
   @Override
   public Transfer upload(String bucketName, String keyName, File target) {
-    return transferManager.upload(bucketName, keyName, target);
+    if (target.length() >= directPutThresholdBytes) {
+      return transferManager.upload(bucketName, keyName, target);
+    }
+    return putDirectly(new PutObjectRequest(bucketName, keyName, target), target.length());
+  }
+
+  private static long getContentLength(PutObjectRequest putObjectRequest) {
+    // Returns -1 if the length is not known up front - e.g. for a stream without it set
+    if (putObjectRequest.getFile() != null) {
+      return putObjectRequest.getFile().length();
+    }
+    ObjectMetadata metadata = putObjectRequest.getMetadata();
+    if ((metadata == null) || (metadata.getRawMetadataValue(Headers.CONTENT_LENGTH) == null)) {
+      return -1;
+    }
+    return metadata.getContentLength();
+  }
+
+  private Transfer putDirectly(PutObjectRequest putObjectRequest, long contentLength) {
+    // Throws if the put fails - as the TransferManager would when waited on
+    long startTime = System.nanoTime();
+    getAmazonS3Client().putObject(putObjectRequest);
+    return new CompletedTransfer("Putting object directly to bucket: "
+        + putObjectRequest.getBucketName() + " and key: " + putObjectRequest.getKey(),
+        contentLength, System.nanoTime() - startTime);
   }
 
   @Override
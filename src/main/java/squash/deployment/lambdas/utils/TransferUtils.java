@@ -26,9 +26,9 @@ import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.Transfer;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sundry S3 utilities.
@@ -42,7 +42,8 @@ public class TransferUtils {
    * 
    * <p>S3 transfers via the S3 TransferManager are asynchronous. This can be used
    *    by all transfers (uploads, copies, and downloads) to wait until they have
-   *    completed.
+   *    completed. It blocks on the transfer's completion, rather than polling it,
+   *    and records the transfer's latency.
    * 
    *    @param transfer returned by the TransferManager when transfer is initiated.
    *    @param logger a CloudwatchLogs logger.
@@ -51,17 +52,7 @@ public class TransferUtils {
    */
   public static void waitForS3Transfer(Transfer transfer, LambdaLogger logger)
       throws InterruptedException {
-    while (transfer.isDone() == false) {
-      logger.log("Transfer progress: " + transfer.getProgress().getPercentTransferred() + "%");
-      try {
-        Thread.sleep(100); // milliseconds
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-        logger.log("Transfer thread interrupted");
-        throw e;
-      }
-    }
-    logger.log("Transfer is done - now wait for completion to see if transfer succeeded.");
+    long startTime = System.nanoTime();
     try {
       transfer.waitForCompletion(); // Will throw if transfer failed
     } catch (InterruptedException e) {
@@ -69,6 +60,15 @@ public class TransferUtils {
       logger.log("Transfer thread interrupted");
       throw e;
     }
+    // Direct puts completed before they were returned - so we time the put itself. Other
+    // transfers are waited on as soon as they start, so the wait is their latency.
+    long latencyNanos = (transfer instanceof CompletedTransfer) ? ((CompletedTransfer) transfer)
+        .getLatencyNanos() : System.nanoTime() - startTime;
+    S3TransferManager.recordTransferLatency(latencyNanos);
+    logger.log("Transfer completed in " + TimeUnit.NANOSECONDS.toMillis(latencyNanos)
+        + "ms. Mean latency of " + S3TransferManager.getCompletedTransferCount()
+        + " transfers: " + S3TransferManager.getMeanTransferLatencyMillis() + "ms");
+    logger.log("Live S3 transfer threads: " + S3TransferManager.getLiveTransferThreadCount());
   }
 
   /**
@@ -95,7 +95,7 @@ public class TransferUtils {
     }
 
     ObjectListing objectListing;
-    AmazonS3 client = TransferManagerBuilder.defaultTransferManager().getAmazonS3Client();
+    AmazonS3 client = new S3TransferManager().getAmazonS3Client();
     do {
       objectListing = client.listObjects(listObjectsRequest);
       for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
@@ -135,7 +135,7 @@ public class TransferUtils {
     }
 
     ObjectListing objectListing;
-    AmazonS3 client = TransferManagerBuilder.defaultTransferManager().getAmazonS3Client();
+    AmazonS3 client = new S3TransferManager().getAmazonS3Client();
     do {
       objectListing = client.listObjects(listObjectsRequest);
       for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
@@ -187,7 +187,7 @@ public class TransferUtils {
     }
 
     ObjectListing objectListing;
-    AmazonS3 client = TransferManagerBuilder.defaultTransferManager().getAmazonS3Client();
+    AmazonS3 client = new S3TransferManager().getAmazonS3Client();
     do {
       objectListing = client.listObjects(listObjectsRequest);
       for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
@@ -17,9 +17,9 @@
 package squash.tools;
 
 import squash.booking.lambdas.core.Booking;
+import squash.booking.lambdas.core.CourtSlotGrid;
 
 import org.apache.commons.lang.RandomStringUtils;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonEncoding;
@@ -29,16 +29,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.collect.Sets;
 
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -91,13 +88,9 @@ public class FakeBookingCreator {
             + RandomStringUtils.randomAlphabetic(ThreadLocalRandom.current().nextInt(
                 minSurnameLength, maxSurnameLength + 1));
 
-        Set<ImmutablePair<Integer, Integer>> bookedCourts = new HashSet<>();
-        daysBookings.forEach((booking) -> {
-          addBookingToSet(booking, bookedCourts);
-        });
+        CourtSlotGrid bookedCourts = CourtSlotGrid.of(daysBookings);
 
         Booking booking;
-        Set<ImmutablePair<Integer, Integer>> courtsToBook = new HashSet<>();
         do {
           // Loop until we create a booking of free courts
           int court = ThreadLocalRandom.current().nextInt(1, numberOfCourts + 1);
@@ -108,9 +101,7 @@ public class FakeBookingCreator {
               Math.min(maxSlotSpan + 1, numberOfSlots - slot + 2));
           booking = new Booking(court, courtSpan, slot, slotSpan, player1 + "/" + player2);
           booking.setDate(date.format(formatter));
-          courtsToBook.clear();
-          addBookingToSet(booking, courtsToBook);
-        } while (Boolean.valueOf(Sets.intersection(courtsToBook, bookedCourts).size() > 0));
+        } while (bookedCourts.clashesWith(booking));
 
         daysBookings.add(booking);
       }
@@ -148,13 +139,4 @@ public class FakeBookingCreator {
       mapper.writeTree(generator, rootNode);
     }
   }
-
-  private static void addBookingToSet(Booking booking,
-      Set<ImmutablePair<Integer, Integer>> bookedCourts) {
-    for (int court = booking.getCourt(); court < booking.getCourt() + booking.getCourtSpan(); court++) {
-      for (int slot = booking.getSlot(); slot < booking.getSlot() + booking.getSlotSpan(); slot++) {
-        bookedCourts.add(new ImmutablePair<>(court, slot));
-      }
-    }
-  }
 }
\ No newline at end of file
@@ -254,7 +254,9 @@ public class UpdateBookingsLambdaTest {
 
     // Test happy path for updateBookings: we verify the IPageManager
     // is asked to refresh all booking pages, and then the IBookingManager
-    // is asked to delete the previous day's bookings.
+    // is asked to delete the previous day's bookings, and then to compact
+    // the database, and then the IPageManager is asked to delete orphaned
+    // booking pages.
 
     // ARRANGE
     final Sequence refreshSequence = mockery.sequence("refresh");
@@ -266,6 +268,59 @@ public class UpdateBookingsLambdaTest {
 
         oneOf(updateBookingsLambda.getBookingManager(mockLogger)).deleteYesterdaysBookings(false);
         inSequence(refreshSequence);
+
+        oneOf(updateBookingsLambda.getBookingManager(mockLogger)).compactDatabase(false);
+        inSequence(refreshSequence);
+
+        oneOf(updateBookingsLambda.getPageManager(mockLogger)).deleteOrphanedPages();
+        inSequence(refreshSequence);
+      }
+    });
+
+    // ACT
+    UpdateBookingsLambdaRequest request = new UpdateBookingsLambdaRequest();
+
+    updateBookingsLambda.updateBookings(request, mockContext);
+  }
+
+  @Test
+  public void testUpdateBookingsDoesNotThrowWhenCompactingTheDatabaseThrows() throws Exception {
+
+    // Compaction is housekeeping only - so its failure should not fail the update.
+
+    // ARRANGE
+    mockery.checking(new Expectations() {
+      {
+        oneOf(updateBookingsLambda.getPageManager(mockLogger)).refreshAllPages(with(validDates),
+            with(apiGatewayBaseUrl), with(revvingSuffix));
+        oneOf(updateBookingsLambda.getBookingManager(mockLogger)).deleteYesterdaysBookings(false);
+        oneOf(updateBookingsLambda.getBookingManager(mockLogger)).compactDatabase(false);
+        will(throwException(new AmazonServiceException("Grrr..")));
+        oneOf(updateBookingsLambda.getPageManager(mockLogger)).deleteOrphanedPages();
+      }
+    });
+
+    // ACT
+    UpdateBookingsLambdaRequest request = new UpdateBookingsLambdaRequest();
+
+    updateBookingsLambda.updateBookings(request, mockContext);
+  }
+
+  @Test
+  public void testUpdateBookingsDoesNotThrowWhenDeletingOrphanedPagesThrows() throws Exception {
+
+    // Deleting orphaned pages is housekeeping only - so its failure should not
+    // fail the update.
+
+    // ARRANGE
+    mockery.checking(new Expectations() {
+      {
+        oneOf(updateBookingsLambda.getPageManager(mockLogger)).refreshAllPages(with(validDates),
+            with(apiGatewayBaseUrl), with(revvingSuffix));
+        oneOf(updateBookingsLambda.getBookingManager(mockLogger)).deleteYesterdaysBookings(false);
+        oneOf(updateBookingsLambda.getBookingManager(mockLogger)).compactDatabase(false);
+        oneOf(updateBookingsLambda.getPageManager(mockLogger)).deleteOrphanedPages();
+        will(throwException(new AmazonServiceException("Grrr..")));
       }
     });
 
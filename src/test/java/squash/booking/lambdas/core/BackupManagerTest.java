@@ -725,18 +725,18 @@ public class BackupManagerTest {
         oneOf(mockRuleManager).deleteAllBookingRules(false);
         inSequence(restoreSequence);
         // Restore everything
+        // Validate everything before restoring anything
         oneOf(mockBookingManager).validateBooking(bookings.get(0));
         inSequence(restoreSequence);
-        oneOf(mockBookingManager).createBooking(bookings.get(0), false);
         oneOf(mockBookingManager).validateBooking(bookings.get(1));
         inSequence(restoreSequence);
-        oneOf(mockBookingManager).createBooking(bookings.get(1), false);
         oneOf(mockBookingManager).validateBooking(bookingRules.get(0).getBooking());
         inSequence(restoreSequence);
-        oneOf(mockRuleManager).createRule(bookingRules.get(0), false);
         oneOf(mockBookingManager).validateBooking(bookingRules.get(1).getBooking());
         inSequence(restoreSequence);
-        oneOf(mockRuleManager).createRule(bookingRules.get(1), false);
+        oneOf(mockBookingManager).restoreBookings(bookings, false);
+        inSequence(restoreSequence);
+        oneOf(mockRuleManager).restoreRules(bookingRules, false);
         inSequence(restoreSequence);
       }
     });
@@ -771,18 +771,18 @@ public class BackupManagerTest {
         never(mockBookingManager).deleteAllBookings(false);
         never(mockRuleManager).deleteAllBookingRules(false);
         // Restore everything
+        // Validate everything before restoring anything
         oneOf(mockBookingManager).validateBooking(bookings.get(0));
         inSequence(restoreSequence);
-        oneOf(mockBookingManager).createBooking(bookings.get(0), false);
         oneOf(mockBookingManager).validateBooking(bookings.get(1));
         inSequence(restoreSequence);
-        oneOf(mockBookingManager).createBooking(bookings.get(1), false);
         oneOf(mockBookingManager).validateBooking(bookingRules.get(0).getBooking());
         inSequence(restoreSequence);
-        oneOf(mockRuleManager).createRule(bookingRules.get(0), false);
         oneOf(mockBookingManager).validateBooking(bookingRules.get(1).getBooking());
         inSequence(restoreSequence);
-        oneOf(mockRuleManager).createRule(bookingRules.get(1), false);
+        oneOf(mockBookingManager).restoreBookings(bookings, false);
+        inSequence(restoreSequence);
+        oneOf(mockRuleManager).restoreRules(bookingRules, false);
         inSequence(restoreSequence);
       }
     });
@@ -814,7 +814,7 @@ public class BackupManagerTest {
         // Delete any existing bookings and booking rules before restoring.
         ignoring(mockBookingManager);
         allowing(mockRuleManager).deleteAllBookingRules(with.booleanIs(anything()));
-        never(mockRuleManager).createRule(with(anything()), with.booleanIs(anything()));
+        never(mockRuleManager).restoreRules(with(anything()), with.booleanIs(anything()));
       }
     });
     backupManager.initialise(mockBookingManager, mockRuleManager, mockLogger);
@@ -846,7 +846,7 @@ public class BackupManagerTest {
         // Delete any existing bookings and booking rules before restoring.
         ignoring(mockBookingManager);
         allowing(mockRuleManager).deleteAllBookingRules(with.booleanIs(anything()));
-        never(mockRuleManager).createRule(with(anything()), with.booleanIs(anything()));
+        never(mockRuleManager).restoreRules(with(anything()), with.booleanIs(anything()));
       }
     });
     backupManager.initialise(mockBookingManager, mockRuleManager, mockLogger);
@@ -875,7 +875,7 @@ public class BackupManagerTest {
     mockRuleManager = mockery.mock(IRuleManager.class);
     mockery.checking(new Expectations() {
       {
-        never(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
+        never(mockBookingManager).restoreBookings(with(anything()), with.booleanIs(anything()));
         ignoring(mockRuleManager);
       }
     });
@@ -887,13 +887,12 @@ public class BackupManagerTest {
   }
 
   @Test
-  public void testRestoreAllBookingsAndBookingRulesThrowsIfTheBookingManagerThrowsTooManyRequestsExceptionsThreeTimesRunning()
+  public void testRestoreAllBookingsAndBookingRulesDoesNotRetryTheBookingManager()
       throws Exception {
     // The booking manager can throw a TooManyRequests exception during restore
-    // if there are many bookings being restored. If this happens we should
-    // pause for a short time and then continue restoring. We allow up to three
-    // attempts to restore each booking before giving up. This tests that if all
-    // three tries fail then the backup manager will give up and throw.
+    // if there are many bookings being restored. Restoring the bookings again
+    // is not safe, as some may already have been written - so the persister
+    // retries each batch instead, and the backup manager should just throw.
 
     // ARRANGE
     thrown.expect(Exception.class);
@@ -908,8 +907,7 @@ public class BackupManagerTest {
     ase.setErrorCode("429");
     mockery.checking(new Expectations() {
       {
-        exactly(3).of(mockBookingManager).createBooking(with(anything()),
-            with.booleanIs(anything()));
+        oneOf(mockBookingManager).restoreBookings(with(anything()), with.booleanIs(anything()));
         will(throwException(ase));
         allowing(mockBookingManager).validateBooking(with(anything()));
         ignoring(mockRuleManager);
@@ -918,55 +916,15 @@ public class BackupManagerTest {
     backupManager.initialise(mockBookingManager, mockRuleManager, mockLogger);
 
     // ACT
-    // This should throw - albeit after three tries
+    // This should throw - after a single try
     backupManager.restoreAllBookingsAndBookingRules(bookings, bookingRules, false);
   }
 
   @Test
-  public void testRestoreAllBookingsAndBookingRulesShouldNotThrowIfTheBookingManagerThrowsTooManyRequestsExceptionsOnlyTwice()
-      throws Exception {
-    // The booking manager can throw a TooManyRequests exception during restore
-    // if there are many bookings being restored. If this happens we should
-    // pause for a short time and then continue restoring. We allow up to three
-    // attempts to restore each booking before giving up. This tests that if we
-    // throw twice but the third try succeeds, then the backup manager does not
-    // throw.
-
-    // ARRANGE
-
-    // Set up mock managers
-    mockBookingManager = mockery.mock(IBookingManager.class);
-    mockRuleManager = mockery.mock(IRuleManager.class);
-    // Configure the TooManyRequests error (429)
-    AmazonServiceException ase = new AmazonServiceException("Boom!");
-    ase.setErrorCode("429");
-    mockery.checking(new Expectations() {
-      {
-        // Set up to fail twice...
-        exactly(2).of(mockBookingManager).createBooking(with(anything()),
-            with.booleanIs(anything()));
-        will(throwException(ase));
-        // ...but third attempt succeeds
-        oneOf(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
-        allowing(mockBookingManager).validateBooking(with(anything()));
-        ignoring(mockRuleManager);
-      }
-    });
-    backupManager.initialise(mockBookingManager, mockRuleManager, mockLogger);
-
-    // ACT
-    // This should _not_ throw - we are allowed three tries
-    backupManager.restoreAllBookingsAndBookingRules(bookings, bookingRules, false);
-  }
-
-  @Test
-  public void testRestoreAllBookingsAndBookingRulesThrowsIfTheRuleManagerThrowsTooManyRequestsExceptionsThreeTimesRunning()
-      throws Exception {
-    // The rule manager can throw a TooManyRequests exception during restore
-    // if there are many booking rules being restored. If this happens we should
-    // pause for a short time and then continue restoring. We allow up to three
-    // attempts to restore each booking rule before giving up. This tests that
-    // if all three tries fail then the backup manager will give up and throw.
+  public void testRestoreAllBookingsAndBookingRulesDoesNotRetryTheRuleManager() throws Exception {
+    // The rule manager can throw a TooManyRequests exception during restore.
+    // Restoring the rules again is not safe, as they may already have been
+    // written - so the backup manager should just throw.
 
     // ARRANGE
     thrown.expect(Exception.class);
@@ -981,50 +939,15 @@ public class BackupManagerTest {
     ase.setErrorCode("429");
     mockery.checking(new Expectations() {
       {
-        exactly(3).of(mockRuleManager).createRule(with(anything()), with.booleanIs(anything()));
-        will(throwException(ase));
-        ignoring(mockBookingManager);
-      }
-    });
-    backupManager.initialise(mockBookingManager, mockRuleManager, mockLogger);
-
-    // ACT
-    // This should throw - albeit after three tries
-    backupManager.restoreAllBookingsAndBookingRules(bookings, bookingRules, false);
-  }
-
-  @Test
-  public void testRestoreAllBookingsAndBookingRulesShouldNotThrowIfTheRuleManagerThrowsTooManyRequestsExceptionsOnlyTwice()
-      throws Exception {
-    // The rule manager can throw a TooManyRequests exception during restore
-    // if there are many booking rules being restored. If this happens we should
-    // pause for a short time and then continue restoring. We allow up to three
-    // attempts to restore each booking rule before giving up. This tests that
-    // if we throw twice but the third try succeeds, then the backup manager
-    // does not throw.
-
-    // ARRANGE
-
-    // Set up mock managers
-    mockBookingManager = mockery.mock(IBookingManager.class);
-    mockRuleManager = mockery.mock(IRuleManager.class);
-    // Configure the TooManyRequests error (429)
-    AmazonServiceException ase = new AmazonServiceException("Boom!");
-    ase.setErrorCode("429");
-    mockery.checking(new Expectations() {
-      {
-        // Set up to fail twice...
-        exactly(2).of(mockRuleManager).createRule(with(anything()), with.booleanIs(anything()));
+        oneOf(mockRuleManager).restoreRules(with(anything()), with.booleanIs(anything()));
         will(throwException(ase));
-        // ...but third attempt succeeds
-        oneOf(mockRuleManager).createRule(with(anything()), with.booleanIs(anything()));
         ignoring(mockBookingManager);
       }
     });
     backupManager.initialise(mockBookingManager, mockRuleManager, mockLogger);
 
     // ACT
-    // This should _not_ throw - we are allowed three tries
+    // This should throw - after a single try
     backupManager.restoreAllBookingsAndBookingRules(bookings, bookingRules, false);
   }
 }
\ No newline at end of file
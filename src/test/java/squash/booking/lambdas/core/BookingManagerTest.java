@@ -17,12 +17,14 @@
 package squash.booking.lambdas.core;
 
 import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.States;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -40,10 +42,15 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Tests the {@link BookingManager}.
@@ -117,7 +124,12 @@ public class BookingManagerTest {
     bookingsBeforeCall.add(existingBlockBooking);
     expectedBookingsAfterCall = new ArrayList<>();
 
-    mockery = new Mockery();
+    // Synchronised, as bulk deletes call the persister from several threads
+    mockery = new Mockery() {
+      {
+        setThreadingPolicy(new Synchroniser());
+      }
+    };
     // Set up mock context
     mockContext = mockery.mock(Context.class);
     mockery.checking(new Expectations() {
@@ -175,6 +187,12 @@ public class BookingManagerTest {
     bookingAttribute.setName(attributeName);
     bookingAttribute.setValue(newName);
 
+    // The date's occupancy should be updated in the same put
+    List<Booking> bookingsAfterCreate = new ArrayList<>(initialBookings);
+    bookingsAfterCreate.add(bookingToCreate);
+    List<ReplaceableAttribute> expectedAttributes = Arrays.asList(bookingAttribute,
+        getOccupancyAttribute(bookingsAfterCreate));
+
     // Booking creation gets existing bookings before trying to make the new one
     expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(expectedVersionNumber,
         initialBookings, Optional.empty(), numCalls);
@@ -182,15 +200,17 @@ public class BookingManagerTest {
     if (!exceptionToThrow.isPresent()) {
       mockery.checking(new Expectations() {
         {
-          exactly(numCalls).of(mockOptimisticPersister).put(with(equal(bookingToCreate.getDate())),
-              with(equal(expectedVersionNumber)), with(equal(bookingAttribute)));
+          exactly(numCalls).of(mockOptimisticPersister).putAttributes(with(equal(bookingToCreate.getDate())),
+              with(equal(expectedVersionNumber)), with(equal(expectedAttributes)),
+              with.intIs(equal(initialBookings.size())));
         }
       });
     } else {
       mockery.checking(new Expectations() {
         {
-          exactly(numCalls).of(mockOptimisticPersister).put(with(equal(bookingToCreate.getDate())),
-              with(equal(expectedVersionNumber)), with(equal(bookingAttribute)));
+          exactly(numCalls).of(mockOptimisticPersister).putAttributes(with(equal(bookingToCreate.getDate())),
+              with(equal(expectedVersionNumber)), with(equal(expectedAttributes)),
+              with.intIs(equal(initialBookings.size())));
           will(throwException(exceptionToThrow.get()));
         }
       });
@@ -236,8 +256,8 @@ public class BookingManagerTest {
     // Set up mock optimistic persister to return these bookings - or to throw
     mockery.checking(new Expectations() {
       {
-        oneOf(mockOptimisticPersister).getAllItems();
-        will(returnValue(expectedDateAttributeListPairs));
+        oneOf(mockOptimisticPersister).streamAllItems();
+        will(returnValue(expectedDateAttributeListPairs.stream()));
       }
     });
     bookingManager.setOptimisticPersister(mockOptimisticPersister);
@@ -262,6 +282,7 @@ public class BookingManagerTest {
               + booking.getCourtSpan().toString() + "-" + booking.getSlot().toString() + "-"
               + booking.getSlotSpan().toString(), booking.getName()));
         });
+    attributes.add(new Attribute("Occupancy", CourtSlotGrid.of(expectedBookings).encode()));
 
     // Set up mock optimistic persister to return these bookings - or to throw
     if (!exceptionToThrow.isPresent()) {
@@ -295,23 +316,39 @@ public class BookingManagerTest {
     attribute.setName(attributeName);
     attribute.setValue(bookingToDelete.getName());
 
+    // We expect the delete to read the bookings first - which should then include
+    // the booking being deleted.
+    List<Booking> bookingsBeforeDelete = new ArrayList<>();
+    if (expectedBookingsAfterDelete.isPresent()) {
+      bookingsBeforeDelete.addAll(expectedBookingsAfterDelete.get());
+    }
+    if (!bookingsBeforeDelete.contains(bookingToDelete)) {
+      bookingsBeforeDelete.add(bookingToDelete);
+    }
+    Integer someArbitraryNumber = 42;
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(
+        Optional.of(someArbitraryNumber), bookingsBeforeDelete, Optional.empty());
+
+    // The date's occupancy should be updated in the same put as the delete
+    List<Booking> bookingsAfterDelete = new ArrayList<>(bookingsBeforeDelete);
+    bookingsAfterDelete.remove(bookingToDelete);
+    List<ReplaceableAttribute> expectedAttributesToPut = Arrays
+        .asList(getOccupancyAttribute(bookingsAfterDelete));
+
     if (!exceptionToThrow.isPresent()) {
       mockery.checking(new Expectations() {
         {
           oneOf(mockOptimisticPersister).delete(with(equal(bookingToDelete.getDate())),
-              with(equal(attribute)));
+              with(equal(Optional.of(someArbitraryNumber))), with(equal(attribute)),
+              with(equal(expectedAttributesToPut)));
         }
       });
-
-      // We expect call to getBookings after the delete
-      Integer someArbitraryNumber = 42;
-      expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(
-          Optional.of(someArbitraryNumber), expectedBookingsAfterDelete.get(), Optional.empty());
     } else {
       mockery.checking(new Expectations() {
         {
           oneOf(mockOptimisticPersister).delete(with(equal(bookingToDelete.getDate())),
-              with(equal(attribute)));
+              with(equal(Optional.of(someArbitraryNumber))), with(equal(attribute)),
+              with(equal(expectedAttributesToPut)));
           will(throwException(exceptionToThrow.get()));
         }
       });
@@ -319,6 +356,23 @@ public class BookingManagerTest {
     bookingManager.setOptimisticPersister(mockOptimisticPersister);
   }
 
+  private ReplaceableAttribute getBookingAttribute(Booking booking) {
+    ReplaceableAttribute bookingAttribute = new ReplaceableAttribute();
+    bookingAttribute.setName(booking.getCourt().toString() + "-"
+        + booking.getCourtSpan().toString() + "-" + booking.getSlot().toString() + "-"
+        + booking.getSlotSpan().toString());
+    bookingAttribute.setValue(booking.getName());
+    return bookingAttribute;
+  }
+
+  private ReplaceableAttribute getOccupancyAttribute(List<Booking> bookings) {
+    ReplaceableAttribute occupancyAttribute = new ReplaceableAttribute();
+    occupancyAttribute.setName("Occupancy");
+    occupancyAttribute.setValue(CourtSlotGrid.of(bookings).encode());
+    occupancyAttribute.setReplace(true);
+    return occupancyAttribute;
+  }
+
   @After
   public void afterTest() {
     mockery.assertIsSatisfied();
@@ -330,14 +384,20 @@ public class BookingManagerTest {
     private String adminSnsTopicArn;
     private LocalDate currentLocalDate;
     private IOptimisticPersister optimisticPersister;
+    private Set<Thread> optimisticPersisterCallers = ConcurrentHashMap.newKeySet();
     private ILifecycleManager lifecycleManager;
 
     public void setOptimisticPersister(IOptimisticPersister optimisticPersister) {
       this.optimisticPersister = optimisticPersister;
     }
 
+    public Set<Thread> getOptimisticPersisterCallers() {
+      return optimisticPersisterCallers;
+    }
+
     @Override
     public IOptimisticPersister getOptimisticPersister() {
+      optimisticPersisterCallers.add(Thread.currentThread());
       return optimisticPersister;
     }
 
@@ -527,6 +587,30 @@ public class BookingManagerTest {
     bookingManager.getBookings(fakeCurrentDateString, true);
   }
 
+  @Test
+  public void testGetBookingsThrowsIfABookingAttributeNameIsInvalid() throws Exception {
+
+    // ARRANGE
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("The booking attribute name is invalid: 4-2-10");
+
+    initialiseBookingManager();
+
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(new Attribute("4-2-10", "Team Training"));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)));
+        will(returnValue(new ImmutablePair<>(Optional.of(1), attributes)));
+      }
+    });
+    bookingManager.setOptimisticPersister(mockOptimisticPersister);
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.getBookings(fakeCurrentDateString, true);
+  }
+
   @Test
   public void testGetBookingsCorrectlyCallsTheOptimisticPersister() throws Exception {
 
@@ -544,6 +628,76 @@ public class BookingManagerTest {
     bookingManager.getBookings(fakeCurrentDateString, true);
   }
 
+  @Test
+  public void testGetBookingsForDateRangeQueriesTheRangeInOneSelect() throws Exception {
+    // Without the parallel option, the range should be read with a single
+    // range query - and every date in the range should have an entry, even if
+    // it has no bookings.
+
+    // ARRANGE
+    initialiseBookingManager();
+
+    String toDate = fakeCurrentDate.plusDays(2).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    List<ImmutablePair<String, List<Attribute>>> items = new ArrayList<>();
+    items.add(new ImmutablePair<>(fakeCurrentDateString, Arrays.asList(new Attribute("2-1-3-1",
+        existingName))));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).streamItems(fakeCurrentDateString, toDate);
+        will(returnValue(items.stream()));
+        never(mockOptimisticPersister).get(with(anything()));
+      }
+    });
+    bookingManager.setOptimisticPersister(mockOptimisticPersister);
+
+    // ACT
+    SortedMap<String, List<Booking>> bookingsByDate = bookingManager.getBookings(
+        fakeCurrentDateString, toDate, false, true);
+
+    // ASSERT
+    assertTrue("Every date in the range should be returned. Actual: " + bookingsByDate.keySet(),
+        bookingsByDate.size() == 3 && bookingsByDate.firstKey().equals(fakeCurrentDateString)
+            && bookingsByDate.lastKey().equals(toDate));
+    assertTrue("The booking should be returned for its date",
+        bookingsByDate.get(fakeCurrentDateString).equals(Arrays.asList(existingSingleBooking)));
+    assertTrue("Dates without bookings should have no bookings",
+        bookingsByDate.get(toDate).isEmpty());
+  }
+
+  @Test
+  public void testGetBookingsForDateRangeCanReadEachDateInParallel() throws Exception {
+
+    // ARRANGE
+    initialiseBookingManager();
+
+    String toDate = fakeCurrentDate.plusDays(1).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(new Attribute("2-1-3-1", existingName));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)));
+        will(returnValue(new ImmutablePair<>(Optional.of(1), attributes)));
+        oneOf(mockOptimisticPersister).get(with(equal(toDate)));
+        will(returnValue(new ImmutablePair<>(Optional.empty(), new HashSet<Attribute>())));
+        never(mockOptimisticPersister).streamItems(with(anything()), with(anything()));
+      }
+    });
+    bookingManager.setOptimisticPersister(mockOptimisticPersister);
+
+    // ACT
+    SortedMap<String, List<Booking>> bookingsByDate = bookingManager.getBookings(
+        fakeCurrentDateString, toDate, true, true);
+
+    // ASSERT
+    assertTrue("The booking should be returned for its date",
+        bookingsByDate.get(fakeCurrentDateString).equals(Arrays.asList(existingSingleBooking)));
+    assertTrue("Dates without bookings should have no bookings",
+        bookingsByDate.get(toDate).isEmpty());
+    assertTrue("Only the calling thread should get the optimistic persister",
+        bookingManager.getOptimisticPersisterCallers().equals(
+            Collections.singleton(Thread.currentThread())));
+  }
+
   @Test
   public void testGetBookingsCorrectlyCallsTheLifecycleManagerWhenCalledFromUser() throws Exception {
     // Test getBookings calls the lifecycle manager to check booking retrieval
@@ -647,6 +801,92 @@ public class BookingManagerTest {
     assertTrue("More bookings than expected were returned", actualBookings.size() == 0);
   }
 
+  @Test
+  public void testGetBookedCourtsThrowsWhenBookingManagerUninitialised() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The booking manager has not been initialised");
+
+    // ACT
+    // Do not initialise the booking manager first - so we should throw
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.getBookedCourts(fakeCurrentDateString, true);
+  }
+
+  @Test
+  public void testGetBookedCourtsReadsOnlyTheOccupancyAttribute() throws Exception {
+
+    // ARRANGE
+    initialiseBookingManager();
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(new Attribute("Occupancy", CourtSlotGrid.of(bookingsBeforeCall).encode()));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)),
+            with(equal(Collections.singletonList("Occupancy"))));
+        will(returnValue(new ImmutablePair<>(Optional.of(42), attributes)));
+        never(mockOptimisticPersister).get(with(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    CourtSlotGrid bookedCourts = bookingManager.getBookedCourts(fakeCurrentDateString, true);
+
+    // ASSERT
+    assertEquals("The booked courts should be those of the existing bookings",
+        CourtSlotGrid.of(bookingsBeforeCall), bookedCourts);
+  }
+
+  @Test
+  public void testGetBookedCourtsReadsAllBookingsIfThereIsNoOccupancyAttribute()
+      throws Exception {
+    // Dates last written before we kept the occupancy attribute do not have it
+
+    // ARRANGE
+    initialiseBookingManager();
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)),
+            with(equal(Collections.singletonList("Occupancy"))));
+        will(returnValue(new ImmutablePair<>(Optional.of(42), new HashSet<>())));
+      }
+    });
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(42),
+        bookingsBeforeCall, Optional.empty());
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    CourtSlotGrid bookedCourts = bookingManager.getBookedCourts(fakeCurrentDateString, true);
+
+    // ASSERT
+    assertEquals("The booked courts should be those of the existing bookings",
+        CourtSlotGrid.of(bookingsBeforeCall), bookedCourts);
+  }
+
+  @Test
+  public void testGetBookedCourtsReturnsAnEmptyGridForADateWithNoBookings() throws Exception {
+
+    // ARRANGE
+    initialiseBookingManager();
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)),
+            with(equal(Collections.singletonList("Occupancy"))));
+        will(returnValue(new ImmutablePair<>(Optional.empty(), new HashSet<>())));
+        never(mockOptimisticPersister).get(with(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    CourtSlotGrid bookedCourts = bookingManager.getBookedCourts(fakeCurrentDateString, true);
+
+    // ASSERT
+    assertEquals("No courts should be booked", new CourtSlotGrid(), bookedCourts);
+  }
+
   @Test
   public void testCreateBookingThrowsWhenBookingManagerUninitialised() throws Exception {
 
@@ -941,6 +1181,193 @@ public class BookingManagerTest {
     doTestCreateBookingThrowsIfBookingClashesWithExistingBooking(blockBookingOverlappingExistingSingleBooking);
   }
 
+  @Test
+  public void testCreateBookingChecksForClashesUsingTheOccupancyAttribute() throws Exception {
+    // The clash check should read the date's occupancy attribute - rather than
+    // parsing every booking attribute.
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Booking creation failed");
+    initialiseBookingManager();
+
+    // Return an occupancy marking the court as booked - but no booking attributes
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(new Attribute("Occupancy", CourtSlotGrid.of(
+        Arrays.asList(singleBookingOfFreeCourt)).encode()));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)));
+        will(returnValue(new ImmutablePair<>(Optional.of(4), attributes)));
+        never(mockOptimisticPersister).putAttributes(with(anything()), with(anything()),
+            with(anything()), with.intIs(anything()));
+      }
+    });
+
+    // ACT and ASSERT
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.createBooking(singleBookingOfFreeCourt, true);
+  }
+
+  @Test
+  public void testCreateBookingAddsTheOccupancyAttributeIfItIsMissing() throws Exception {
+    // Dates last written before we kept an occupancy attribute do not have one
+    // - so createBooking should build it from the date's bookings.
+
+    // ARRANGE
+    initialiseBookingManager();
+
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(new Attribute("2-1-3-1", existingName));
+    ReplaceableAttribute bookingAttribute = new ReplaceableAttribute();
+    bookingAttribute.setName("4-1-12-1");
+    bookingAttribute.setValue(newName);
+    List<ReplaceableAttribute> expectedAttributes = Arrays.asList(bookingAttribute,
+        getOccupancyAttribute(Arrays.asList(existingSingleBooking, singleBookingOfFreeCourt)));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)));
+        will(returnValue(new ImmutablePair<>(Optional.of(4), attributes)));
+        oneOf(mockOptimisticPersister).putAttributes(with(equal(fakeCurrentDateString)),
+            with(equal(Optional.of(4))), with(equal(expectedAttributes)), with.intIs(equal(1)));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    List<Booking> bookings = bookingManager.createBooking(singleBookingOfFreeCourt, true);
+
+    // ASSERT
+    assertTrue("Unexpected bookings returned",
+        bookings.equals(Arrays.asList(existingSingleBooking, singleBookingOfFreeCourt)));
+  }
+
+  @Test
+  public void testCreateBookingsThrowsWhenBookingManagerUninitialised() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The booking manager has not been initialised");
+
+    // ACT
+    // Do not initialise the booking manager first - so we should throw
+    // N.B. Third parameter is arbitrary here.
+    bookingManager.createBookings(fakeCurrentDateString, Arrays.asList(singleBookingOfFreeCourt),
+        false);
+  }
+
+  @Test
+  public void testCreateBookingsCreatesAllBookingsThatDoNotClashInASinglePut() throws Exception {
+
+    // ARRANGE
+    initialiseBookingManager();
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(4),
+        bookingsBeforeCall, Optional.empty());
+
+    // The second booking clashes with an existing block booking
+    List<Booking> bookingsToCreate = Arrays.asList(singleBookingOfFreeCourt,
+        singleBookingWithinExistingBlockBooking, blockBookingOfFreeCourts);
+    List<ReplaceableAttribute> expectedAttributes = new ArrayList<>();
+    for (Booking booking : Arrays.asList(singleBookingOfFreeCourt, blockBookingOfFreeCourts)) {
+      ReplaceableAttribute bookingAttribute = new ReplaceableAttribute();
+      bookingAttribute.setName(booking.getCourt().toString() + "-"
+          + booking.getCourtSpan().toString() + "-" + booking.getSlot().toString() + "-"
+          + booking.getSlotSpan().toString());
+      bookingAttribute.setValue(booking.getName());
+      expectedAttributes.add(bookingAttribute);
+    }
+    List<Booking> bookingsAfterCall = new ArrayList<>(bookingsBeforeCall);
+    bookingsAfterCall.add(singleBookingOfFreeCourt);
+    bookingsAfterCall.add(blockBookingOfFreeCourts);
+    expectedAttributes.add(getOccupancyAttribute(bookingsAfterCall));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).putAttributes(with(equal(fakeCurrentDateString)),
+            with(equal(Optional.of(4))), with(equal(expectedAttributes)),
+            with.intIs(equal(bookingsBeforeCall.size())));
+      }
+    });
+
+    // ACT
+    // N.B. Third parameter is arbitrary here.
+    List<ImmutablePair<Booking, Boolean>> outcomes = bookingManager.createBookings(
+        fakeCurrentDateString, bookingsToCreate, false);
+
+    // ASSERT
+    assertTrue("Unexpected outcomes returned", outcomes.equals(Arrays.asList(
+        new ImmutablePair<>(singleBookingOfFreeCourt, true), new ImmutablePair<>(
+            singleBookingWithinExistingBlockBooking, false), new ImmutablePair<>(
+            blockBookingOfFreeCourts, true))));
+  }
+
+  @Test
+  public void testCreateBookingsDetectsClashesBetweenTheBookingsBeingCreated() throws Exception {
+
+    // ARRANGE
+    initialiseBookingManager();
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(4),
+        new ArrayList<>(), Optional.empty());
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).putAttributes(with(equal(fakeCurrentDateString)),
+            with(equal(Optional.of(4))), with(anything()), with.intIs(equal(0)));
+      }
+    });
+
+    // ACT
+    // N.B. Third parameter is arbitrary here.
+    List<ImmutablePair<Booking, Boolean>> outcomes = bookingManager.createBookings(
+        fakeCurrentDateString, Arrays.asList(existingBlockBooking,
+            singleBookingWithinExistingBlockBooking), false);
+
+    // ASSERT
+    assertTrue("Unexpected outcomes returned", outcomes.equals(Arrays.asList(
+        new ImmutablePair<>(existingBlockBooking, true), new ImmutablePair<>(
+            singleBookingWithinExistingBlockBooking, false))));
+  }
+
+  @Test
+  public void testCreateBookingsDoesNotPutIfEveryBookingClashes() throws Exception {
+
+    // ARRANGE
+    initialiseBookingManager();
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(4),
+        bookingsBeforeCall, Optional.empty());
+    mockery.checking(new Expectations() {
+      {
+        never(mockOptimisticPersister).putAttributes(with(anything()), with(anything()),
+            with(anything()), with.intIs(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Third parameter is arbitrary here.
+    List<ImmutablePair<Booking, Boolean>> outcomes = bookingManager.createBookings(
+        fakeCurrentDateString, Arrays.asList(singleBookingWithinExistingBlockBooking), false);
+
+    // ASSERT
+    assertTrue("Unexpected outcomes returned", outcomes.equals(Arrays.asList(
+        new ImmutablePair<>(singleBookingWithinExistingBlockBooking, false))));
+  }
+
+  @Test
+  public void testCreateBookingsThrowsIfABookingIsForAnotherDate() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Booking creation failed");
+    initialiseBookingManager();
+
+    Booking bookingForTomorrow = new Booking(singleBookingOfFreeCourt);
+    bookingForTomorrow.setDate(fakeCurrentDate.plusDays(1).format(
+        DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+
+    // ACT
+    // N.B. Third parameter is arbitrary here.
+    bookingManager.createBookings(fakeCurrentDateString, Arrays.asList(singleBookingOfFreeCourt,
+        bookingForTomorrow), false);
+  }
+
   private void doTestCreateBookingThrowsIfBookingClashesWithExistingBooking(
       Booking clashingBookingToCreate) throws Exception {
     // Test createBooking throws when we try to create a booking that
@@ -974,36 +1401,52 @@ public class BookingManagerTest {
 
   @Test
   public void testDeleteAllBookingsCorrectlyCallsTheOptimisticPersister() throws Exception {
+    // Each date's item should be deleted whole - but the booking rules and
+    // lifecycle state items should be left alone.
 
     // ARRANGE
     initialiseBookingManager();
+    expectOptimisticPersisterGetAllItemsToReturnAllBookings(true);
 
-    List<ImmutablePair<String, List<Attribute>>> allDateAttributeListPairs = new ArrayList<>();
-    List<Attribute> attributes = new ArrayList<>();
-
-    bookingsBeforeCall.stream().forEach(
-        booking -> {
-          attributes.add(new Attribute(booking.getCourt().toString() + "-"
-              + booking.getCourtSpan().toString() + "-" + booking.getSlot().toString() + "-"
-              + booking.getSlotSpan().toString(), booking.getName()));
-        });
-    allDateAttributeListPairs.add(new ImmutablePair<>(fakeCurrentDateString, attributes));
-
-    // Set up mock optimistic persister to return these bookings
+    // The fake bookings are for today and yesterday
+    List<String> expectedDates = new ArrayList<>();
+    expectedDates.add(fakeCurrentDate.minusDays(1).format(
+        DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+    expectedDates.add(fakeCurrentDateString);
     mockery.checking(new Expectations() {
       {
-        oneOf(mockOptimisticPersister).getAllItems();
-        will(returnValue(allDateAttributeListPairs));
+        oneOf(mockOptimisticPersister).deleteItems(with(equal(expectedDates)));
       }
     });
-    bookingManager.setOptimisticPersister(mockOptimisticPersister);
 
-    // Set up mock optimistic persister to expect all bookings to be deleted
-    // N.B. expectedBookingsAfterCall is arbitrary here.
-    for (Booking booking : bookingsBeforeCall) {
-      expectDeleteBookingToReturnUpdatedBookingsOrThrow(booking,
-          Optional.of(expectedBookingsAfterCall), Optional.empty());
+    // Act
+    // N.B. Parameter is arbitrary here.
+    bookingManager.deleteAllBookings(false);
+  }
+
+  @Test
+  public void testDeleteAllBookingsDeletesManyDatesInBatches() throws Exception {
+    // SimpleDB allows at most 25 items per batch delete - so 30 dates should
+    // need 2 batches.
+
+    // ARRANGE
+    initialiseBookingManager();
+
+    List<ImmutablePair<String, List<Attribute>>> allDateAttributeListPairs = new ArrayList<>();
+    List<String> expectedDates = new ArrayList<>();
+    for (int day = 0; day < 30; day++) {
+      String date = fakeCurrentDate.plusDays(day).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+      expectedDates.add(date);
+      allDateAttributeListPairs.add(new ImmutablePair<>(date, new ArrayList<>()));
     }
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).streamAllItems();
+        will(returnValue(allDateAttributeListPairs.stream()));
+        oneOf(mockOptimisticPersister).deleteItems(with(equal(expectedDates.subList(0, 25))));
+        oneOf(mockOptimisticPersister).deleteItems(with(equal(expectedDates.subList(25, 30))));
+      }
+    });
 
     // Act
     // N.B. Parameter is arbitrary here.
@@ -1057,8 +1500,8 @@ public class BookingManagerTest {
     List<ImmutablePair<String, List<Attribute>>> emptyList = new ArrayList<>();
     mockery.checking(new Expectations() {
       {
-        oneOf(mockOptimisticPersister).getAllItems();
-        will(returnValue(emptyList));
+        oneOf(mockOptimisticPersister).streamAllItems();
+        will(returnValue(emptyList.stream()));
       }
     });
     bookingManager.setOptimisticPersister(mockOptimisticPersister);
@@ -1100,10 +1543,10 @@ public class BookingManagerTest {
   @Test
   public void testDeleteAllBookingsThrowsIfTheBookingManagerThrowsTooManyRequestsExceptionsThreeTimesRunning()
       throws Exception {
-    // The booking manager can throw a TooManyRequests exception
+    // The optimistic persister can throw a TooManyRequests exception
     // if there are many bookings being deleted. If this happens we should
     // pause for a short time and then continue deleting. We allow up to three
-    // attempts to delete each booking before giving up. This tests that
+    // attempts to delete each batch of dates before giving up. This tests that
     // if all three tries fail then the booking manager will give up and throw.
 
     // ARRANGE
@@ -1111,21 +1554,8 @@ public class BookingManagerTest {
     String message = "Boom!";
     thrown.expectMessage(message);
 
-    // ACT
     initialiseBookingManager();
-
-    // Set up some bookings to return. These are arbitrary here - what matters
-    // here is that the optimistic persister delete call throws three times.
-    List<ImmutablePair<String, List<Attribute>>> allDateAttributeListPairs = new ArrayList<>();
-    List<Attribute> attributes = new ArrayList<>();
-
-    bookingsBeforeCall.stream().forEach(
-        booking -> {
-          attributes.add(new Attribute(booking.getCourt().toString() + "-"
-              + booking.getCourtSpan().toString() + "-" + booking.getSlot().toString() + "-"
-              + booking.getSlotSpan().toString(), booking.getName()));
-        });
-    allDateAttributeListPairs.add(new ImmutablePair<>(fakeCurrentDateString, attributes));
+    expectOptimisticPersisterGetAllItemsToReturnAllBookings(false);
 
     // Set up mock optimistic persister to throw too many requests errors
     // Configure the TooManyRequests error (429)
@@ -1133,14 +1563,10 @@ public class BookingManagerTest {
     ase.setErrorCode("429");
     mockery.checking(new Expectations() {
       {
-        exactly(3).of(mockOptimisticPersister).delete(with(anything()), with(anything()));
+        exactly(3).of(mockOptimisticPersister).deleteItems(with(anything()));
         will(throwException(ase));
-        allowing(mockOptimisticPersister).get(with(anything()));
-        allowing(mockOptimisticPersister).getAllItems();
-        will(returnValue(allDateAttributeListPairs));
       }
     });
-    bookingManager.setOptimisticPersister(mockOptimisticPersister);
 
     // ACT
     // This should throw - albeit after three tries
@@ -1151,52 +1577,30 @@ public class BookingManagerTest {
   @Test
   public void testRestoreAllBookingsAndBookingRulesShouldNotThrowIfTheRuleManagerThrowsTooManyRequestsExceptionsOnlyTwice()
       throws Exception {
-    // The rule manager can throw a TooManyRequests exception during restore
-    // if there are many booking rules being restored. If this happens we should
-    // pause for a short time and then continue restoring. We allow up to three
-    // attempts to restore each booking rule before giving up. This tests that
-    // if we throw twice but the third try succeeds, then the backup manager
+    // The optimistic persister can throw a TooManyRequests exception
+    // if there are many bookings being deleted. If this happens we should
+    // pause for a short time and then continue deleting. We allow up to three
+    // attempts to delete each batch of dates before giving up. This tests that
+    // if we throw twice but the third try succeeds, then the booking manager
     // does not throw.
 
     // ARRANGE
-    String message = "Boom!";
-
-    // ACT
     initialiseBookingManager();
-
-    // Set up a single booking to return. This is arbitrary here - what matters
-    // here is that the optimistic persister delete call throws twice, then
-    // succeeds
-    List<ImmutablePair<String, List<Attribute>>> allDateAttributeListPairs = new ArrayList<>();
-    List<Attribute> attributes = new ArrayList<>();
-
-    Booking booking = bookingsBeforeCall.get(0);
-    attributes.add(new Attribute(booking.getCourt().toString() + "-"
-        + booking.getCourtSpan().toString() + "-" + booking.getSlot().toString() + "-"
-        + booking.getSlotSpan().toString(), booking.getName()));
-    allDateAttributeListPairs.add(new ImmutablePair<>(fakeCurrentDateString, attributes));
-
-    Integer someArbitraryNumber = 42;
-    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(
-        Optional.of(someArbitraryNumber), Arrays.asList(bookingsBeforeCall.get(0)),
-        Optional.empty());
+    expectOptimisticPersisterGetAllItemsToReturnAllBookings(false);
 
     // Set up mock optimistic persister to throw too many requests errors
     // Configure the TooManyRequests error (429)
-    AmazonServiceException ase = new AmazonServiceException(message);
+    AmazonServiceException ase = new AmazonServiceException("Boom!");
     ase.setErrorCode("429");
     mockery.checking(new Expectations() {
       {
         // Throw twice...
-        exactly(2).of(mockOptimisticPersister).delete(with(anything()), with(anything()));
+        exactly(2).of(mockOptimisticPersister).deleteItems(with(anything()));
         will(throwException(ase));
         // ...but succeed the third time
-        oneOf(mockOptimisticPersister).delete(with(anything()), with(anything()));
-        allowing(mockOptimisticPersister).getAllItems();
-        will(returnValue(allDateAttributeListPairs));
+        oneOf(mockOptimisticPersister).deleteItems(with(anything()));
       }
     });
-    bookingManager.setOptimisticPersister(mockOptimisticPersister);
 
     // ACT
     // This should _not_ throw - we are allowed three tries
@@ -1204,6 +1608,177 @@ public class BookingManagerTest {
     bookingManager.deleteAllBookings(false);
   }
 
+  @Test
+  public void testRestoreBookingsThrowsWhenBookingManagerUninitialised() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The booking manager has not been initialised");
+
+    // ACT
+    // Do not initialise the booking manager first - so we should throw
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.restoreBookings(bookingsBeforeCall, false);
+  }
+
+  @Test
+  public void testRestoreBookingsCorrectlyCallsTheOptimisticPersister() throws Exception {
+    // Each date's bookings should be written in a single conditional put - reading
+    // only the dates being restored.
+
+    // ARRANGE
+    initialiseBookingManager();
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(42),
+        Arrays.asList(existingSingleBooking), Optional.empty());
+
+    String tomorrow = fakeCurrentDate.plusDays(1).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    Booking bookingForTomorrow = new Booking(existingSingleBooking);
+    bookingForTomorrow.setDate(tomorrow);
+
+    // Each date's occupancy should include its existing bookings as well as the restored ones
+    List<ReplaceableAttribute> expectedAttributesForToday = Arrays.asList(
+        getBookingAttribute(singleBookingOfFreeCourt),
+        getOccupancyAttribute(Arrays.asList(existingSingleBooking, singleBookingOfFreeCourt)));
+    List<ReplaceableAttribute> expectedAttributesForTomorrow = Arrays.asList(
+        getBookingAttribute(bookingForTomorrow),
+        getOccupancyAttribute(Arrays.asList(bookingForTomorrow)));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(tomorrow)));
+        will(returnValue(new ImmutablePair<>(Optional.empty(), new HashSet<Attribute>())));
+        oneOf(mockOptimisticPersister).putAttributes(with(equal(fakeCurrentDateString)),
+            with(equal(Optional.of(42))), with(equal(expectedAttributesForToday)), with.intIs(equal(1)));
+        oneOf(mockOptimisticPersister).putAttributes(with(equal(tomorrow)),
+            with(equal(Optional.empty())), with(equal(expectedAttributesForTomorrow)),
+            with.intIs(equal(0)));
+        never(mockOptimisticPersister).streamAllItems();
+        never(mockOptimisticPersister).putAll(with(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.restoreBookings(Arrays.asList(singleBookingOfFreeCourt, bookingForTomorrow),
+        false);
+  }
+
+  @Test
+  public void testRestoreBookingsRereadsADateChangedByAConcurrentBooking() throws Exception {
+    // If someone books a court between our reading and writing a date, the
+    // conditional put fails - and we should retry against their booking.
+
+    // ARRANGE
+    initialiseBookingManager();
+
+    Set<Attribute> attributesBeforeConcurrentBooking = new HashSet<>();
+    Set<Attribute> attributesAfterConcurrentBooking = new HashSet<>();
+    attributesAfterConcurrentBooking.add(new Attribute(getBookingAttribute(existingSingleBooking)
+        .getName(), existingName));
+    attributesAfterConcurrentBooking.add(new Attribute("Occupancy", CourtSlotGrid.of(
+        Arrays.asList(existingSingleBooking)).encode()));
+    List<ReplaceableAttribute> expectedAttributesBeforeConcurrentBooking = Arrays.asList(
+        getBookingAttribute(singleBookingOfFreeCourt),
+        getOccupancyAttribute(Arrays.asList(singleBookingOfFreeCourt)));
+    List<ReplaceableAttribute> expectedAttributesAfterConcurrentBooking = Arrays.asList(
+        getBookingAttribute(singleBookingOfFreeCourt),
+        getOccupancyAttribute(Arrays.asList(existingSingleBooking, singleBookingOfFreeCourt)));
+    mockery.checking(new Expectations() {
+      {
+        exactly(2).of(mockOptimisticPersister).get(with(equal(fakeCurrentDateString)));
+        will(onConsecutiveCalls(
+            returnValue(new ImmutablePair<>(Optional.of(1), attributesBeforeConcurrentBooking)),
+            returnValue(new ImmutablePair<>(Optional.of(2), attributesAfterConcurrentBooking))));
+        oneOf(mockOptimisticPersister).putAttributes(with(equal(fakeCurrentDateString)),
+            with(equal(Optional.of(1))), with(equal(expectedAttributesBeforeConcurrentBooking)),
+            with.intIs(equal(0)));
+        will(throwException(new Exception("Database put failed - conditional check failed")));
+        oneOf(mockOptimisticPersister).putAttributes(with(equal(fakeCurrentDateString)),
+            with(equal(Optional.of(2))), with(equal(expectedAttributesAfterConcurrentBooking)),
+            with.intIs(equal(1)));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.restoreBookings(Arrays.asList(singleBookingOfFreeCourt), false);
+  }
+
+  @Test
+  public void testRestoreBookingsThrowsIfABookingClashesWithAnExistingBooking() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Booking creation failed");
+    initialiseBookingManager();
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(42),
+        bookingsBeforeCall, Optional.empty());
+    mockery.checking(new Expectations() {
+      {
+        never(mockOptimisticPersister).putAttributes(with(anything()), with(anything()),
+            with(anything()), with.intIs(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.restoreBookings(Arrays.asList(blockBookingOverlappingExistingSingleBooking),
+        false);
+  }
+
+  @Test
+  public void testRestoreBookingsChecksEveryDateBeforeWritingAny() throws Exception {
+    // A clash on a later date should stop the restore before any date is written.
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Booking creation failed");
+    initialiseBookingManager();
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(42),
+        bookingsBeforeCall, Optional.empty());
+
+    String tomorrow = fakeCurrentDate.plusDays(1).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    Booking bookingForTomorrow = new Booking(existingSingleBooking);
+    bookingForTomorrow.setDate(tomorrow);
+    Set<Attribute> attributesForTomorrow = new HashSet<>();
+    attributesForTomorrow.add(new Attribute("Occupancy", CourtSlotGrid.of(
+        Arrays.asList(bookingForTomorrow)).encode()));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).get(with(equal(tomorrow)));
+        will(returnValue(new ImmutablePair<>(Optional.of(7), attributesForTomorrow)));
+        never(mockOptimisticPersister).putAttributes(with(anything()), with(anything()),
+            with(anything()), with.intIs(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.restoreBookings(Arrays.asList(singleBookingOfFreeCourt, bookingForTomorrow),
+        false);
+  }
+
+  @Test
+  public void testRestoreBookingsThrowsIfTheBookingsClashWithEachOther() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Booking creation failed");
+    initialiseBookingManager();
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(42),
+        bookingsBeforeCall, Optional.empty());
+    mockery.checking(new Expectations() {
+      {
+        never(mockOptimisticPersister).putAttributes(with(anything()), with(anything()),
+            with(anything()), with.intIs(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    bookingManager.restoreBookings(Arrays.asList(blockBookingOfFreeCourts,
+        blockBookingOfFreeCourts), false);
+  }
+
   @Test
   public void testDeleteBookingThrowsWhenBookingManagerUninitialised() throws Exception {
 
@@ -1286,6 +1861,34 @@ public class BookingManagerTest {
     assertTrue("More bookings than expected were returned", actualBookings.size() == 0);
   }
 
+  @Test
+  public void testDeleteBookingDoesNotCallTheOptimisticPersisterDeleteIfTheBookingDoesNotExist()
+      throws Exception {
+    // If the booking has already gone, there is nothing to delete.
+
+    // ARRANGE
+    initialiseBookingManager();
+
+    expectedBookingsAfterCall.addAll(bookingsBeforeCall);
+    expectedBookingsAfterCall.removeIf(booking -> booking.equals(existingSingleBooking));
+    expectOptimisticPersisterGetToReturnVersionedAttributesOrThrow(Optional.of(42),
+        expectedBookingsAfterCall, Optional.empty());
+    mockery.checking(new Expectations() {
+      {
+        never(mockOptimisticPersister).delete(with(anything()), with(anything()),
+            with(anything()), with(anything()));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    List<Booking> actualBookings = bookingManager.deleteBooking(existingSingleBooking, true);
+
+    // ASSERT
+    assertTrue("Unexpected bookings returned", actualBookings.size() == expectedBookingsAfterCall
+        .size() && actualBookings.containsAll(expectedBookingsAfterCall));
+  }
+
   @Test
   public void testDeleteBookingThrowsIfTheOptimisticPersisterThrows_SingleBooking()
       throws Exception {
@@ -1566,6 +2169,63 @@ public class BookingManagerTest {
     bookingManager.deleteYesterdaysBookings(true);
   }
 
+  @Test
+  public void testCompactDatabaseCorrectlyCallsTheOptimisticPersister() throws Exception {
+
+    // ARRANGE
+    initialiseBookingManager();
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).purgeInactiveAttributes();
+        will(returnValue(3));
+      }
+    });
+    bookingManager.setOptimisticPersister(mockOptimisticPersister);
+
+    // ACT
+    // N.B. Parameter is arbitrary here.
+    bookingManager.compactDatabase(false);
+  }
+
+  @Test
+  public void testCompactDatabaseNotifiesTheSnsTopicWhenItThrows() throws Exception {
+    // The nightly update treats compaction as housekeeping, and carries on if
+    // it throws - so the admin user must be notified, or deleted bookings
+    // would build up unnoticed, e.g. if the purge is denied access.
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    String message = "Test Exception";
+    thrown.expectMessage(message);
+
+    initialiseBookingManager();
+
+    // Make method throw
+    AmazonServiceException ase = new AmazonServiceException(message);
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).purgeInactiveAttributes();
+        will(throwException(ase));
+      }
+    });
+    bookingManager.setOptimisticPersister(mockOptimisticPersister);
+
+    // Set up mock SNS client to expect a notification
+    mockSNSClient = mockery.mock(AmazonSNS.class);
+    String partialMessage = "Apologies - but there was an error purging deleted bookings and booking rules from the database";
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSNSClient).publish(with(equal(adminSnsTopicArn)),
+            with(startsWith(partialMessage)), with(equal("Sqawsh database failed to compact")));
+      }
+    });
+    bookingManager.setSNSClient(mockSNSClient);
+
+    // ACT - this should throw - and notify the SNS topic
+    // N.B. Parameter is arbitrary here.
+    bookingManager.compactDatabase(false);
+  }
+
   @Test
   public void testValidateBookingThrowsIfCourtBelowValidRange() throws Exception {
     doTestValidateBookingThrowsIfBookingInvalid(0, // Invalid
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.booking.lambdas.core;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+
+/**
+ * Tests the {@link CourtSlotGrid}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class CourtSlotGridTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testEmptyGridHasNoClashes() {
+
+    // ARRANGE
+    CourtSlotGrid grid = new CourtSlotGrid();
+
+    // ACT and ASSERT
+    assertTrue("Empty grid should not clash with a block booking of every court and slot",
+        !grid.clashesWith(new Booking(1, 5, 1, 16, "A.Shabana/J.Power")));
+  }
+
+  @Test
+  public void testBlockBookingClashesOnlyWithinItsBlock() {
+
+    // ARRANGE
+    CourtSlotGrid grid = CourtSlotGrid.of(Arrays.asList(new Booking(3, 3, 10, 2,
+        "A.Shabana/J.Power")));
+
+    // ACT and ASSERT
+    assertTrue("Booking of a court and slot inside the block should clash",
+        grid.clashesWith(new Booking(4, 1, 11, 1, "J.Willstrop/N.Matthew")));
+    assertTrue("Block booking overlapping the corner of the block should clash",
+        grid.clashesWith(new Booking(2, 2, 9, 2, "J.Willstrop/N.Matthew")));
+    assertTrue("Booking of a court outside the block should not clash",
+        !grid.clashesWith(new Booking(2, 1, 10, 2, "J.Willstrop/N.Matthew")));
+    assertTrue("Booking of the slot just after the block should not clash",
+        !grid.clashesWith(new Booking(3, 3, 12, 1, "J.Willstrop/N.Matthew")));
+    assertTrue("Booking of the slot just before the block should not clash",
+        !grid.clashesWith(new Booking(3, 3, 9, 1, "J.Willstrop/N.Matthew")));
+  }
+
+  @Test
+  public void testGridSupportsSpansOfAllSixtyFourSlots() {
+
+    // ARRANGE
+    CourtSlotGrid grid = new CourtSlotGrid(1, 64);
+    grid.add(1, 1, 1, 64);
+
+    // ACT and ASSERT
+    assertTrue("A span of every slot should book the first slot", grid.clashesWith(1, 1, 1, 1));
+    assertTrue("A span of every slot should book the last slot", grid.clashesWith(1, 1, 64, 1));
+  }
+
+  @Test
+  public void testEncodedGridDecodesToTheSameGrid() {
+
+    // ARRANGE
+    CourtSlotGrid grid = CourtSlotGrid.of(Arrays.asList(new Booking(3, 3, 10, 2,
+        "A.Shabana/J.Power"), new Booking(1, 1, 16, 1, "J.Willstrop/N.Matthew")));
+
+    // ACT
+    String encodedGrid = grid.encode();
+
+    // ASSERT
+    assertTrue("Unexpected encoding: " + encodedGrid, encodedGrid.equals("8000-0-600-600-600"));
+    assertTrue("Decoded grid should equal the encoded grid",
+        CourtSlotGrid.decode(encodedGrid).equals(grid));
+  }
+
+  @Test
+  public void testDecodeThrowsIfASlotIsOutsideTheGrid() {
+
+    // ARRANGE
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("The court/slot grid encoding is invalid");
+
+    // ACT
+    // Bit 16, i.e. slot 17 - but there are only 16 slots
+    CourtSlotGrid.decode("10000-0-0-0-0");
+  }
+
+  @Test
+  public void testAddThrowsIfBookingIsOutsideTheGrid() {
+
+    // ARRANGE
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("The booking lies outside the court/slot grid");
+
+    // ACT
+    // Slots 16-17 - but there are only 16 slots
+    new CourtSlotGrid().add(new Booking(1, 1, 16, 2, "A.Shabana/J.Power"));
+  }
+}
@@ -0,0 +1,529 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.booking.lambdas.core;
+
+import squash.deployment.lambdas.utils.RetryHelper;
+import squash.deployment.lambdas.utils.RetryPolicy;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * In-memory implementation of {@link IOptimisticPersister}.
+ *
+ * <p>This is a test helper, so is not shipped in the lambdas' jar. It mimics the SimpleDB
+ * behaviour the {@link OptimisticPersister} relies on, so that the managers can be
+ * contention-tested locally without a network:
+ * <ul>
+ * <li>each item has a version number, and puts are conditional on it being unchanged.</li>
+ * <li>deletes leave 'Inactive' tombstones, which are never returned until they are purged -
+ * either in bulk, or when an item has too many of them.</li>
+ * <li>puts fail once an item has the maximum number of active attributes.</li>
+ * <li>selects are paged, with each page costing a separate request.</li>
+ * </ul>
+ *
+ * <p>Every simulated SimpleDB request can optionally be delayed, and can optionally fail with
+ * an AmazonServiceException, to approximate a real network. Counts of requests and of
+ * conditional check failures are kept so tests can assert on the number of round trips.
+ *
+ * <p>All methods are thread-safe.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class InMemoryOptimisticPersister implements IOptimisticPersister {
+
+  private final ConcurrentMap<String, Item> items = new ConcurrentHashMap<>();
+  private final AtomicInteger requestCount = new AtomicInteger();
+  private final AtomicInteger conditionalCheckFailureCount = new AtomicInteger();
+  private volatile long latencyMillis = 0;
+  private volatile long latencyJitterMillis = 0;
+  private volatile double failureProbability = 0.0;
+  private volatile String failureErrorCode = "ServiceUnavailable";
+  // Number of the one request to fail, or 0 for none
+  private final AtomicInteger requestToFail = new AtomicInteger();
+  private volatile int selectPageSize = 100;
+  private final int maxInactiveAttributesPerItem = 100;
+  private Integer maxNumberOfAttributes;
+  private LambdaLogger logger;
+  private Boolean initialised = false;
+
+  // An item's version number (absent until the first put) and its attributes
+  private static class Item {
+    Optional<Integer> version = Optional.empty();
+    Set<Attribute> attributes = new LinkedHashSet<>();
+  }
+
+  @Override
+  public final void initialise(int maxNumberOfAttributes, LambdaLogger logger) throws Exception {
+
+    if (initialised) {
+      throw new IllegalStateException("The optimistic persister has already been initialised");
+    }
+
+    this.logger = logger;
+    this.maxNumberOfAttributes = maxNumberOfAttributes;
+    initialised = true;
+  }
+
+  /**
+   * Delays every simulated SimpleDB request.
+   *
+   * @param latencyMillis the minimum delay for each request.
+   * @param latencyJitterMillis the maximum random delay added to the minimum.
+   */
+  public void setLatency(long latencyMillis, long latencyJitterMillis) {
+    this.latencyMillis = latencyMillis;
+    this.latencyJitterMillis = latencyJitterMillis;
+  }
+
+  /**
+   * Makes simulated SimpleDB requests fail at random.
+   *
+   * @param failureProbability the probability, in [0, 1], that each request fails.
+   * @param failureErrorCode the error code of the AmazonServiceException thrown on failure.
+   */
+  public void setFailureRate(double failureProbability, String failureErrorCode) {
+    this.failureProbability = failureProbability;
+    this.failureErrorCode = failureErrorCode;
+  }
+
+  /**
+   * Makes a single simulated SimpleDB request fail.
+   *
+   * @param requestsToSucceedFirst the number of requests to let succeed before the one that fails.
+   * @param failureErrorCode the error code of the AmazonServiceException thrown on failure.
+   */
+  public void failRequestAfter(int requestsToSucceedFirst, String failureErrorCode) {
+    this.failureErrorCode = failureErrorCode;
+    requestToFail.set(requestCount.get() + requestsToSucceedFirst + 1);
+  }
+
+  /**
+   * Sets the maximum number of items returned by each page of a select.
+   */
+  public void setSelectPageSize(int selectPageSize) {
+    this.selectPageSize = selectPageSize;
+  }
+
+  /**
+   * Returns the number of simulated SimpleDB requests made so far.
+   */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Returns the number of conditional puts rejected so far because of a version mismatch.
+   */
+  public int getConditionalCheckFailureCount() {
+    return conditionalCheckFailureCount.get();
+  }
+
+  @Override
+  public ImmutablePair<Optional<Integer>, Set<Attribute>> get(String itemName) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    simulateRequest();
+    Item item = items.get(itemName);
+    if (item == null) {
+      return new ImmutablePair<>(Optional.empty(), new HashSet<>());
+    }
+    synchronized (item) {
+      if (item.attributes.stream()
+          .filter(attribute -> attribute.getValue().startsWith("Inactive")).count()
+          >= maxInactiveAttributesPerItem) {
+        simulateRequest();
+        item.attributes.removeIf(attribute -> attribute.getValue().startsWith("Inactive"));
+      }
+      return new ImmutablePair<>(item.version, activeAttributes(item).collect(Collectors.toSet()));
+    }
+  }
+
+  @Override
+  public ImmutablePair<Optional<Integer>, Set<Attribute>> get(String itemName,
+      Collection<String> attributeNames) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    simulateRequest();
+    Item item = items.get(itemName);
+    if (item == null) {
+      return new ImmutablePair<>(Optional.empty(), new HashSet<>());
+    }
+    synchronized (item) {
+      return new ImmutablePair<>(item.version, activeAttributes(item).filter(
+          attribute -> attributeNames.contains(attribute.getName())).collect(Collectors.toSet()));
+    }
+  }
+
+  @Override
+  public List<ImmutablePair<String, List<Attribute>>> getAllItems() {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    return streamAllItems().collect(Collectors.toList());
+  }
+
+  @Override
+  public Stream<ImmutablePair<String, List<Attribute>>> streamAllItems() {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    return streamSelect(new ArrayList<>(items.keySet()));
+  }
+
+  @Override
+  public Stream<ImmutablePair<String, List<Attribute>>> streamItems(String fromItemName,
+      String toItemName) {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Like SimpleDB's between, the range includes both ends
+    return streamSelect(items.keySet().stream()
+        .filter(itemName -> itemName.compareTo(fromItemName) >= 0
+            && itemName.compareTo(toItemName) <= 0).sorted().collect(Collectors.toList()));
+  }
+
+  private Stream<ImmutablePair<String, List<Attribute>>> streamSelect(List<String> itemNames) {
+
+    // Each page of the select is a separate request, made only when the stream
+    // reaches it
+    int numberOfPages = Math.max(1, (itemNames.size() + selectPageSize - 1) / selectPageSize);
+    return IntStream
+        .range(0, numberOfPages)
+        .mapToObj(
+            page -> {
+              simulateRequest();
+              List<ImmutablePair<String, List<Attribute>>> pageItems = new ArrayList<>();
+              for (String itemName : itemNames.subList(page * selectPageSize,
+                  Math.min((page + 1) * selectPageSize, itemNames.size()))) {
+                Item item = items.get(itemName);
+                synchronized (item) {
+                  if (!item.version.isPresent()) {
+                    // Like SimpleDB, an item with no attributes does not exist
+                    continue;
+                  }
+                  pageItems.add(new ImmutablePair<>(itemName, activeAttributes(item).collect(
+                      Collectors.toList())));
+                }
+              }
+              return pageItems;
+            }).flatMap(List::stream);
+  }
+
+  @Override
+  public int put(String itemName, Optional<Integer> version, ReplaceableAttribute attribute)
+      throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Like SimpleDB, count the active attributes with a separate consistent read
+    return put(itemName, version, attribute, get(itemName).right.size());
+  }
+
+  @Override
+  public int put(String itemName, Optional<Integer> version, ReplaceableAttribute attribute,
+      int numberOfAttributes) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    return putAttributes(itemName, version, Collections.singletonList(attribute),
+        numberOfAttributes);
+  }
+
+  @Override
+  public int putAttributes(String itemName, Optional<Integer> version,
+      List<ReplaceableAttribute> attributes, int numberOfAttributes) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Like SimpleDB, inactivating or replacing puts are allowed even on the limit
+    long numberOfAttributesAdded = attributes.stream()
+        .filter(attribute -> !attribute.getValue().startsWith("Inactive"))
+        .filter(attribute -> !Boolean.TRUE.equals(attribute.isReplace())).count();
+    if ((numberOfAttributesAdded > 0)
+        && (numberOfAttributes + numberOfAttributesAdded > maxNumberOfAttributes)) {
+      logger.log("Cannot create attribute - the maximum number of attributes already exists ("
+          + maxNumberOfAttributes
+          + ") so throwing a 'Database put failed - too many attributes' exception");
+      throw new Exception("Database put failed - too many attributes");
+    }
+
+    simulateRequest();
+    Item item = items.computeIfAbsent(itemName, name -> new Item());
+    synchronized (item) {
+      if (!item.version.equals(version)) {
+        conditionalCheckFailureCount.incrementAndGet();
+        logger.log("Version number mismatch whilst creating attribute(s) so throwing as"
+            + " 'Database put failed' instead");
+        throw new Exception("Database put failed - conditional check failed");
+      }
+      for (ReplaceableAttribute attribute : attributes) {
+        if (attribute.isReplace() != null && attribute.isReplace()) {
+          item.attributes.removeIf(existing -> existing.getName().equals(attribute.getName()));
+        }
+        item.attributes.add(new Attribute(attribute.getName(), attribute.getValue()));
+      }
+      item.version = Optional.of(version.isPresent() ? version.get() + 1 : 0);
+      return item.version.get();
+    }
+  }
+
+  @Override
+  public void putAll(Map<String, List<ReplaceableAttribute>> attributesByItem) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Like SimpleDB, read versions with a select per 20 items, then write in
+    // unconditional batches of 25 - retrying each throttled batch on its own.
+    Map<String, Optional<Integer>> newVersions = new HashMap<>();
+    int itemsRead = 0;
+    for (Map.Entry<String, List<ReplaceableAttribute>> entry : attributesByItem.entrySet()) {
+      if (itemsRead++ % 20 == 0) {
+        simulateRequest();
+      }
+      Item item = items.get(entry.getKey());
+      int numberOfAttributes = 0;
+      Optional<Integer> version = Optional.empty();
+      if (item != null) {
+        synchronized (item) {
+          numberOfAttributes = (int) activeAttributes(item).count();
+          version = item.version;
+        }
+      }
+      long numberOfAttributesAdded = entry.getValue().stream()
+          .filter(attribute -> !attribute.getValue().startsWith("Inactive"))
+          .filter(attribute -> !Boolean.TRUE.equals(attribute.isReplace())).count();
+      if (numberOfAttributes + numberOfAttributesAdded > maxNumberOfAttributes) {
+        throw new Exception("Database put failed - too many attributes");
+      }
+      newVersions.put(entry.getKey(), Optional.of(version.isPresent() ? version.get() + 1 : 0));
+    }
+    List<Map.Entry<String, List<ReplaceableAttribute>>> entries = new ArrayList<>(
+        attributesByItem.entrySet());
+    for (int batchStart = 0; batchStart < entries.size(); batchStart += 25) {
+      List<Map.Entry<String, List<ReplaceableAttribute>>> batch = entries.subList(batchStart,
+          Math.min(batchStart + 25, entries.size()));
+      RetryHelper.DoWithRetries(() -> {
+        simulateRequest();
+        for (Map.Entry<String, List<ReplaceableAttribute>> entry : batch) {
+          Item item = items.computeIfAbsent(entry.getKey(), name -> new Item());
+          synchronized (item) {
+            for (ReplaceableAttribute attribute : entry.getValue()) {
+              if (attribute.isReplace() != null && attribute.isReplace()) {
+                item.attributes
+                    .removeIf(existing -> existing.getName().equals(attribute.getName()));
+              }
+              item.attributes.add(new Attribute(attribute.getName(), attribute.getValue()));
+            }
+            item.version = newVersions.get(entry.getKey());
+          }
+        }
+        return null;
+      }, RetryPolicy.THROTTLING, "BatchPutAttributes", logger);
+    }
+  }
+
+  @Override
+  public void delete(String itemName, Attribute attribute) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    RetryHelper.DoWithRetries(() -> {
+      ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = get(itemName);
+      if (!versionedAttributes.left.isPresent()
+          || !versionedAttributes.right.contains(attribute)) {
+        return null;
+      }
+
+      delete(itemName, versionedAttributes.left, attribute);
+      return null;
+    }, RetryPolicy.CONFLICTS, "DeleteAttribute", logger);
+  }
+
+  @Override
+  public int delete(String itemName, Optional<Integer> version, Attribute attribute)
+      throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    return delete(itemName, version, attribute, Collections.emptyList());
+  }
+
+  @Override
+  public int delete(String itemName, Optional<Integer> version, Attribute attribute,
+      List<ReplaceableAttribute> attributesToPut) throws Exception {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Replace the attribute with a tombstone - purgeInactiveAttributes removes it later
+    List<ReplaceableAttribute> attributes = new ArrayList<>();
+    attributes.add(new ReplaceableAttribute(attribute.getName(), "Inactive"
+        + attribute.getValue(), true));
+    attributes.addAll(attributesToPut);
+    return putAttributes(itemName, version, attributes, 0);
+  }
+
+  @Override
+  public int purgeInactiveAttributes() {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Like SimpleDB, a paged select followed by batched deletes of 25 items
+    List<String> itemNames = new ArrayList<>(items.keySet());
+    int selectPages = Math.max(1, (itemNames.size() + selectPageSize - 1) / selectPageSize);
+    for (int page = 0; page < selectPages; page++) {
+      simulateRequest();
+    }
+    int numberPurged = 0;
+    int itemsPurged = 0;
+    for (String itemName : itemNames) {
+      Item item = items.get(itemName);
+      synchronized (item) {
+        int sizeBefore = item.attributes.size();
+        item.attributes.removeIf(attribute -> attribute.getValue().startsWith("Inactive"));
+        if (item.attributes.size() < sizeBefore) {
+          numberPurged += sizeBefore - item.attributes.size();
+          if (itemsPurged++ % 25 == 0) {
+            simulateRequest();
+          }
+        }
+      }
+    }
+    return numberPurged;
+  }
+
+  @Override
+  public void deleteAllAttributes(String itemName) {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    simulateRequest();
+    Item item = items.get(itemName);
+    if (item != null) {
+      synchronized (item) {
+        // Clear rather than remove the item, so concurrent puts holding it are not lost
+        item.version = Optional.empty();
+        item.attributes.clear();
+      }
+    }
+  }
+
+  @Override
+  public void deleteItems(List<String> itemNames) {
+
+    if (!initialised) {
+      throw new IllegalStateException("The optimistic persister has not been initialised");
+    }
+
+    // Like SimpleDB, each batch of up to 25 items is a separate request
+    for (int batchStart = 0; batchStart < itemNames.size(); batchStart += 25) {
+      simulateRequest();
+      for (String itemName : itemNames.subList(batchStart,
+          Math.min(batchStart + 25, itemNames.size()))) {
+        Item item = items.get(itemName);
+        if (item != null) {
+          synchronized (item) {
+            item.version = Optional.empty();
+            item.attributes.clear();
+          }
+        }
+      }
+    }
+  }
+
+  private Stream<Attribute> activeAttributes(Item item) {
+    // Return copies so callers cannot mutate our state
+    return item.attributes.stream()
+        .filter(attribute -> !attribute.getValue().startsWith("Inactive"))
+        .map(attribute -> new Attribute(attribute.getName(), attribute.getValue()));
+  }
+
+  private void simulateRequest() {
+    int requestNumber = requestCount.incrementAndGet();
+
+    if ((latencyMillis > 0) || (latencyJitterMillis > 0)) {
+      try {
+        Thread.sleep(latencyMillis
+            + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(
+                latencyJitterMillis + 1) : 0));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (requestToFail.compareAndSet(requestNumber, 0)
+        || ((failureProbability > 0.0)
+        && (ThreadLocalRandom.current().nextDouble() < failureProbability))) {
+      AmazonServiceException ase = new AmazonServiceException("Simulated SimpleDB failure");
+      ase.setErrorCode(failureErrorCode);
+      ase.setStatusCode(503);
+      throw ase;
+    }
+  }
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.booking.lambdas.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Tests the {@link InMemoryOptimisticPersister}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class InMemoryOptimisticPersisterTest {
+  InMemoryOptimisticPersister optimisticPersister;
+  String testItemName = "itemName";
+  int maxNumberOfAttributes = 3;
+
+  // Mocks - synchronised, as some tests log from several threads at once
+  Mockery mockery = new Mockery() {
+    {
+      setThreadingPolicy(new Synchroniser());
+    }
+  };
+  LambdaLogger mockLogger;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void beforeTest() throws Exception {
+
+    mockLogger = mockery.mock(LambdaLogger.class);
+    mockery.checking(new Expectations() {
+      {
+        ignoring(mockLogger);
+      }
+    });
+
+    optimisticPersister = new InMemoryOptimisticPersister();
+    optimisticPersister.initialise(maxNumberOfAttributes, mockLogger);
+  }
+
+  @After
+  public void afterTest() {
+    mockery.assertIsSatisfied();
+  }
+
+  @Test
+  public void testGetReturnsNoVersionForNonexistentItem() throws Exception {
+
+    // ACT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+        .get(testItemName);
+
+    // ASSERT
+    assertTrue("Version should be absent", !versionedAttributes.left.isPresent());
+    assertTrue("Attributes should be empty", versionedAttributes.right.isEmpty());
+  }
+
+  @Test
+  public void testPutCreatesAttributesAndBumpsVersion() throws Exception {
+
+    // ACT
+    int firstVersion = optimisticPersister.put(testItemName, Optional.empty(),
+        new ReplaceableAttribute("Name1", "Value1", false));
+    int secondVersion = optimisticPersister.put(testItemName, Optional.of(firstVersion),
+        new ReplaceableAttribute("Name2", "Value2", false));
+
+    // ASSERT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+        .get(testItemName);
+    assertEquals("First put should create version 0", 0, firstVersion);
+    assertEquals("Second put should bump the version", 1, secondVersion);
+    assertEquals("Get should return the latest version", Optional.of(1), versionedAttributes.left);
+    assertEquals("Get should return both attributes", 2, versionedAttributes.right.size());
+    assertTrue("Get should return the first attribute",
+        versionedAttributes.right.contains(new Attribute("Name1", "Value1")));
+    assertTrue("Get should return the second attribute",
+        versionedAttributes.right.contains(new Attribute("Name2", "Value2")));
+  }
+
+  @Test
+  public void testGetOfNamedAttributesReturnsOnlyThem() throws Exception {
+
+    // ARRANGE
+    int version = optimisticPersister.put(testItemName, Optional.empty(),
+        new ReplaceableAttribute("Name1", "Value1", false));
+    version = optimisticPersister.put(testItemName, Optional.of(version),
+        new ReplaceableAttribute("Name2", "Value2", false));
+
+    // ACT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+        .get(testItemName, Arrays.asList("Name2"));
+
+    // ASSERT
+    assertEquals("Get should return the latest version", Optional.of(version),
+        versionedAttributes.left);
+    assertEquals("Get should return only the named attribute",
+        Collections.singleton(new Attribute("Name2", "Value2")), versionedAttributes.right);
+  }
+
+  @Test
+  public void testPutWithReplaceOverwritesExistingValues() throws Exception {
+
+    // ARRANGE
+    int version = optimisticPersister.put(testItemName, Optional.empty(), new ReplaceableAttribute(
+        "Name", "OldValue", false));
+
+    // ACT
+    optimisticPersister.put(testItemName, Optional.of(version), new ReplaceableAttribute("Name",
+        "NewValue", true));
+
+    // ASSERT
+    Set<Attribute> attributes = optimisticPersister.get(testItemName).right;
+    assertEquals("Replace should leave a single value", 1, attributes.size());
+    assertTrue("Replace should leave the new value",
+        attributes.contains(new Attribute("Name", "NewValue")));
+  }
+
+  @Test
+  public void testPutThrowsWhenVersionHasChanged() throws Exception {
+
+    // ARRANGE
+    optimisticPersister.put(testItemName, Optional.empty(), new ReplaceableAttribute("Name1",
+        "Value1", false));
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Database put failed - conditional check failed");
+
+    // ACT
+    // Try to put again with the stale (absent) version
+    optimisticPersister.put(testItemName, Optional.empty(), new ReplaceableAttribute("Name2",
+        "Value2", false));
+  }
+
+  @Test
+  public void testPutThrowsWhenItemHasMaximumNumberOfAttributes() throws Exception {
+
+    // ARRANGE
+    Optional<Integer> version = Optional.empty();
+    for (int attribute = 0; attribute < maxNumberOfAttributes; attribute++) {
+      version = Optional.of(optimisticPersister.put(testItemName, version,
+          new ReplaceableAttribute("Name" + attribute, "Value", false)));
+    }
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Database put failed - too many attributes");
+
+    // ACT
+    optimisticPersister.put(testItemName, version, new ReplaceableAttribute("OneTooMany", "Value",
+        false));
+  }
+
+  @Test
+  public void testPutAllWritesToEveryItemAndBumpsVersions() throws Exception {
+
+    // ARRANGE
+    int version = optimisticPersister.put(testItemName + "0", Optional.empty(),
+        new ReplaceableAttribute("Name", "Value", false));
+    Map<String, List<ReplaceableAttribute>> attributesByItem = new HashMap<>();
+    attributesByItem.put(testItemName + "0", Arrays.asList(new ReplaceableAttribute("Name2",
+        "Value2", false)));
+    attributesByItem.put(testItemName + "1", Arrays.asList(new ReplaceableAttribute("Name",
+        "Value", false)));
+
+    // ACT
+    optimisticPersister.putAll(attributesByItem);
+
+    // ASSERT
+    assertEquals("PutAll should bump the existing item's version", Optional.of(version + 1),
+        optimisticPersister.get(testItemName + "0").left);
+    assertEquals("PutAll should add to the existing item", 2,
+        optimisticPersister.get(testItemName + "0").right.size());
+    assertEquals("PutAll should create the new item", Optional.of(0),
+        optimisticPersister.get(testItemName + "1").left);
+  }
+
+  @Test
+  public void testPutAllRetriesOnlyTheBatchThatFailed() throws Exception {
+    // 30 items need 2 selects and 2 batches - if the second batch is throttled,
+    // only it should be retried, and every item should still be written once.
+
+    // ARRANGE
+    Map<String, List<ReplaceableAttribute>> attributesByItem = new HashMap<>();
+    for (int itemNumber = 0; itemNumber < 30; itemNumber++) {
+      attributesByItem.put(testItemName + itemNumber, Arrays.asList(new ReplaceableAttribute(
+          "Name", "Value" + itemNumber, false)));
+    }
+    // Let both selects and the first batch succeed
+    optimisticPersister.failRequestAfter(3, "Throttling");
+
+    // ACT
+    optimisticPersister.putAll(attributesByItem);
+
+    // ASSERT
+    assertEquals("Only the failed batch should have been retried", 5,
+        optimisticPersister.getRequestCount());
+    for (int itemNumber = 0; itemNumber < 30; itemNumber++) {
+      ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+          .get(testItemName + itemNumber);
+      assertEquals("PutAll should create each item once", Optional.of(0), versionedAttributes.left);
+      assertEquals("PutAll should write each item's attribute",
+          Collections.singleton(new Attribute("Name", "Value" + itemNumber)),
+          versionedAttributes.right);
+    }
+  }
+
+  @Test
+  public void testPutAllAllowsReplacingAttributesOnAFullItem() throws Exception {
+
+    // ARRANGE
+    Optional<Integer> version = Optional.empty();
+    for (int attribute = 0; attribute < maxNumberOfAttributes; attribute++) {
+      version = Optional.of(optimisticPersister.put(testItemName, version,
+          new ReplaceableAttribute("Name" + attribute, "Value", false)));
+    }
+    Map<String, List<ReplaceableAttribute>> attributesByItem = new HashMap<>();
+    attributesByItem.put(testItemName, Arrays.asList(new ReplaceableAttribute("Name0",
+        "NewValue", true)));
+
+    // ACT
+    // This should not throw - replacing an attribute does not add one
+    optimisticPersister.putAll(attributesByItem);
+
+    // ASSERT
+    assertTrue("PutAll should replace the attribute", optimisticPersister.get(testItemName).right
+        .contains(new Attribute("Name0", "NewValue")));
+  }
+
+  @Test
+  public void testDeleteRemovesAttribute() throws Exception {
+
+    // ARRANGE
+    int version = optimisticPersister.put(testItemName, Optional.empty(), new ReplaceableAttribute(
+        "Name1", "Value1", false));
+    optimisticPersister.put(testItemName, Optional.of(version), new ReplaceableAttribute("Name2",
+        "Value2", false));
+
+    // ACT
+    optimisticPersister.delete(testItemName, new Attribute("Name1", "Value1"));
+
+    // ASSERT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+        .get(testItemName);
+    assertEquals("Delete should bump the version", Optional.of(2), versionedAttributes.left);
+    assertEquals("Delete should leave one attribute", 1, versionedAttributes.right.size());
+    assertTrue("Delete should leave the other attribute",
+        versionedAttributes.right.contains(new Attribute("Name2", "Value2")));
+  }
+
+  @Test
+  public void testDeleteWithAttributesToPutWritesThemTogether() throws Exception {
+
+    // ARRANGE
+    int version = optimisticPersister.putAttributes(testItemName, Optional.empty(), Arrays.asList(
+        new ReplaceableAttribute("Name1", "Value1", false), new ReplaceableAttribute("Summary",
+            "1", true)), 0);
+
+    // ACT
+    int newVersion = optimisticPersister.delete(testItemName, Optional.of(version),
+        new Attribute("Name1", "Value1"), Arrays.asList(new ReplaceableAttribute("Summary", "0",
+            true)));
+
+    // ASSERT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+        .get(testItemName);
+    assertEquals("Delete should bump the version once", Optional.of(version + 1),
+        versionedAttributes.left);
+    assertEquals("Delete should return the new version", version + 1, newVersion);
+    assertEquals("Delete should leave only the replaced attribute",
+        Collections.singleton(new Attribute("Summary", "0")), versionedAttributes.right);
+  }
+
+  @Test
+  public void testPurgeInactiveAttributesRemovesTombstones() throws Exception {
+
+    // ARRANGE
+    int version = optimisticPersister.put(testItemName, Optional.empty(), new ReplaceableAttribute(
+        "Name1", "Value1", false));
+    version = optimisticPersister.put(testItemName, Optional.of(version),
+        new ReplaceableAttribute("Name2", "Value2", false));
+    optimisticPersister.delete(testItemName, Optional.of(version), new Attribute("Name1",
+        "Value1"));
+
+    // ACT
+    int numberPurged = optimisticPersister.purgeInactiveAttributes();
+
+    // ASSERT
+    assertEquals("Purge should remove the one tombstone", 1, numberPurged);
+    assertEquals("A second purge should find nothing to remove", 0,
+        optimisticPersister.purgeInactiveAttributes());
+    assertEquals("Purge should leave the active attribute", 1,
+        optimisticPersister.get(testItemName).right.size());
+  }
+
+  @Test
+  public void testGetPurgesTombstonesWhenAnItemHasTooMany() throws Exception {
+
+    // ARRANGE
+    // Leave many tombstones on the item, without ever exceeding the attribute limit
+    Optional<Integer> version = Optional.empty();
+    for (int attribute = 0; attribute < 100; attribute++) {
+      version = Optional.of(optimisticPersister.put(testItemName, version,
+          new ReplaceableAttribute("Name" + attribute, "Value", false)));
+      version = Optional.of(optimisticPersister.delete(testItemName, version, new Attribute(
+          "Name" + attribute, "Value")));
+    }
+
+    // ACT
+    optimisticPersister.get(testItemName);
+
+    // ASSERT
+    assertEquals("Get should have purged the tombstones already", 0,
+        optimisticPersister.purgeInactiveAttributes());
+  }
+
+  @Test
+  public void testDeleteItemsDeletesWholeItems() throws Exception {
+
+    // ARRANGE
+    for (int item = 0; item < 3; item++) {
+      optimisticPersister.put(testItemName + item, Optional.empty(), new ReplaceableAttribute(
+          "Name", "Value", false));
+    }
+
+    // ACT
+    optimisticPersister.deleteItems(Arrays.asList(testItemName + "0", testItemName + "1"));
+
+    // ASSERT
+    assertEquals("Only the undeleted item should remain", 1,
+        optimisticPersister.getAllItems().size());
+    assertTrue("Deleted item should have no version",
+        !optimisticPersister.get(testItemName + "0").left.isPresent());
+  }
+
+  @Test
+  public void testGetAllItemsPagesTheSelect() throws Exception {
+
+    // ARRANGE
+    optimisticPersister.setSelectPageSize(2);
+    for (int item = 0; item < 5; item++) {
+      optimisticPersister.put(testItemName + item, Optional.empty(), new ReplaceableAttribute(
+          "Name", "Value", false));
+    }
+    optimisticPersister.deleteAllAttributes(testItemName + "0");
+    int requestCountBefore = optimisticPersister.getRequestCount();
+
+    // ACT
+    List<ImmutablePair<String, List<Attribute>>> items = optimisticPersister.getAllItems();
+
+    // ASSERT
+    assertEquals("Deleted item should not be returned", 4, items.size());
+    assertEquals("Each page should cost a separate request", 3,
+        optimisticPersister.getRequestCount() - requestCountBefore);
+  }
+
+  @Test
+  public void testStreamAllItemsFetchesPagesOnlyWhenConsumed() throws Exception {
+
+    // ARRANGE
+    optimisticPersister.setSelectPageSize(2);
+    for (int item = 0; item < 5; item++) {
+      optimisticPersister.put(testItemName + item, Optional.empty(), new ReplaceableAttribute(
+          "Name", "Value", false));
+    }
+    int requestCountBefore = optimisticPersister.getRequestCount();
+
+    // ACT
+    Iterator<ImmutablePair<String, List<Attribute>>> items = optimisticPersister
+        .streamAllItems().iterator();
+    items.next();
+
+    // ASSERT
+    assertEquals("Only the first page should have been fetched", 1,
+        optimisticPersister.getRequestCount() - requestCountBefore);
+  }
+
+  @Test
+  public void testStreamItemsReturnsOnlyItemsInTheRange() throws Exception {
+
+    // ARRANGE
+    for (int item = 0; item < 5; item++) {
+      optimisticPersister.put(testItemName + item, Optional.empty(), new ReplaceableAttribute(
+          "Name", "Value", false));
+    }
+
+    // ACT
+    List<String> itemNames = optimisticPersister.streamItems(testItemName + "1", testItemName + "3")
+        .map(pair -> pair.left).collect(Collectors.toList());
+
+    // ASSERT
+    assertEquals("Range should include both ends", Arrays.asList(testItemName + "1", testItemName
+        + "2", testItemName + "3"), itemNames);
+  }
+
+  @Test
+  public void testRequestsFailWhenFailuresInjected() throws Exception {
+
+    // ARRANGE
+    optimisticPersister.setFailureRate(1.0, "ServiceUnavailable");
+    thrown.expect(AmazonServiceException.class);
+    thrown.expectMessage("ServiceUnavailable");
+
+    // ACT
+    optimisticPersister.get(testItemName);
+  }
+
+  @Test
+  public void testConcurrentPutsAreNeverLost() throws Exception {
+    // Each thread does read-modify-write with retries, so every put should land
+    // exactly once, however the threads interleave.
+
+    // ARRANGE
+    int numberOfThreads = 3;
+    optimisticPersister.setLatency(1, 5);
+    ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+    List<Future<?>> futures = new ArrayList<>();
+
+    // ACT
+    for (int thread = 0; thread < numberOfThreads; thread++) {
+      String attributeName = "Name" + thread;
+      futures.add(executor.submit(() -> {
+        while (true) {
+          Optional<Integer> version = optimisticPersister.get(testItemName).left;
+          try {
+            return optimisticPersister.put(testItemName, version, new ReplaceableAttribute(
+                attributeName, "Value", false));
+          } catch (Exception e) {
+            if (!e.getMessage().equals("Database put failed - conditional check failed")) {
+              throw e;
+            }
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    // ASSERT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+        .get(testItemName);
+    assertEquals("Every put should have landed", numberOfThreads, versionedAttributes.right.size());
+    assertEquals("Every put should have bumped the version", Optional.of(numberOfThreads - 1),
+        versionedAttributes.left);
+  }
+}
@@ -112,6 +112,9 @@ public class LifecycleManagerTest {
 
   // Define a test lifecycle manager with some overrides to facilitate testing
   public class TestLifecycleManager extends LifecycleManager {
+    // Use a cache per test - rather than the one shared by all lifecycle managers
+    private LifecycleStateCache lifecycleStateCache = new LifecycleStateCache();
+    private long currentTimeMillis = 1000000;
 
     public void setOptimisticPersister(IOptimisticPersister optimisticPersister) {
       this.optimisticPersister = optimisticPersister;
@@ -121,6 +124,25 @@ public class LifecycleManagerTest {
     public IOptimisticPersister getOptimisticPersister() {
       return optimisticPersister;
     }
+
+    public void advanceCurrentTimeMillis(long millis) {
+      currentTimeMillis += millis;
+    }
+
+    @Override
+    protected LifecycleStateCache getLifecycleStateCache() {
+      return lifecycleStateCache;
+    }
+
+    @Override
+    protected long getLifecycleStateCacheTtlMillis() {
+      return 30000;
+    }
+
+    @Override
+    protected long getCurrentTimeMillis() {
+      return currentTimeMillis;
+    }
   }
 
   @Test
@@ -161,10 +183,10 @@ public class LifecycleManagerTest {
         exactly(1).of(mockOptimisticPersister).get(with(equal("LifecycleState")));
         will(returnValue(testItem));
         exactly(1).of(mockOptimisticPersister).put(with(equal("LifecycleState")),
-            with(equal(Optional.of(42))), with(equal(newStateAttribute)));
+            with(equal(Optional.of(42))), with(equal(newStateAttribute)), with.intIs(anything()));
         will(returnValue(43));
         exactly(1).of(mockOptimisticPersister).put(with(equal("LifecycleState")),
-            with(equal(Optional.of(43))), with(equal(newUrlAttribute)));
+            with(equal(Optional.of(43))), with(equal(newUrlAttribute)), with.intIs(anything()));
       }
     });
 
@@ -188,7 +210,8 @@ public class LifecycleManagerTest {
       {
         // Shouldn't get as far as calling the persister.
         never(mockOptimisticPersister).get(with(anything()));
-        never(mockOptimisticPersister).put(with(anything()), with(anything()), with(anything()));
+        never(mockOptimisticPersister).put(with(anything()), with(anything()), with(anything()),
+            with.intIs(anything()));
       }
     });
 
@@ -212,7 +235,8 @@ public class LifecycleManagerTest {
       {
         // Shouldn't get as far as calling the persister.
         never(mockOptimisticPersister).get(with(anything()));
-        never(mockOptimisticPersister).put(with(anything()), with(anything()), with(anything()));
+        never(mockOptimisticPersister).put(with(anything()), with(anything()), with(anything()),
+            with.intIs(anything()));
       }
     });
 
@@ -251,11 +275,11 @@ public class LifecycleManagerTest {
         exactly(1).of(mockOptimisticPersister).get(with(equal("LifecycleState")));
         will(returnValue(testItem));
         exactly(1).of(mockOptimisticPersister).put(with(equal("LifecycleState")),
-            with(equal(Optional.of(42))), with(equal(newStateAttribute)));
+            with(equal(Optional.of(42))), with(equal(newStateAttribute)), with.intIs(anything()));
         // Don't want to put the Url attribute in this case - since we're not
         // retiring.
         never(mockOptimisticPersister).put(with(equal("LifecycleState")),
-            with(equal(Optional.of(43))), with(anything()));
+            with(equal(Optional.of(43))), with(anything()), with.intIs(anything()));
       }
     });
 
@@ -357,6 +381,108 @@ public class LifecycleManagerTest {
         lifecycleState.left.equals(LifecycleState.RETIRED));
   }
 
+  @Test
+  public void testGetLifecycleStateReadsTheDatabaseOnlyOnceWithinTheTimeToLive() throws Exception {
+    // The lifecycle state rarely changes - so it should be cached.
+
+    // ARRANGE
+    lifecycleManager.initialise(mockLogger);
+
+    mockery.checking(new Expectations() {
+      {
+        exactly(1).of(mockOptimisticPersister).get(with(equal("LifecycleState")));
+        will(returnValue(exampleReadonlyLifecycleItem));
+      }
+    });
+
+    // ACT
+    lifecycleManager.getLifecycleState();
+    lifecycleManager.advanceCurrentTimeMillis(29999);
+    ImmutablePair<LifecycleState, Optional<String>> lifecycleState = lifecycleManager
+        .getLifecycleState();
+
+    // ASSERT
+    assertTrue("Cached lifecycle state should be readonly",
+        lifecycleState.left.equals(LifecycleState.READONLY));
+  }
+
+  @Test
+  public void testGetLifecycleStateReadsTheDatabaseAgainOnceTheTimeToLiveExpires()
+      throws Exception {
+    // A change made from another lambda container should take effect once the
+    // cached state expires.
+
+    // ARRANGE
+    lifecycleManager.initialise(mockLogger);
+
+    mockery.checking(new Expectations() {
+      {
+        exactly(2).of(mockOptimisticPersister).get(with(equal("LifecycleState")));
+        will(onConsecutiveCalls(returnValue(exampleActiveLifecycleItem),
+            returnValue(exampleRetiredLifecycleItem)));
+      }
+    });
+
+    // ACT
+    lifecycleManager.getLifecycleState();
+    lifecycleManager.advanceCurrentTimeMillis(30000);
+    ImmutablePair<LifecycleState, Optional<String>> lifecycleState = lifecycleManager
+        .getLifecycleState();
+
+    // ASSERT
+    assertTrue("Lifecycle state should be re-read once the cached state expires",
+        lifecycleState.left.equals(LifecycleState.RETIRED));
+  }
+
+  @Test
+  public void testSetLifecycleStateUpdatesTheCachedLifecycleState() throws Exception {
+    // A change made from this lambda container should take effect at once.
+
+    // ARRANGE
+    lifecycleManager.initialise(mockLogger);
+
+    mockery.checking(new Expectations() {
+      {
+        // Read once to populate the cache, and once by setLifecycleState
+        exactly(2).of(mockOptimisticPersister).get(with(equal("LifecycleState")));
+        will(returnValue(exampleActiveLifecycleItem));
+        allowing(mockOptimisticPersister).put(with(equal("LifecycleState")), with(anything()),
+            with(any(ReplaceableAttribute.class)), with.intIs(anything()));
+        will(returnValue(44));
+      }
+    });
+    lifecycleManager.getLifecycleState();
+
+    // ACT
+    lifecycleManager.setLifecycleState(LifecycleState.RETIRED, Optional.of(exampleForwardingUrl));
+    ImmutablePair<LifecycleState, Optional<String>> lifecycleState = lifecycleManager
+        .getLifecycleState();
+
+    // ASSERT
+    assertTrue("Cached lifecycle state should be the state just set",
+        lifecycleState.left.equals(LifecycleState.RETIRED));
+    assertTrue("Cached lifecycle state should have the url just set",
+        lifecycleState.right.equals(Optional.of(exampleForwardingUrl)));
+  }
+
+  @Test
+  public void testLifecycleStateCacheDoesNotReplaceANewerVersionWithAnOlderOne() {
+    // A read that started before a lifecycle state change must not undo it.
+
+    // ARRANGE
+    LifecycleManager.LifecycleStateCache cache = new LifecycleManager.LifecycleStateCache();
+    cache.put(Optional.of(44), new ImmutablePair<>(LifecycleState.READONLY, Optional.empty()),
+        0, 30000);
+
+    // ACT
+    cache.put(Optional.of(43), new ImmutablePair<>(LifecycleState.ACTIVE, Optional.empty()), 10,
+        30000);
+
+    // ASSERT
+    assertTrue("Cache should keep the newer lifecycle state",
+        cache.get(20).get().left.equals(LifecycleState.READONLY));
+  }
+
   @Test
   public void testthrowIfOperationInvalidForCurrentLifecycleStateThrowsWhenLifecycleManagerUninitialised()
       throws Exception {
@@ -16,6 +16,7 @@
 
 package squash.booking.lambdas.core;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -32,22 +33,33 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.simpledb.AmazonSimpleDB;
 import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
 import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
 import com.amazonaws.services.simpledb.model.GetAttributesRequest;
 import com.amazonaws.services.simpledb.model.GetAttributesResult;
 import com.amazonaws.services.simpledb.model.Item;
 import com.amazonaws.services.simpledb.model.PutAttributesRequest;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
 import com.amazonaws.services.simpledb.model.SelectRequest;
 import com.amazonaws.services.simpledb.model.SelectResult;
 import com.amazonaws.services.simpledb.model.UpdateCondition;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Tests the {@link OptimisticPersister}.
@@ -270,6 +282,122 @@ public class OptimisticPersisterTest {
         !result.left.isPresent());
   }
 
+  @Test
+  public void testGetPurgesTheItemsTombstonesWhenThereAreTooMany() throws Exception {
+    // Tombstones count towards SimpleDB's limit of 256 attributes per item - so an
+    // item must not build up too many before the nightly purge.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+    GetAttributesResult getAttributesResult = new GetAttributesResult();
+    getAttributesResult.setAttributes(allAttributes);
+    // With the fixture's tombstone, this is on the limit
+    getAttributesResult.getAttributes().addAll(getInactiveAttributes(99));
+    // N.B. Only the tombstones are deleted - not the active attributes
+    DeleteAttributesRequest deleteAttributesRequest = new DeleteAttributesRequest(
+        testSimpleDBDomainName, testItemName, getAttributesResult.getAttributes().stream()
+            .filter(attribute -> attribute.getValue().startsWith("Inactive"))
+            .collect(Collectors.toList()));
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockSimpleDBClient).getAttributes(with(anything()));
+        will(returnValue(getAttributesResult));
+        oneOf(mockSimpleDBClient).deleteAttributes(with(equal(deleteAttributesRequest)));
+      }
+    });
+
+    // ACT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> versionedAttributes = optimisticPersister
+        .get(testItemName);
+
+    // ASSERT
+    assertTrue("Get should still return the active attributes",
+        versionedAttributes.right.equals(activeNonVersionAttributes));
+  }
+
+  @Test
+  public void testGetDoesNotPurgeTheItemsTombstonesWhenThereAreFew() throws Exception {
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+    GetAttributesResult getAttributesResult = new GetAttributesResult();
+    getAttributesResult.setAttributes(allAttributes);
+    // With the fixture's tombstone, this is just under the limit
+    getAttributesResult.getAttributes().addAll(getInactiveAttributes(98));
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockSimpleDBClient).getAttributes(with(anything()));
+        will(returnValue(getAttributesResult));
+        never(mockSimpleDBClient).deleteAttributes(with(anything()));
+      }
+    });
+
+    // ACT
+    optimisticPersister.get(testItemName);
+  }
+
+  private List<Attribute> getInactiveAttributes(int numberOfAttributes) {
+    List<Attribute> inactiveAttributes = new ArrayList<>();
+    for (int attribute = 0; attribute < numberOfAttributes; attribute++) {
+      inactiveAttributes.add(new Attribute("Deleted" + attribute, "InactiveValue"));
+    }
+    return inactiveAttributes;
+  }
+
+  @Test
+  public void testGetOfNamedAttributesReadsOnlyThemAndTheVersionNumber() throws Exception {
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+    GetAttributesRequest simpleDBRequest = new GetAttributesRequest(testSimpleDBDomainName,
+        testItemName).withAttributeNames("ActiveAttribute", versionAttributeName)
+        .withConsistentRead(true);
+
+    GetAttributesResult getAttributesResult = new GetAttributesResult();
+    getAttributesResult.setAttributes(allAttributes.stream()
+        .filter(attribute -> !attribute.getName().equals("InactiveAttribute"))
+        .collect(Collectors.toList()));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).getAttributes(with(equal(simpleDBRequest)));
+        will(returnValue(getAttributesResult));
+      }
+    });
+
+    // ACT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> result = optimisticPersister.get(
+        testItemName, Arrays.asList("ActiveAttribute"));
+
+    // ASSERT
+    assertEquals("OptimisticPersister should return the named attribute",
+        activeNonVersionAttributes, result.right);
+    assertEquals("OptimisticPersister should return the correct version number",
+        Optional.of(testVersionNumber), result.left);
+  }
+
+  @Test
+  public void testGetOfNamedAttributesReturnsAnEmptyVersionNumberWhenTheItemDoesNotExist()
+      throws Exception {
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).getAttributes(with(anything()));
+        will(returnValue(new GetAttributesResult()));
+      }
+    });
+
+    // ACT
+    ImmutablePair<Optional<Integer>, Set<Attribute>> result = optimisticPersister.get(
+        testItemName, Arrays.asList("ActiveAttribute"));
+
+    // ASSERT
+    assertTrue("OptimisticPersister should return an empty version number",
+        !result.left.isPresent());
+    assertTrue("OptimisticPersister should return no attributes", result.right.isEmpty());
+  }
+
   @Test
   public void testGetAllItemsThrowsWhenOptimisticPersisterUninitialised() throws Exception {
     // ARRANGE
@@ -321,6 +449,98 @@ public class OptimisticPersisterTest {
         + ", Expected: " + expectedItems, actualItems.equals(expectedItems));
   }
 
+  @Test
+  public void testStreamAllItemsFetchesNextPageOnlyWhenConsumed() throws Exception {
+    // The stream should not select the second page until the caller has
+    // consumed all of the first.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    Item firstItem = new Item();
+    firstItem.setName("2016-07-23");
+    firstItem.setAttributes(allAttributes);
+    SelectResult firstPage = new SelectResult();
+    firstPage.setItems(Arrays.asList(firstItem));
+    firstPage.setNextToken("NextPageToken");
+    Item secondItem = new Item();
+    secondItem.setName("2016-07-24");
+    secondItem.setAttributes(allAttributes);
+    SelectResult secondPage = new SelectResult();
+    secondPage.setItems(Arrays.asList(secondItem));
+
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).select(with(any(SelectRequest.class)));
+        will(returnValue(firstPage));
+      }
+    });
+
+    // ACT
+    Iterator<ImmutablePair<String, List<Attribute>>> items = optimisticPersister
+        .streamAllItems().iterator();
+    ImmutablePair<String, List<Attribute>> firstPair = items.next();
+
+    // ASSERT
+    // Only the first page should have been selected so far
+    mockery.assertIsSatisfied();
+    assertTrue("OptimisticPersister should return the first item's active attributes",
+        firstPair.equals(new ImmutablePair<>("2016-07-23", new ArrayList<>(
+            activeNonVersionAttributes))));
+
+    // ARRANGE
+    SelectRequest secondPageRequest = new SelectRequest();
+    secondPageRequest.setConsistentRead(true);
+    secondPageRequest.setSelectExpression("select * from `" + testSimpleDBDomainName + "`");
+    secondPageRequest.setNextToken("NextPageToken");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).select(with(equal(secondPageRequest)));
+        will(returnValue(secondPage));
+      }
+    });
+
+    // ACT
+    ImmutablePair<String, List<Attribute>> secondPair = items.next();
+
+    // ASSERT
+    assertTrue("OptimisticPersister should return the second item", secondPair.left
+        .equals("2016-07-24"));
+    assertTrue("OptimisticPersister should return no further items", !items.hasNext());
+  }
+
+  @Test
+  public void testStreamItemsSelectsOnlyItemsInTheRange() throws Exception {
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    SelectRequest selectRequest = new SelectRequest();
+    selectRequest.setConsistentRead(true);
+    selectRequest.setSelectExpression("select * from `" + testSimpleDBDomainName
+        + "` where itemName() between '2016-07-23' and '2016-07-29'");
+    Item item = new Item();
+    item.setName("2016-07-23");
+    item.setAttributes(allAttributes);
+    SelectResult selectResult = new SelectResult();
+    selectResult.setItems(Arrays.asList(item));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).select(with(equal(selectRequest)));
+        will(returnValue(selectResult));
+      }
+    });
+
+    // ACT
+    List<ImmutablePair<String, List<Attribute>>> actualItems = optimisticPersister.streamItems(
+        "2016-07-23", "2016-07-29").collect(Collectors.toList());
+
+    // ASSERT
+    assertTrue("OptimisticPersister should return the item's active attributes. Actual: "
+        + actualItems, actualItems.equals(Arrays.asList(new ImmutablePair<>("2016-07-23",
+        new ArrayList<>(activeNonVersionAttributes)))));
+  }
+
   @Test
   public void testPutThrowsWhenOptimisticPersisterUninitialised() throws Exception {
     // ARRANGE
@@ -368,6 +588,79 @@ public class OptimisticPersisterTest {
     optimisticPersister.put(testItemName, Optional.of(42), testAttribute);
   }
 
+  @Test
+  public void testPutWithAttributeCountThrowsWhenMaximumNumberOfAttributesIsAlreadyPresent()
+      throws Exception {
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Database put failed - too many attributes");
+
+    optimisticPersister.initialise(1, mockLogger);
+
+    // ACT
+    ReplaceableAttribute testAttribute = new ReplaceableAttribute();
+    testAttribute.setName("Name");
+    testAttribute.setValue("Value");
+    // This should throw since the caller says we already have the max number of
+    // attributes.
+    optimisticPersister.put(testItemName, Optional.of(42), testAttribute, 1);
+  }
+
+  @Test
+  public void testPutWithAttributeCountDoesNotReadTheDatabase() throws Exception {
+    // Callers that have just read the item can supply its attribute count -
+    // in which case the put should not read the item again.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    mockery.checking(new Expectations() {
+      {
+        never(mockSimpleDBClient).getAttributes(with(anything()));
+        oneOf(mockSimpleDBClient).putAttributes(with(anything()));
+      }
+    });
+
+    ReplaceableAttribute testAttribute = new ReplaceableAttribute();
+    testAttribute.setName("Name");
+    testAttribute.setValue("Value");
+
+    // ACT
+    int finalVersion = optimisticPersister.put(testItemName, Optional.of(42), testAttribute, 1);
+
+    // ASSERT
+    assertTrue("The returned version should be one higher than the initial version",
+        finalVersion == 43);
+  }
+
+  @Test
+  public void testPutOfSeveralAttributesWritesThemInASingleConditionalPut() throws Exception {
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    List<ReplaceableAttribute> attributes = new ArrayList<>();
+    attributes.add(new ReplaceableAttribute("Name", "Value", false));
+    attributes.add(new ReplaceableAttribute("Summary", "Value", true));
+    List<ReplaceableAttribute> replaceableAttributes = new ArrayList<>();
+    replaceableAttributes.add(new ReplaceableAttribute(versionAttributeName, Integer
+        .toString(testVersionNumber + 1), true));
+    replaceableAttributes.addAll(attributes);
+    UpdateCondition updateCondition = new UpdateCondition();
+    updateCondition.setName(versionAttributeName);
+    updateCondition.setValue(Integer.toString(testVersionNumber));
+    PutAttributesRequest simpleDBPutRequest = new PutAttributesRequest(testSimpleDBDomainName,
+        testItemName, replaceableAttributes, updateCondition);
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).putAttributes(with(equal(simpleDBPutRequest)));
+      }
+    });
+
+    // ACT
+    optimisticPersister.putAttributes(testItemName, Optional.of(testVersionNumber), attributes, 1);
+  }
+
   @Test
   public void testPutDoesNotThrowWhenMaximumNumberOfAttributesIsAlreadyPresentIfPutIsToInactivate()
       throws Exception {
@@ -606,6 +899,174 @@ public class OptimisticPersisterTest {
         finalVersion == (initialVersion + 1));
   }
 
+  @Test
+  public void testPutAllThrowsWhenOptimisticPersisterUninitialised() throws Exception {
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The optimistic persister has not been initialised");
+
+    // ACT
+    // Do not initialise the optimistic persister first - so putAll should throw
+    optimisticPersister.putAll(new HashMap<>());
+  }
+
+  @Test
+  public void testPutAllBumpsVersionNumbersAndWritesInBatches() throws Exception {
+    // SimpleDB allows at most 25 items per batch put - so 30 items should need
+    // 2 batches. Each item's version number should be bumped - or created if
+    // the item does not yet exist.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    // Only the first item exists already. SimpleDB allows at most 20 item
+    // names per select, so 30 items should need 2 selects.
+    List<Item> existingItems = new ArrayList<>();
+    existingItems.add(new Item(testItemName + "0", new ArrayList<>(allAttributes)));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).select(with(equal(getPutAllSelectRequest(0, 20))));
+        will(returnValue(new SelectResult().withItems(existingItems)));
+        oneOf(mockSimpleDBClient).select(with(equal(getPutAllSelectRequest(20, 30))));
+        will(returnValue(new SelectResult()));
+      }
+    });
+
+    Map<String, List<ReplaceableAttribute>> attributesByItem = new LinkedHashMap<>();
+    List<ReplaceableItem> expectedFirstBatch = new ArrayList<>();
+    List<ReplaceableItem> expectedSecondBatch = new ArrayList<>();
+    for (int itemNumber = 0; itemNumber < 30; itemNumber++) {
+      ReplaceableAttribute attribute = new ReplaceableAttribute("Name", "Value", false);
+      attributesByItem.put(testItemName + itemNumber, Arrays.asList(attribute));
+      List<ReplaceableAttribute> expectedAttributes = new ArrayList<>();
+      expectedAttributes.add(new ReplaceableAttribute(versionAttributeName,
+          itemNumber == 0 ? Integer.toString(testVersionNumber + 1) : "0", true));
+      expectedAttributes.add(attribute);
+      (itemNumber < 25 ? expectedFirstBatch : expectedSecondBatch).add(new ReplaceableItem(
+          testItemName + itemNumber, expectedAttributes));
+    }
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).batchPutAttributes(
+            with(equal(new BatchPutAttributesRequest(testSimpleDBDomainName, expectedFirstBatch))));
+        oneOf(mockSimpleDBClient).batchPutAttributes(
+            with(equal(new BatchPutAttributesRequest(testSimpleDBDomainName,
+                expectedSecondBatch))));
+      }
+    });
+
+    // ACT
+    optimisticPersister.putAll(attributesByItem);
+  }
+
+  private SelectRequest getPutAllSelectRequest(int firstItemNumber, int lastItemNumber) {
+    // Selects just the items being written, i.e. testItemName + itemNumber
+    SelectRequest selectRequest = new SelectRequest();
+    selectRequest.setConsistentRead(true);
+    selectRequest.setSelectExpression("select * from `" + testSimpleDBDomainName
+        + "` where itemName() in ("
+        + IntStream.range(firstItemNumber, lastItemNumber)
+            .mapToObj(itemNumber -> "'" + testItemName + itemNumber + "'")
+            .collect(Collectors.joining(",")) + ")");
+    return selectRequest;
+  }
+
+  @Test
+  public void testPutAllRetriesOnlyTheBatchThatIsThrottled() throws Exception {
+    // Rewriting a batch is safe, as its version numbers are fixed before any
+    // batch is written - but earlier batches should not be rewritten.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockSimpleDBClient).select(with(anything()));
+        will(returnValue(new SelectResult()));
+      }
+    });
+
+    Map<String, List<ReplaceableAttribute>> attributesByItem = new LinkedHashMap<>();
+    List<ReplaceableItem> expectedFirstBatch = new ArrayList<>();
+    List<ReplaceableItem> expectedSecondBatch = new ArrayList<>();
+    for (int itemNumber = 0; itemNumber < 30; itemNumber++) {
+      ReplaceableAttribute attribute = new ReplaceableAttribute("Name", "Value", false);
+      attributesByItem.put(testItemName + itemNumber, Arrays.asList(attribute));
+      (itemNumber < 25 ? expectedFirstBatch : expectedSecondBatch).add(new ReplaceableItem(
+          testItemName + itemNumber, Arrays.asList(new ReplaceableAttribute(versionAttributeName,
+              "0", true), attribute)));
+    }
+    AmazonServiceException exception = new AmazonServiceException("Throttled");
+    exception.setErrorCode("Throttling");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).batchPutAttributes(
+            with(equal(new BatchPutAttributesRequest(testSimpleDBDomainName, expectedFirstBatch))));
+        exactly(2).of(mockSimpleDBClient).batchPutAttributes(
+            with(equal(new BatchPutAttributesRequest(testSimpleDBDomainName,
+                expectedSecondBatch))));
+        will(onConsecutiveCalls(throwException(exception), returnValue(null)));
+      }
+    });
+
+    // ACT
+    // This should not throw - the throttled batch is retried
+    optimisticPersister.putAll(attributesByItem);
+  }
+
+  @Test
+  public void testPutAllDoesNotCountReplacedAttributesAsAdded() throws Exception {
+
+    // ARRANGE
+    // Allow 2 attributes - the existing item already has 1 active attribute
+    optimisticPersister.initialise(2, mockLogger);
+
+    List<Item> existingItems = new ArrayList<>();
+    existingItems.add(new Item(testItemName, new ArrayList<>(allAttributes)));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).select(with(anything()));
+        will(returnValue(new SelectResult().withItems(existingItems)));
+        oneOf(mockSimpleDBClient).batchPutAttributes(with(anything()));
+      }
+    });
+
+    Map<String, List<ReplaceableAttribute>> attributesByItem = new HashMap<>();
+    attributesByItem.put(testItemName, Arrays.asList(new ReplaceableAttribute("Name1", "Value1",
+        true), new ReplaceableAttribute("Name2", "Value2", false)));
+
+    // ACT
+    // This should not throw - only one of the attributes is added
+    optimisticPersister.putAll(attributesByItem);
+  }
+
+  @Test
+  public void testPutAllThrowsWithoutWritingIfAnItemWouldHaveTooManyAttributes()
+      throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Database put failed - too many attributes");
+    // Allow 2 attributes - the existing item already has 1 active attribute
+    optimisticPersister.initialise(2, mockLogger);
+
+    List<Item> existingItems = new ArrayList<>();
+    existingItems.add(new Item(testItemName, new ArrayList<>(allAttributes)));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).select(with(anything()));
+        will(returnValue(new SelectResult().withItems(existingItems)));
+        never(mockSimpleDBClient).batchPutAttributes(with(anything()));
+      }
+    });
+
+    Map<String, List<ReplaceableAttribute>> attributesByItem = new HashMap<>();
+    attributesByItem.put(testItemName, Arrays.asList(new ReplaceableAttribute("Name1", "Value1",
+        false), new ReplaceableAttribute("Name2", "Value2", false)));
+
+    // ACT
+    optimisticPersister.putAll(attributesByItem);
+  }
+
   @Test
   public void testDeleteThrowsWhenOptimisticPersisterUninitialised() throws Exception {
     // ARRANGE
@@ -663,6 +1124,7 @@ public class OptimisticPersisterTest {
     // Ensure we return early.
     mockery.checking(new Expectations() {
       {
+        never(mockSimpleDBClient).putAttributes(with(anything()));
         never(mockSimpleDBClient).deleteAttributes(with(anything()));
       }
     });
@@ -675,10 +1137,9 @@ public class OptimisticPersisterTest {
   }
 
   @Test
-  public void testDeleteMarksAttributeAsInactiveBeforeDeletingIt() throws Exception {
-    // Deletion is currently a 2-stage process (to ensure the deletion is
-    // concurrency-safe). This tests that this 2-stage process is followed.
-    // This is a horrible test!
+  public void testDeleteMarksAttributeAsInactive() throws Exception {
+    // Deletion replaces the attribute with an inactive tombstone, in a single
+    // conditional put. The tombstone is removed later by the compactor.
 
     testDelete(false, Optional.empty(), true);
   }
@@ -712,9 +1173,8 @@ public class OptimisticPersisterTest {
 
   @Test
   public void testDeleteWorksEvenWhenTheMaximumNumberOfAttributesAlreadyExists() throws Exception {
-    // Deletion is currently a 2-stage process (to ensure the deletion is
-    // concurrency-safe). This tests that this 2-stage process is followed.
-    // This is a horrible test!
+    // Deletions must not be blocked by the attribute limit - otherwise a full
+    // item could never be emptied.
 
     // Initialise with no space for more attributes
     optimisticPersister.initialise(1, mockLogger);
@@ -729,10 +1189,6 @@ public class OptimisticPersisterTest {
   private void testDelete(Boolean expectToThrow, Optional<Exception> exceptionToThrow,
       Boolean doInitialise, int numCalls) throws Exception {
 
-    // This has become really horrible. Cause of trouble is difficulty of
-    // deleting an attribute from simpleDb whilst also incrementing the version
-    // number - necessitating a 2-stage process. Maybe I'm missing something...
-
     // ARRANGE
     if (exceptionToThrow.isPresent() && expectToThrow) {
       thrown.expect(Exception.class);
@@ -777,7 +1233,7 @@ public class OptimisticPersisterTest {
       }
     });
 
-    // Ensure we first mark the to-be-deleted attribute as inactive.
+    // Ensure we mark the to-be-deleted attribute as inactive.
     // We will delete the 'active' attribute.
     Attribute inactivatedAttribute = new Attribute();
     inactivatedAttribute.setName("ActiveAttribute");
@@ -822,57 +1278,17 @@ public class OptimisticPersisterTest {
           }
         } else {
           oneOf(mockSimpleDBClient).putAttributes(with(equal(simpleDBPutRequest)));
+          if (exceptionToThrow.isPresent()) {
+            will(throwException(exceptionToThrow.get()));
+          }
         }
       }
     });
 
-    // Cannot reuse earlier expectation as the persister removes the
-    // version-number attribute.
-    GetAttributesResult secondGetAttributesResult = new GetAttributesResult();
-    secondGetAttributesResult.setAttributes(allAttributes);
-    GetAttributesResult secondGetAttributesResult2 = new GetAttributesResult();
-    secondGetAttributesResult2.setAttributes(allAttributes);
-    GetAttributesResult secondGetAttributesResult3 = new GetAttributesResult();
-    secondGetAttributesResult3.setAttributes(allAttributes);
-    mockery.checking(new Expectations() {
-      {
-        // Get as part of the put to create the inactive attribute
-        oneOf(mockSimpleDBClient).getAttributes(with(equal(simpleDBRequest)));
-        will(returnValue(secondGetAttributesResult));
-        if (numCalls == 2) {
-          oneOf(mockSimpleDBClient).getAttributes(with(equal(simpleDBRequest)));
-          will(returnValue(secondGetAttributesResult2));
-        }
-        if (numCalls == 3) {
-          oneOf(mockSimpleDBClient).getAttributes(with(equal(simpleDBRequest)));
-          will(returnValue(secondGetAttributesResult2));
-          oneOf(mockSimpleDBClient).getAttributes(with(equal(simpleDBRequest)));
-          will(returnValue(secondGetAttributesResult3));
-        }
-      }
-    });
-
-    // Finally, ensure we delete the now-inactivated attribute.
-    Attribute inactivatedAttributeToDelete = new Attribute();
-    inactivatedAttributeToDelete.setName(toBeInactivatedAttribute.getName());
-    inactivatedAttributeToDelete.setValue(toBeInactivatedAttribute.getValue());
-    List<Attribute> attributesToDelete = new ArrayList<>();
-    attributesToDelete.add(inactivatedAttributeToDelete);
-    UpdateCondition deleteUpdateCondition = new UpdateCondition();
-    deleteUpdateCondition.setName(inactivatedAttributeToDelete.getName());
-    deleteUpdateCondition.setValue(inactivatedAttributeToDelete.getValue());
-    deleteUpdateCondition.setExists(true);
-    DeleteAttributesRequest simpleDBDeleteRequest = new DeleteAttributesRequest(
-        testSimpleDBDomainName, testItemName, attributesToDelete, deleteUpdateCondition);
+    // Ensure we never physically delete the attribute - that's left to the compactor.
     mockery.checking(new Expectations() {
       {
-        // We always have only one of these calls - unless all three put calls
-        // throw Conditional-check-failed exceptions.
-        exactly(numCalls == 3 ? 0 : 1).of(mockSimpleDBClient).deleteAttributes(
-            with(equal(simpleDBDeleteRequest)));
-        if (exceptionToThrow.isPresent()) {
-          will(throwException(exceptionToThrow.get()));
-        }
+        never(mockSimpleDBClient).deleteAttributes(with(anything()));
       }
     });
 
@@ -885,25 +1301,180 @@ public class OptimisticPersisterTest {
   }
 
   @Test
-  public void testDeleteHandlesDoesNotExistExceptionCorrectly() throws Exception {
-    // The persister should forward all simpleDB exceptions to us except
-    // DoesNotExist exceptions which it should swallow. This tests swallowing
-    // of DoesNotExist exceptions.
+  public void testDeleteHandlesOtherExceptionsCorrectly() throws Exception {
+    // The persister should forward all simpleDB exceptions to us other than
+    // conditional check failures, which it retries.
 
     AmazonServiceException exception = new AmazonServiceException("Boom!");
-    exception.setErrorCode("AttributeDoesNotExist");
-    testDelete(false, Optional.of(exception), true);
+    exception.setErrorCode("SomeOtherArbitraryCode");
+    testDelete(true, Optional.of(exception), true);
   }
 
   @Test
-  public void testDeleteHandlesOtherExceptionsCorrectly() throws Exception {
-    // The persister should forward all simpleDB exceptions to us except
-    // DoesNotExist exceptions which it should swallow. This tests forwarding
-    // of other exceptions.
+  public void testDeleteWithVersionThrowsWhenOptimisticPersisterUninitialised() throws Exception {
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The optimistic persister has not been initialised");
 
-    AmazonServiceException exception = new AmazonServiceException("Boom!");
-    exception.setErrorCode("SomeOtherArbitraryCode");
-    testDelete(true, Optional.of(exception), true);
+    // ACT
+    // Do not initialise the optimistic persister first - so delete should throw
+    optimisticPersister.delete(testItemName, Optional.of(testVersionNumber), new Attribute("Name",
+        "Value"));
+  }
+
+  @Test
+  public void testDeleteWithVersionMarksAttributeAsInactiveWithoutReadingTheDatabase()
+      throws Exception {
+    // The caller already knows the version, so this should be a single put.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    List<ReplaceableAttribute> replaceableAttributes = new ArrayList<>();
+    replaceableAttributes.add(new ReplaceableAttribute(versionAttributeName, Integer
+        .toString(testVersionNumber + 1), true));
+    replaceableAttributes.add(new ReplaceableAttribute("ActiveAttribute", "InactiveActive", true));
+    UpdateCondition updateCondition = new UpdateCondition();
+    updateCondition.setName(versionAttributeName);
+    updateCondition.setValue(Integer.toString(testVersionNumber));
+    PutAttributesRequest simpleDBPutRequest = new PutAttributesRequest(testSimpleDBDomainName,
+        testItemName, replaceableAttributes, updateCondition);
+    mockery.checking(new Expectations() {
+      {
+        never(mockSimpleDBClient).getAttributes(with(anything()));
+        oneOf(mockSimpleDBClient).putAttributes(with(equal(simpleDBPutRequest)));
+        never(mockSimpleDBClient).deleteAttributes(with(anything()));
+      }
+    });
+
+    // ACT
+    int newVersion = optimisticPersister.delete(testItemName, Optional.of(testVersionNumber),
+        new Attribute("ActiveAttribute", "Active"));
+
+    // ASSERT
+    assertTrue("The returned version should be one higher than the initial version",
+        newVersion == (testVersionNumber + 1));
+  }
+
+  @Test
+  public void testDeleteWithAttributesToPutWritesThemInTheSameConditionalPut() throws Exception {
+    // Attributes derived from others must change in step with them - so they
+    // should be written along with the tombstone.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    List<ReplaceableAttribute> replaceableAttributes = new ArrayList<>();
+    replaceableAttributes.add(new ReplaceableAttribute(versionAttributeName, Integer
+        .toString(testVersionNumber + 1), true));
+    replaceableAttributes.add(new ReplaceableAttribute("ActiveAttribute", "InactiveActive", true));
+    replaceableAttributes.add(new ReplaceableAttribute("Summary", "Value", true));
+    UpdateCondition updateCondition = new UpdateCondition();
+    updateCondition.setName(versionAttributeName);
+    updateCondition.setValue(Integer.toString(testVersionNumber));
+    PutAttributesRequest simpleDBPutRequest = new PutAttributesRequest(testSimpleDBDomainName,
+        testItemName, replaceableAttributes, updateCondition);
+    mockery.checking(new Expectations() {
+      {
+        never(mockSimpleDBClient).getAttributes(with(anything()));
+        oneOf(mockSimpleDBClient).putAttributes(with(equal(simpleDBPutRequest)));
+      }
+    });
+
+    // ACT
+    optimisticPersister.delete(testItemName, Optional.of(testVersionNumber), new Attribute(
+        "ActiveAttribute", "Active"), Arrays.asList(new ReplaceableAttribute("Summary", "Value",
+        true)));
+  }
+
+  @Test
+  public void testDeleteWithVersionThrowsWithoutRetryingIfTheSimpledbConditionalCheckFails()
+      throws Exception {
+    // Retrying is left to the caller, who will want to re-read the item first.
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Database put failed - conditional check failed");
+    initialiseOptimisticPersister();
+
+    AmazonServiceException ase = new AmazonServiceException("");
+    ase.setErrorCode("ConditionalCheckFailed");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).putAttributes(with(anything()));
+        will(throwException(ase));
+      }
+    });
+
+    // ACT
+    optimisticPersister.delete(testItemName, Optional.of(testVersionNumber), new Attribute(
+        "ActiveAttribute", "Active"));
+  }
+
+  @Test
+  public void testPurgeInactiveAttributesThrowsWhenOptimisticPersisterUninitialised()
+      throws Exception {
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The optimistic persister has not been initialised");
+
+    // ACT
+    // Do not initialise the optimistic persister first - so purge should throw
+    optimisticPersister.purgeInactiveAttributes();
+  }
+
+  @Test
+  public void testPurgeInactiveAttributesDeletesOnlyInactiveAttributesInBatches() throws Exception {
+    // SimpleDB allows at most 25 items per batch delete - so 30 items with
+    // inactive attributes should need 2 batches.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    // Return the items over two pages of the select
+    List<Item> firstPageItems = new ArrayList<>();
+    List<Item> secondPageItems = new ArrayList<>();
+    List<DeletableItem> expectedFirstBatch = new ArrayList<>();
+    List<DeletableItem> expectedSecondBatch = new ArrayList<>();
+    for (int itemNumber = 0; itemNumber < 30; itemNumber++) {
+      Attribute inactiveAttribute = new Attribute("Name", "InactiveValue" + itemNumber);
+      List<Attribute> attributes = new ArrayList<>();
+      attributes.add(new Attribute(versionAttributeName, "3"));
+      attributes.add(new Attribute("OtherName", "ActiveValue"));
+      attributes.add(inactiveAttribute);
+      (itemNumber < 15 ? firstPageItems : secondPageItems).add(new Item("Item" + itemNumber,
+          attributes));
+      List<Attribute> attributesToDelete = new ArrayList<>();
+      attributesToDelete.add(inactiveAttribute);
+      (itemNumber < 25 ? expectedFirstBatch : expectedSecondBatch).add(new DeletableItem("Item"
+          + itemNumber, attributesToDelete));
+    }
+    // An item with no inactive attributes should not be in any batch
+    List<Attribute> activeAttributes = new ArrayList<>();
+    activeAttributes.add(new Attribute(versionAttributeName, "3"));
+    activeAttributes.add(new Attribute("Name", "ActiveValue"));
+    secondPageItems.add(new Item("ActiveItem", activeAttributes));
+
+    mockery.checking(new Expectations() {
+      {
+        exactly(2).of(mockSimpleDBClient).select(with(anything()));
+        will(onConsecutiveCalls(
+            returnValue(new SelectResult().withItems(firstPageItems).withNextToken("token")),
+            returnValue(new SelectResult().withItems(secondPageItems))));
+        oneOf(mockSimpleDBClient).batchDeleteAttributes(
+            with(equal(new BatchDeleteAttributesRequest(testSimpleDBDomainName,
+                expectedFirstBatch))));
+        oneOf(mockSimpleDBClient).batchDeleteAttributes(
+            with(equal(new BatchDeleteAttributesRequest(testSimpleDBDomainName,
+                expectedSecondBatch))));
+      }
+    });
+
+    // ACT
+    int numberPurged = optimisticPersister.purgeInactiveAttributes();
+
+    // ASSERT
+    assertTrue("All inactive attributes should have been purged", numberPurged == 30);
   }
 
   @Test
@@ -932,4 +1503,46 @@ public class OptimisticPersisterTest {
     // ACT
     optimisticPersister.deleteAllAttributes(testItemName);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testDeleteItemsThrowsWhenOptimisticPersisterUninitialised() throws Exception {
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The optimistic persister has not been initialised");
+
+    // ACT
+    // Do not initialise the optimistic persister first - so deleteItems should throw
+    optimisticPersister.deleteItems(Arrays.asList(testItemName));
+  }
+
+  @Test
+  public void testDeleteItemsDeletesWholeItemsInBatches() throws Exception {
+    // SimpleDB allows at most 25 items per batch delete - so 30 items should
+    // need 2 batches. Specifying no attributes deletes the whole item.
+
+    // ARRANGE
+    initialiseOptimisticPersister();
+
+    List<String> itemNames = new ArrayList<>();
+    List<DeletableItem> expectedFirstBatch = new ArrayList<>();
+    List<DeletableItem> expectedSecondBatch = new ArrayList<>();
+    for (int itemNumber = 0; itemNumber < 30; itemNumber++) {
+      itemNames.add(testItemName + itemNumber);
+      (itemNumber < 25 ? expectedFirstBatch : expectedSecondBatch).add(new DeletableItem()
+          .withName(testItemName + itemNumber));
+    }
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSimpleDBClient).batchDeleteAttributes(
+            with(equal(new BatchDeleteAttributesRequest(testSimpleDBDomainName,
+                expectedFirstBatch))));
+        oneOf(mockSimpleDBClient).batchDeleteAttributes(
+            with(equal(new BatchDeleteAttributesRequest(testSimpleDBDomainName,
+                expectedSecondBatch))));
+      }
+    });
+
+    // ACT
+    optimisticPersister.deleteItems(itemNames);
+  }
+}
@@ -16,6 +16,9 @@
 
 package squash.booking.lambdas.core;
 
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertTrue;
 
@@ -27,6 +30,10 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.Sequence;
+import org.jmock.States;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -37,24 +44,47 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.Transfer;
 import com.amazonaws.services.sns.AmazonSNS;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Tests the {@link PageManager}.
@@ -111,7 +141,12 @@ public class PageManagerTest {
 
     activeLifecycleState = Optional.of(new ImmutablePair<LifecycleState, Optional<String>>(
         LifecycleState.ACTIVE, Optional.empty()));
-    mockery = new Mockery();
+    // Synchronised, as refreshing all pages uploads from several threads
+    mockery = new Mockery() {
+      {
+        setThreadingPolicy(new Synchroniser());
+      }
+    };
     // Set up mock context
     mockContext = mockery.mock(Context.class);
     mockery.checking(new Expectations() {
@@ -128,8 +163,15 @@ public class PageManagerTest {
     });
     // Set up mock booking manager
     mockBookingManager = mockery.mock(IBookingManager.class);
+    SortedMap<String, List<Booking>> bookingsByDate = new TreeMap<>();
+    validDates.forEach(validDate -> bookingsByDate.put(validDate, new ArrayList<>()));
     mockery.checking(new Expectations() {
       {
+        // Refreshing all pages should read all valid dates in one query
+        allowing(mockBookingManager).getBookings(with(equal(validDates.get(0))),
+            with(equal(validDates.get(1))), with.booleanIs(equal(false)),
+            with.booleanIs(equal(false)));
+        will(returnValue(bookingsByDate));
         ignoring(mockBookingManager);
       }
     });
@@ -177,6 +219,73 @@ public class PageManagerTest {
     mockery.assertIsSatisfied();
   }
 
+  private void expectNoContentToBePublished() {
+    // Refreshing all pages lists the objects already in S3, to find those
+    // that are unchanged - so make the bucket appear empty.
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransferManager).getAmazonS3Client();
+        will(returnValue(mockS3Client));
+        allowing(mockS3Client).listObjects(with(any(ListObjectsRequest.class)));
+        will(returnValue(new ObjectListing()));
+      }
+    });
+  }
+
+  private List<String> expectObjectsToBePublished() throws Exception {
+    // Publishes each uploaded object, recording its ETag as S3 would, so later
+    // refreshes can find it unchanged. Returns the keys of the uploads.
+    Transfer mockTransfer = mockery.mock(Transfer.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransfer).isDone();
+        will(returnValue(true));
+        allowing(mockTransfer).waitForCompletion();
+      }
+    });
+    Map<String, String> publishedEtags = new ConcurrentHashMap<>();
+    List<String> uploadedKeys = Collections.synchronizedList(new ArrayList<>());
+    mockTransferManager = mockery.mock(IS3TransferManager.class);
+    mockS3Client = mockery.mock(AmazonS3.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransferManager).upload(with(any(PutObjectRequest.class)));
+        will(new CustomAction("Publish object") {
+          @Override
+          public Object invoke(Invocation invocation) throws Throwable {
+            PutObjectRequest putObjectRequest = (PutObjectRequest) invocation.getParameter(0);
+            publishedEtags.put(putObjectRequest.getKey(), Hashing.md5().hashBytes(
+                ByteStreams.toByteArray(putObjectRequest.getInputStream())).toString());
+            uploadedKeys.add(putObjectRequest.getKey());
+            return mockTransfer;
+          }
+        });
+
+        allowing(mockTransferManager).getAmazonS3Client();
+        will(returnValue(mockS3Client));
+        allowing(mockS3Client).listObjects(with(any(ListObjectsRequest.class)));
+        will(new CustomAction("List published objects") {
+          @Override
+          public Object invoke(Invocation invocation) {
+            ObjectListing objectListing = new ObjectListing();
+            publishedEtags.forEach((key, etag) -> {
+              S3ObjectSummary objectSummary = new S3ObjectSummary();
+              objectSummary.setKey(key);
+              objectSummary.setETag(etag);
+              objectListing.getObjectSummaries().add(objectSummary);
+            });
+            return objectListing;
+          }
+        });
+        // The listing should be the only read of what is published
+        never(mockS3Client).getObjectMetadata(with(any(String.class)), with(any(String.class)));
+        allowing(mockS3Client).deleteObject(with(aNonNull(DeleteObjectRequest.class)));
+      }
+    });
+    pageManager.setS3TransferManager(mockTransferManager);
+    return uploadedKeys;
+  }
+
   // Define a test page manager with some overrides to facilitate testing
   public class TestPageManager extends PageManager {
     private AmazonSNS snsClient;
@@ -233,6 +342,11 @@ public class PageManagerTest {
     public LocalDate getCurrentLocalDate() {
       return currentLocalDate;
     }
+
+    @Override
+    public long getCurrentTimeMillis() {
+      return currentLocalDate.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
   }
 
   @Test
@@ -248,6 +362,138 @@ public class PageManagerTest {
         revvingSuffix);
   }
 
+  @Test
+  public void testDeleteOrphanedPagesThrowsWhenPageManagerUninitialised() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The page manager has not been initialised");
+
+    // ACT
+    // Do not initialise the page manager first - so we should throw
+    pageManager.deleteOrphanedPages();
+  }
+
+  @Test
+  public void testDeleteOrphanedPagesDeletesOnlyStaleUnreferencedSuffixedPages()
+      throws Exception {
+
+    // Suffixed pages should be deleted only once they are older than the
+    // grace period - and never while a booking page still redirects to them.
+
+    // ARRANGE
+    initialisePageManager();
+
+    long currentTimeMillis = pageManager.getCurrentTimeMillis();
+    Date staleTime = new Date(currentTimeMillis - TimeUnit.HOURS.toMillis(25));
+    Date recentTime = new Date(currentTimeMillis - TimeUnit.HOURS.toMillis(1));
+    String livePage = "NoScript/2015-10-06" + UUID.randomUUID() + ".html";
+    String orphanedPage = "NoScript/2015-10-06" + UUID.randomUUID() + ".html";
+    ObjectListing objectListing = new ObjectListing();
+    objectListing.getObjectSummaries().add(getObjectSummary("NoScript/2015-10-06.html", 0,
+        staleTime));
+    objectListing.getObjectSummaries().add(getObjectSummary(livePage, 40000, staleTime));
+    objectListing.getObjectSummaries().add(getObjectSummary(orphanedPage, 42000, staleTime));
+    objectListing.getObjectSummaries().add(getObjectSummary("NoScript/2015-10-07.html", 40000,
+        staleTime));
+    objectListing.getObjectSummaries().add(getObjectSummary("NoScript/2015-10-07"
+        + UUID.randomUUID() + ".html", 40000, recentTime));
+    objectListing.getObjectSummaries().add(getObjectSummary("NoScript/today.html", 500,
+        staleTime));
+    objectListing.getObjectSummaries().add(getObjectSummary("NoScript/2015-10-06.json", 500,
+        staleTime));
+    ObjectMetadata pointerMetadata = new ObjectMetadata();
+    pointerMetadata.setHeader(Headers.REDIRECT_LOCATION, "/" + livePage);
+
+    List<DeleteObjectsRequest> deleteObjectsRequests = new ArrayList<>();
+    mockS3Client = mockery.mock(AmazonS3.class);
+    mockTransferManager = mockery.mock(IS3TransferManager.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransferManager).getAmazonS3Client();
+        will(returnValue(mockS3Client));
+        oneOf(mockS3Client).listObjects(with(any(ListObjectsRequest.class)));
+        will(returnValue(objectListing));
+        // Only the empty booking page is a pointer
+        oneOf(mockS3Client).getObjectMetadata(websiteBucketName, "NoScript/2015-10-06.html");
+        will(returnValue(pointerMetadata));
+        oneOf(mockS3Client).deleteObjects(with(any(DeleteObjectsRequest.class)));
+        will(new CustomAction("Record delete") {
+          @Override
+          public Object invoke(Invocation invocation) {
+            deleteObjectsRequests.add((DeleteObjectsRequest) invocation.getParameter(0));
+            return null;
+          }
+        });
+      }
+    });
+    pageManager.setS3TransferManager(mockTransferManager);
+
+    // ACT
+    pageManager.deleteOrphanedPages();
+
+    // ASSERT
+    List<KeyVersion> keys = deleteObjectsRequests.get(0).getKeys();
+    assertTrue("Unexpected pages deleted: " + keys,
+        (keys.size() == 1) && keys.get(0).getKey().equals(orphanedPage));
+  }
+
+  @Test
+  public void testDeleteOrphanedPagesDeletesPagesThatOnlyPastDatesRedirectTo() throws Exception {
+
+    // A pointer for a past date is left only if the nightly delete failed - so
+    // it should not keep its page alive.
+
+    // ARRANGE
+    initialisePageManager();
+
+    Date staleTime = new Date(pageManager.getCurrentTimeMillis() - TimeUnit.HOURS.toMillis(25));
+    String pastPage = "NoScript/2015-10-05" + UUID.randomUUID() + ".html";
+    ObjectListing objectListing = new ObjectListing();
+    objectListing.getObjectSummaries().add(getObjectSummary("NoScript/2015-10-05.html", 0,
+        staleTime));
+    objectListing.getObjectSummaries().add(getObjectSummary(pastPage, 40000, staleTime));
+
+    List<DeleteObjectsRequest> deleteObjectsRequests = new ArrayList<>();
+    mockS3Client = mockery.mock(AmazonS3.class);
+    mockTransferManager = mockery.mock(IS3TransferManager.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransferManager).getAmazonS3Client();
+        will(returnValue(mockS3Client));
+        oneOf(mockS3Client).listObjects(with(any(ListObjectsRequest.class)));
+        will(returnValue(objectListing));
+        // The past pointer's redirect is irrelevant - so should not be read
+        never(mockS3Client).getObjectMetadata(with(anything()), with(anything()));
+        oneOf(mockS3Client).deleteObjects(with(any(DeleteObjectsRequest.class)));
+        will(new CustomAction("Record delete") {
+          @Override
+          public Object invoke(Invocation invocation) {
+            deleteObjectsRequests.add((DeleteObjectsRequest) invocation.getParameter(0));
+            return null;
+          }
+        });
+      }
+    });
+    pageManager.setS3TransferManager(mockTransferManager);
+
+    // ACT
+    pageManager.deleteOrphanedPages();
+
+    // ASSERT
+    List<KeyVersion> keys = deleteObjectsRequests.get(0).getKeys();
+    assertTrue("Unexpected pages deleted: " + keys,
+        (keys.size() == 1) && keys.get(0).getKey().equals(pastPage));
+  }
+
+  private S3ObjectSummary getObjectSummary(String key, long size, Date lastModified) {
+    S3ObjectSummary objectSummary = new S3ObjectSummary();
+    objectSummary.setKey(key);
+    objectSummary.setSize(size);
+    objectSummary.setLastModified(lastModified);
+    return objectSummary;
+  }
+
   @Test
   public void testUploadFamousPlayersThrowsWhenPageManagerUninitialised() throws Exception {
 
@@ -317,7 +563,7 @@ public class PageManagerTest {
 
     initialisePageManager();
 
-    // Set up S3 expectations for copy:
+    // Set up S3 expectations for the suffixed page and the pointer to it:
     // Transfer interface is implemented by Uploads, Downloads, and Copies
     Transfer mockTransfer = mockery.mock(Transfer.class);
     mockery.checking(new Expectations() {
@@ -332,13 +578,12 @@ public class PageManagerTest {
     // checking argument details.
     mockery.checking(new Expectations() {
       {
-        // We have one upload for the page and one for the cached data
-        exactly(2).of(mockTransferManager).upload(with(any(PutObjectRequest.class)));
-        will(returnValue(mockTransfer));
-        // We _do_ have the copy in this case - for the page, but not for the
-        // cached data
-        oneOf(mockTransferManager).copy(with(any(CopyObjectRequest.class)));
+        // We have one upload for the suffixed page, one for the pointer to
+        // it, and one for the cached data
+        exactly(3).of(mockTransferManager).upload(with(any(PutObjectRequest.class)));
         will(returnValue(mockTransfer));
+        // The pointer replaces copying the page
+        never(mockTransferManager).copy(with(anything()));
       }
     });
     pageManager.setS3TransferManager(mockTransferManager);
@@ -348,6 +593,56 @@ public class PageManagerTest {
         revvingSuffix);
   }
 
+  @Test
+  public void testRefreshPageWithDuplicatePublishesThePageUnderItsContentGuid() throws Exception {
+
+    // The suffixed page's key should be derived from its content, and the
+    // non-suffixed key should redirect to it.
+
+    initialisePageManager();
+
+    Transfer mockTransfer = mockery.mock(Transfer.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransfer).isDone();
+        will(returnValue(true));
+        allowing(mockTransfer).waitForCompletion();
+      }
+    });
+    List<PutObjectRequest> putObjectRequests = new ArrayList<>();
+    mockTransferManager = mockery.mock(IS3TransferManager.class);
+    mockery.checking(new Expectations() {
+      {
+        // Three uploads for each of the two refreshes
+        exactly(6).of(mockTransferManager).upload(with(any(PutObjectRequest.class)));
+        will(new CustomAction("Record upload") {
+          @Override
+          public Object invoke(Invocation invocation) {
+            putObjectRequests.add((PutObjectRequest) invocation.getParameter(0));
+            return mockTransfer;
+          }
+        });
+      }
+    });
+    pageManager.setS3TransferManager(mockTransferManager);
+
+    // ACT
+    String pageGuid = pageManager.refreshPage(fakeCurrentDateString, validDates,
+        apiGatewayBaseUrl, true, bookings, revvingSuffix);
+    String secondPageGuid = pageManager.refreshPage(fakeCurrentDateString, validDates,
+        apiGatewayBaseUrl, true, bookings, revvingSuffix);
+
+    // ASSERT
+    assertTrue("The same content should give the same guid", pageGuid.equals(secondPageGuid));
+    String suffixedKey = "NoScript/" + fakeCurrentDateString + pageGuid + ".html";
+    assertTrue("Unexpected suffixed page key: " + putObjectRequests.get(0).getKey(),
+        putObjectRequests.get(0).getKey().equals(suffixedKey));
+    assertTrue("Unexpected pointer key: " + putObjectRequests.get(1).getKey(),
+        putObjectRequests.get(1).getKey().equals("NoScript/" + fakeCurrentDateString + ".html"));
+    assertTrue("Pointer should redirect to the suffixed page", putObjectRequests.get(1)
+        .getRedirectLocation().equals("/" + suffixedKey));
+  }
+
   @Test
   public void testRefreshPageWithoutDuplicateCorrectlyCallsS3() throws Exception {
 
@@ -388,6 +683,95 @@ public class PageManagerTest {
         revvingSuffix);
   }
 
+  @Test
+  public void testRefreshPageUploadsTheGzippedPage() throws Exception {
+
+    // The page is gzipped in a single streaming pass - so check the upload is
+    // valid gzip data, with the right length.
+
+    initialisePageManager();
+
+    Transfer mockTransfer = mockery.mock(Transfer.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransfer).isDone();
+        will(returnValue(true));
+        allowing(mockTransfer).waitForCompletion();
+      }
+    });
+    List<byte[]> uploadedPages = new ArrayList<>();
+    List<ObjectMetadata> uploadedMetadata = new ArrayList<>();
+    mockTransferManager = mockery.mock(IS3TransferManager.class);
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockTransferManager).upload(
+            with(allOf(any(PutObjectRequest.class),
+                hasProperty("key", equal("NoScript/" + fakeCurrentDateString + ".html")))));
+        will(new CustomAction("Read upload") {
+          @Override
+          public Object invoke(Invocation invocation) throws Throwable {
+            PutObjectRequest putObjectRequest = (PutObjectRequest) invocation.getParameter(0);
+            uploadedPages.add(ByteStreams.toByteArray(putObjectRequest.getInputStream()));
+            uploadedMetadata.add(putObjectRequest.getMetadata());
+            return mockTransfer;
+          }
+        });
+        // The cached data
+        oneOf(mockTransferManager).upload(with(any(PutObjectRequest.class)));
+        will(returnValue(mockTransfer));
+      }
+    });
+    pageManager.setS3TransferManager(mockTransferManager);
+
+    // ACT
+    String pageGuid = pageManager.refreshPage(fakeCurrentDateString, validDates,
+        apiGatewayBaseUrl, false, bookings, revvingSuffix);
+
+    // ASSERT
+    byte[] gzippedPage = uploadedPages.get(0);
+    ObjectMetadata metadata = uploadedMetadata.get(0);
+    assertTrue("Content length should be the gzipped length",
+        metadata.getContentLength() == gzippedPage.length);
+    byte[] page = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(
+        gzippedPage)));
+    assertTrue("Uploaded page should contain its guid", new String(page, StandardCharsets.UTF_8)
+        .contains(pageGuid));
+  }
+
+  @Test
+  public void testRefreshPageDoesNotUploadTheBookingsBundle() throws Exception {
+
+    // The bundle is rebuilt only by refreshAllPages - rebuilding it on every
+    // booking mutation would read every valid date on the user request path.
+
+    initialisePageManager();
+
+    Transfer mockTransfer = mockery.mock(Transfer.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransfer).isDone();
+        will(returnValue(true));
+        allowing(mockTransfer).waitForCompletion();
+      }
+    });
+    mockTransferManager = mockery.mock(IS3TransferManager.class);
+    mockery.checking(new Expectations() {
+      {
+        never(mockTransferManager).upload(
+            with(allOf(any(PutObjectRequest.class),
+                hasProperty("key", equal("NoScript/bookings.json")))));
+        // The page and its cached data
+        exactly(2).of(mockTransferManager).upload(with(any(PutObjectRequest.class)));
+        will(returnValue(mockTransfer));
+      }
+    });
+    pageManager.setS3TransferManager(mockTransferManager);
+
+    // ACT
+    pageManager.refreshPage(fakeCurrentDateString, validDates, apiGatewayBaseUrl, false, bookings,
+        revvingSuffix);
+  }
+
   @Test
   public void testRefreshPageThrowsWhenS3Throws() throws Exception {
 
@@ -445,8 +829,9 @@ public class PageManagerTest {
     mockery.checking(new Expectations() {
       {
         // 2 uploads for each date + 3 uploads for the index pages + 1 upload
-        // for the validdates json + 1 upload for the famous players json.
-        exactly(2 * validDates.size() + 5).of(mockTransferManager).upload(
+        // for the bookings bundle + 1 upload for the validdates json + 1
+        // upload for the famous players json.
+        exactly(2 * validDates.size() + 6).of(mockTransferManager).upload(
             with(any(PutObjectRequest.class)));
         will(returnValue(mockTransfer));
         inSequence(refreshSequence);
@@ -457,13 +842,83 @@ public class PageManagerTest {
     });
     // Delete previous day's bookings and cached data at end
     mockS3Client = mockery.mock(AmazonS3.class);
+    List<String> deletedKeys = new ArrayList<>();
     mockery.checking(new Expectations() {
       {
+        // Page and cached data
         exactly(2).of(mockS3Client).deleteObject(with(aNonNull(DeleteObjectRequest.class)));
+        will(new CustomAction("Record delete") {
+          @Override
+          public Object invoke(Invocation invocation) {
+            deletedKeys.add(((DeleteObjectRequest) invocation.getParameter(0)).getKey());
+            return null;
+          }
+        });
         // Ensures this delete occurs after uploads of new pages and cached data
         inSequence(refreshSequence);
+      }
+    });
+    expectNoContentToBePublished();
+    pageManager.setS3TransferManager(mockTransferManager);
+
+    // ACT
+    pageManager.refreshAllPages(validDates, apiGatewayBaseUrl, revvingSuffix);
+
+    // ASSERT
+    // Booking pages and cached data live under the NoScript prefix
+    assertTrue("Unexpected keys deleted: " + deletedKeys, deletedKeys.containsAll(Arrays.asList(
+        "NoScript/2015-10-05.html", "NoScript/2015-10-05.json")));
+  }
+
+  @Test
+  public void testRefreshAllPagesUploadsTheMostFuturePageFirst() throws Exception {
+    // Pages link to the pages for later dates - so the most-future page, which
+    // is new each day, must be uploaded before any other page to keep all
+    // links valid, even though the pages are refreshed in parallel.
+
+    initialisePageManager();
+
+    Transfer mockTransfer = mockery.mock(Transfer.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockTransfer).isDone();
+        will(returnValue(true));
+        allowing(mockTransfer).waitForCompletion();
+      }
+    });
+    mockS3Client = mockery.mock(AmazonS3.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockS3Client).listObjects(with(any(ListObjectsRequest.class)));
+        will(returnValue(new ObjectListing()));
+        ignoring(mockS3Client);
+      }
+    });
+    mockTransferManager = mockery.mock(IS3TransferManager.class);
+    final States pages = mockery.states("pages").startsAs("mostFuturePending");
+    String mostFutureDate = validDates.get(validDates.size() - 1);
+    mockery.checking(new Expectations() {
+      {
+        // The index pages are refreshed before the booking pages
+        exactly(3).of(mockTransferManager).upload(
+            with(allOf(any(PutObjectRequest.class), hasProperty("key",
+                anyOf(equal("NoScript/today.html"), equal("today.html"),
+                    equal("NoScript/noscript.html"))))));
+        will(returnValue(mockTransfer));
 
-        exactly(1).of(mockTransferManager).getAmazonS3Client();
+        oneOf(mockTransferManager).upload(
+            with(allOf(any(PutObjectRequest.class),
+                hasProperty("key", equal("NoScript/" + mostFutureDate + ".html")))));
+        will(returnValue(mockTransfer));
+        when(pages.is("mostFuturePending"));
+        then(pages.is("mostFuturePublished"));
+
+        // All other uploads must wait for the most-future page
+        allowing(mockTransferManager).upload(with(any(PutObjectRequest.class)));
+        will(returnValue(mockTransfer));
+        when(pages.is("mostFuturePublished"));
+
+        allowing(mockTransferManager).getAmazonS3Client();
         will(returnValue(mockS3Client));
       }
     });
@@ -473,6 +928,76 @@ public class PageManagerTest {
     pageManager.refreshAllPages(validDates, apiGatewayBaseUrl, revvingSuffix);
   }
 
+  @Test
+  public void testRefreshAllPagesSkipsUploadsWhoseContentIsAlreadyPublished() throws Exception {
+    // Refreshing all pages a second time, with nothing changed, should find
+    // every object already published with identical content - so should not
+    // upload anything.
+
+    // ARRANGE
+    initialisePageManager();
+    List<String> uploadedKeys = expectObjectsToBePublished();
+    pageManager.refreshAllPages(validDates, apiGatewayBaseUrl, revvingSuffix);
+    uploadedKeys.clear();
+
+    // ACT
+    pageManager.refreshAllPages(validDates, apiGatewayBaseUrl, revvingSuffix);
+
+    // ASSERT
+    assertTrue("Unchanged objects should not be uploaded again: " + uploadedKeys,
+        uploadedKeys.isEmpty());
+  }
+
+  @Test
+  public void testRefreshAllPagesSkipsTheCachedDataOfDatesUnchangedAtMidnight()
+      throws Exception {
+    // At midnight the valid dates move on by a day. Every booking page lists
+    // the valid dates - so must be uploaded again - but the cached data of a
+    // date whose bookings have not changed should not be.
+
+    // ARRANGE
+    String today = validDates.get(0);
+    String tomorrow = validDates.get(1);
+    String dayAfterTomorrow = fakeCurrentDate.plusDays(2).format(
+        DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    List<String> validDatesAfterMidnight = Arrays.asList(tomorrow, dayAfterTomorrow);
+    SortedMap<String, List<Booking>> bookingsBeforeMidnight = new TreeMap<>();
+    bookingsBeforeMidnight.put(today, new ArrayList<>());
+    bookingsBeforeMidnight.put(tomorrow, bookings);
+    SortedMap<String, List<Booking>> bookingsAfterMidnight = new TreeMap<>();
+    bookingsAfterMidnight.put(tomorrow, bookings);
+    bookingsAfterMidnight.put(dayAfterTomorrow, new ArrayList<>());
+    IBookingManager rollOverBookingManager = mockery.mock(IBookingManager.class,
+        "rollOverBookingManager");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(rollOverBookingManager).getBookings(with(equal(today)), with(equal(tomorrow)),
+            with.booleanIs(equal(false)), with.booleanIs(equal(false)));
+        will(returnValue(bookingsBeforeMidnight));
+        oneOf(rollOverBookingManager).getBookings(with(equal(tomorrow)),
+            with(equal(dayAfterTomorrow)), with.booleanIs(equal(false)),
+            with.booleanIs(equal(false)));
+        will(returnValue(bookingsAfterMidnight));
+      }
+    });
+    pageManager.initialise(rollOverBookingManager, mockLifecycleManager, mockLogger);
+    List<String> uploadedKeys = expectObjectsToBePublished();
+    pageManager.refreshAllPages(validDates, apiGatewayBaseUrl, revvingSuffix);
+    uploadedKeys.clear();
+    pageManager.setCurrentLocalDate(fakeCurrentDate.plusDays(1));
+
+    // ACT
+    pageManager.refreshAllPages(validDatesAfterMidnight, apiGatewayBaseUrl, revvingSuffix);
+
+    // ASSERT
+    assertTrue("Unchanged cached data should not be uploaded again: " + uploadedKeys,
+        !uploadedKeys.contains("NoScript/" + tomorrow + ".json")
+            && !uploadedKeys.contains("famousplayers.json"));
+    assertTrue("Changed pages and new cached data should be uploaded: " + uploadedKeys,
+        uploadedKeys.containsAll(Arrays.asList("NoScript/" + tomorrow + ".html", "NoScript/"
+            + dayAfterTomorrow + ".html", "NoScript/" + dayAfterTomorrow + ".json")));
+  }
+
   @Test
   public void testRefreshAllPagesThrowsWhenPageManagerUninitialised() throws Exception {
 
@@ -512,6 +1037,8 @@ public class PageManagerTest {
         never(mockTransferManager).copy(with(any(CopyObjectRequest.class)));
       }
     });
+    mockS3Client = mockery.mock(AmazonS3.class);
+    expectNoContentToBePublished();
     pageManager.setS3TransferManager(mockTransferManager);
 
     mockSNSClient = mockery.mock(AmazonSNS.class);
@@ -559,6 +1086,8 @@ public class PageManagerTest {
         never(mockTransferManager).copy(with(any(CopyObjectRequest.class)));
       }
     });
+    mockS3Client = mockery.mock(AmazonS3.class);
+    expectNoContentToBePublished();
     pageManager.setS3TransferManager(mockTransferManager);
 
     // Set up mock SNS client to expect a notification
@@ -817,12 +1346,12 @@ public class PageManagerTest {
     bookingsForDate.add(booking3);
 
     // Set up the expected cached data
-    String expectedCachedBookingData = "{\"date\":\"2015-10-06\",\"validdates\":[\"2015-10-06\",\"2015-10-07\"],\"bookings\":[{\"court\":5,\"courtSpan\":1,\"slot\":3,\"slotSpan\":1,\"name\":\"A.Playera/B.Playerb\"},{\"court\":3,\"courtSpan\":1,\"slot\":4,\"slotSpan\":1,\"name\":\"C.Playerc/D.Playerd\"},{\"court\":2,\"courtSpan\":2,\"slot\":10,\"slotSpan\":3,\"name\":\"E.Playere/F.Playerf\"}]"
+    String expectedCachedBookingData = "{\"date\":\"2015-10-06\",\"bookings\":[{\"court\":5,\"courtSpan\":1,\"slot\":3,\"slotSpan\":1,\"name\":\"A.Playera/B.Playerb\"},{\"court\":3,\"courtSpan\":1,\"slot\":4,\"slotSpan\":1,\"name\":\"C.Playerc/D.Playerd\"},{\"court\":2,\"courtSpan\":2,\"slot\":10,\"slotSpan\":3,\"name\":\"E.Playere/F.Playerf\"}]"
         + regressionData + "}";
 
     // ACT
     String actualCachedBookingData = pageManager.createCachedBookingData(fakeCurrentDateString,
-        validDates, bookingsForDate);
+        bookingsForDate);
 
     // ASSERT
     boolean dataIsCorrect = actualCachedBookingData.equals(expectedCachedBookingData);
@@ -849,11 +1378,11 @@ public class PageManagerTest {
     bookingsForDate.add(booking);
 
     // Set up the expected cached data
-    String expectedCachedBookingData = "{\"date\":\"2015-10-06\",\"validdates\":[\"2015-10-06\",\"2015-10-07\"],\"bookings\":[{\"court\":5,\"courtSpan\":1,\"slot\":3,\"slotSpan\":1,\"name\":\"A.Playera/B.Playerb\"}],\"lifecycleState\":{\"state\":\"ACTIVE\",\"url\":\"\"}}";
+    String expectedCachedBookingData = "{\"date\":\"2015-10-06\",\"bookings\":[{\"court\":5,\"courtSpan\":1,\"slot\":3,\"slotSpan\":1,\"name\":\"A.Playera/B.Playerb\"}],\"lifecycleState\":{\"state\":\"ACTIVE\",\"url\":\"\"}}";
 
     // ACT
     String actualCachedBookingData = pageManager.createCachedBookingData(fakeCurrentDateString,
-        validDates, bookingsForDate);
+        bookingsForDate);
 
     // ASSERT
     boolean dataIsCorrect = actualCachedBookingData.equals(expectedCachedBookingData);
@@ -878,11 +1407,11 @@ public class PageManagerTest {
     List<Booking> bookingsForDate = new ArrayList<>();
 
     // Set up the expected cached data
-    String expectedCachedBookingData = "{\"date\":\"2015-10-06\",\"validdates\":[\"2015-10-06\",\"2015-10-07\"],\"bookings\":[],\"lifecycleState\":{\"state\":\"ACTIVE\",\"url\":\"\"}}";
+    String expectedCachedBookingData = "{\"date\":\"2015-10-06\",\"bookings\":[],\"lifecycleState\":{\"state\":\"ACTIVE\",\"url\":\"\"}}";
 
     // ACT
     String actualCachedBookingData = pageManager.createCachedBookingData(fakeCurrentDateString,
-        validDates, bookingsForDate);
+        bookingsForDate);
 
     // ASSERT
     boolean dataIsCorrect = actualCachedBookingData.equals(expectedCachedBookingData);
@@ -958,4 +1487,44 @@ public class PageManagerTest {
     assertTrue("Created cached valid dates data is incorrect: " + actualCachedValidDatesData
         + " versus " + expectedCachedValidDatesData, dataIsCorrect);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testCreateBookingsBundleDataCreatesCorrectData() throws Exception {
+
+    // ARRANGE
+    initialisePageManager();
+
+    String firstData = "{\"date\":\"2015-10-06\"}";
+    String secondData = "{\"date\":\"2015-10-07\"}";
+    Map<String, String> cachedBookingDataByDate = new HashMap<>();
+    cachedBookingDataByDate.put(validDates.get(0), firstData);
+    cachedBookingDataByDate.put(validDates.get(1), secondData);
+
+    // Set up the expected bundle - with each date's hash and ETag, and a
+    // version hashed from all the dates and their hashes
+    String firstHash = Hashing.sha256().hashString(firstData, StandardCharsets.UTF_8).toString();
+    String secondHash = Hashing.sha256().hashString(secondData, StandardCharsets.UTF_8)
+        .toString();
+    String version = Hashing.sha256().newHasher()
+        .putString(validDates.get(0), StandardCharsets.UTF_8)
+        .putString(firstHash, StandardCharsets.UTF_8)
+        .putString(validDates.get(1), StandardCharsets.UTF_8)
+        .putString(secondHash, StandardCharsets.UTF_8).hash().toString();
+    // The ETag of a single-part upload is the MD5 hash of its bytes
+    String firstEtag = Hashing.md5().hashString(firstData, StandardCharsets.UTF_8).toString();
+    String secondEtag = Hashing.md5().hashString(secondData, StandardCharsets.UTF_8).toString();
+    String expectedBundleData = "{\"version\":\"" + version + "\",\"dates\":{"
+        + "\"2015-10-06\":{\"hash\":\"" + firstHash + "\",\"etag\":\"" + firstEtag
+        + "\",\"data\":" + firstData + "},"
+        + "\"2015-10-07\":{\"hash\":\"" + secondHash + "\",\"etag\":\"" + secondEtag
+        + "\",\"data\":" + secondData + "}}}";
+
+    // ACT
+    String actualBundleData = pageManager.createBookingsBundleData(validDates,
+        cachedBookingDataByDate);
+
+    // ASSERT
+    assertTrue("Created bookings bundle data is incorrect: " + actualBundleData + " versus "
+        + expectedBundleData, actualBundleData.equals(expectedBundleData));
+  }
+}
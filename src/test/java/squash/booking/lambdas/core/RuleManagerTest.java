@@ -41,6 +41,7 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -221,7 +222,7 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)),
-            with(Optional.of(expectedVersion)), with(equal(attribute)));
+            with(Optional.of(expectedVersion)), with(equal(attribute)), with.intIs(anything()));
       }
     });
   }
@@ -249,16 +250,22 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)),
-            with(Optional.of(expectedVersion)), with(equal(replaceableAttribute)));
+            with(Optional.of(expectedVersion)), with(equal(replaceableAttribute)),
+            with.intIs(anything()));
       }
     });
   }
 
-  private void expectBookingManagerCall(Booking bookingToCreate) throws Exception {
+  private void expectBookingManagerCall(Booking... bookingsToCreate) throws Exception {
+    // All the bookings should be created in a single call - and none should clash
+    List<Booking> bookings = Arrays.asList(bookingsToCreate);
+    List<ImmutablePair<Booking, Boolean>> outcomes = new ArrayList<>();
+    bookings.forEach(booking -> outcomes.add(new ImmutablePair<>(booking, true)));
     mockery.checking(new Expectations() {
       {
-        oneOf(mockBookingManager).createBooking(with(equal(bookingToCreate)),
-            with.booleanIs(equal(false)));
+        oneOf(mockBookingManager).createBookings(with(equal(bookings.get(0).getDate())),
+            with(equal(bookings)), with.booleanIs(equal(false)));
+        will(returnValue(outcomes));
       }
     });
   }
@@ -408,7 +415,7 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -445,7 +452,7 @@ public class RuleManagerTest {
       {
         // All three tries throw
         exactly(3).of(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -483,12 +490,12 @@ public class RuleManagerTest {
       {
         // Two failures...
         exactly(2).of(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception("Database put failed - conditional check failed")));
         inSequence(retrySequence);
         // ... but third attempt succeeds
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(returnValue(2));
         inSequence(retrySequence);
       }
@@ -942,6 +949,88 @@ public class RuleManagerTest {
     ruleManager.createRule(existingThursdayNonRecurringRule, true);
   }
 
+  @Test
+  public void testRestoreRulesThrowsWhenRuleManagerUninitialised() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("The rule manager has not been initialised");
+
+    // ACT
+    // Do not initialise the rule manager first - so we should throw
+    // N.B. Second parameter is arbitrary here.
+    ruleManager.restoreRules(existingBookingRules, false);
+  }
+
+  @Test
+  public void testRestoreRulesCallsTheOptimisticPersisterCorrectly() throws Exception {
+    // All rules should be written in a single batched put.
+
+    // ARRANGE
+    initialiseRuleManager();
+    expectOptimisticPersisterToReturnVersionedAttributes(42);
+
+    // Set up rules to restore that do not clash with the existing rules
+    BookingRule wednesdayRule = new BookingRule(existingThursdayNonRecurringRule);
+    wednesdayRule.getBooking().setDate(
+        LocalDate.parse(wednesdayRule.getBooking().getDate(),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd")).minusDays(1)
+            .format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+    BookingRule sundayRule = new BookingRule(existingFridayRecurringRuleWithoutExclusions);
+    sundayRule.getBooking().setDate(
+        LocalDate.parse(sundayRule.getBooking().getDate(),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd")).plusDays(2)
+            .format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+    List<BookingRule> rulesToRestore = new ArrayList<>();
+    rulesToRestore.add(wednesdayRule);
+    rulesToRestore.add(sundayRule);
+
+    List<ReplaceableAttribute> expectedAttributes = new ArrayList<>();
+    for (BookingRule ruleToRestore : rulesToRestore) {
+      ReplaceableAttribute attribute = new ReplaceableAttribute();
+      attribute.setName(getAttributeNameFromBookingRule(ruleToRestore));
+      attribute.setValue(StringUtils.join(ruleToRestore.getDatesToExclude(), ","));
+      expectedAttributes.add(attribute);
+    }
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).putAll(
+            with(equal(Collections.singletonMap(ruleItemName, expectedAttributes))));
+      }
+    });
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    ruleManager.restoreRules(rulesToRestore, false);
+  }
+
+  @Test
+  public void testRestoreRulesThrowsWhenARuleClashesWithExistingRules() throws Exception {
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Booking rule creation failed - rule would clash");
+    initialiseRuleManager();
+    expectOptimisticPersisterToReturnVersionedAttributes(42);
+    mockery.checking(new Expectations() {
+      {
+        never(mockOptimisticPersister).putAll(with(anything()));
+      }
+    });
+
+    // Make a recurring rule that clashes with the existing non-recurring rule
+    BookingRule clashingThursdayRule = new BookingRule(existingThursdayNonRecurringRule);
+    clashingThursdayRule.setIsRecurring(true);
+    clashingThursdayRule.getBooking().setDate(
+        LocalDate.parse(clashingThursdayRule.getBooking().getDate(),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd")).minusWeeks(1)
+            .format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+
+    // ACT
+    // N.B. Second parameter is arbitrary here.
+    ruleManager.restoreRules(Arrays.asList(clashingThursdayRule), false);
+  }
+
   @Test
   public void testGetRulesThrowsWhenRuleManagerUninitialised() throws Exception {
 
@@ -1169,7 +1258,7 @@ public class RuleManagerTest {
     // The rule manager can throw a TooManyRequests exception
     // if there are many booking rules being deleted. If this happens we should
     // pause for a short time and then continue deleting. We allow up to three
-    // attempts to delete each booking rule before giving up. This tests that
+    // attempts to delete the booking rules before giving up. This tests that
     // if all three tries fail then the rule manager will give up and throw.
 
     // ARRANGE
@@ -1180,11 +1269,6 @@ public class RuleManagerTest {
     // ACT
     initialiseRuleManager();
 
-    // Tweak rules to have just one rule - that's all we need here
-    existingBookingRules = new ArrayList<>();
-    existingBookingRules.add(existingThursdayNonRecurringRule);
-    expectOptimisticPersisterToReturnVersionedAttributes(2); // 2 arbitrary
-
     // Set up mock optimistic persister to throw too many requests errors
     // Configure the TooManyRequests error (429)
     AmazonServiceException ase = new AmazonServiceException(message);
@@ -1192,7 +1276,8 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         // All three tries throw
-        exactly(3).of(mockOptimisticPersister).delete(with(equal(ruleItemName)), with(anything()));
+        exactly(3).of(mockOptimisticPersister).deleteItems(
+            with(equal(Collections.singletonList(ruleItemName))));
         will(throwException(ase));
       }
     });
@@ -1210,7 +1295,7 @@ public class RuleManagerTest {
     // The rule manager can throw a TooManyRequests exception
     // if there are many booking rules being deleted. If this happens we should
     // pause for a short time and then continue deleting. We allow up to three
-    // attempts to delete each booking rule before giving up. This tests that
+    // attempts to delete the booking rules before giving up. This tests that
     // if we throw twice but the third try succeeds, then the rule manager
     // does not throw.
 
@@ -1220,11 +1305,6 @@ public class RuleManagerTest {
     // ACT
     initialiseRuleManager();
 
-    // Tweak rules to have just one rule - that's all we need here
-    existingBookingRules = new ArrayList<>();
-    existingBookingRules.add(existingThursdayNonRecurringRule);
-    expectOptimisticPersisterToReturnVersionedAttributes(2); // 2 arbitrary
-
     // Set up mock optimistic persister to throw too many requests errors
     // Configure the TooManyRequests error (429)
     AmazonServiceException ase = new AmazonServiceException(message);
@@ -1232,10 +1312,12 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         // Throw twice...
-        exactly(2).of(mockOptimisticPersister).delete(with(equal(ruleItemName)), with(anything()));
+        exactly(2).of(mockOptimisticPersister).deleteItems(
+            with(equal(Collections.singletonList(ruleItemName))));
         will(throwException(ase));
         // ...but succeed on the third try
-        oneOf(mockOptimisticPersister).delete(with(equal(ruleItemName)), with(anything()));
+        oneOf(mockOptimisticPersister).deleteItems(
+            with(equal(Collections.singletonList(ruleItemName))));
       }
     });
     ruleManager.setOptimisticPersister(mockOptimisticPersister);
@@ -1251,8 +1333,13 @@ public class RuleManagerTest {
 
     // ARRANGE
     initialiseRuleManager();
-    expectOptimisticPersisterToReturnVersionedAttributes(2); // 2 arbitrary
-    expectToDeleteRulesViaOptimisticPersister(existingBookingRules);
+    // All rules should be deleted in one go, by deleting their item
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockOptimisticPersister).deleteItems(
+            with(equal(Collections.singletonList(ruleItemName))));
+      }
+    });
 
     // ACT
     // N.B. The parameter is arbitrary here.
@@ -1268,11 +1355,11 @@ public class RuleManagerTest {
     thrown.expectMessage(message);
 
     initialiseRuleManager();
-    expectOptimisticPersisterToReturnVersionedAttributes(2); // 2 arbitrary
 
     mockery.checking(new Expectations() {
       {
-        oneOf(mockOptimisticPersister).delete(with(equal(ruleItemName)), with(anything()));
+        oneOf(mockOptimisticPersister).deleteItems(
+            with(equal(Collections.singletonList(ruleItemName))));
         will(throwException(new Exception(message)));
       }
     });
@@ -1345,7 +1432,7 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -1380,7 +1467,7 @@ public class RuleManagerTest {
       {
         // All three tries throw
         exactly(3).of(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -1414,12 +1501,12 @@ public class RuleManagerTest {
       {
         // Two failures...
         exactly(2).of(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception("Database put failed - conditional check failed")));
         inSequence(retrySequence);
         // ... but third attempt succeeds
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(returnValue(2));
         inSequence(retrySequence);
       }
@@ -1486,7 +1573,7 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         never(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
       }
     });
 
@@ -1686,7 +1773,7 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -1719,7 +1806,7 @@ public class RuleManagerTest {
       {
         // All three tries throw
         exactly(3).of(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -1751,12 +1838,12 @@ public class RuleManagerTest {
       {
         // Two failures...
         exactly(2).of(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(throwException(new Exception("Database put failed - conditional check failed")));
         inSequence(retrySequence);
         // ... but third attempt succeeds
         oneOf(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
         will(returnValue(2));
         inSequence(retrySequence);
       }
@@ -1783,7 +1870,7 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         never(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
       }
     });
 
@@ -1822,7 +1909,7 @@ public class RuleManagerTest {
     mockery.checking(new Expectations() {
       {
         never(mockOptimisticPersister).put(with(equal(ruleItemName)), with(anything()),
-            with(anything()));
+            with(anything()), with.intIs(anything()));
       }
     });
 
@@ -1954,7 +2041,8 @@ public class RuleManagerTest {
 
     mockery.checking(new Expectations() {
       {
-        oneOf(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
+        oneOf(mockBookingManager).createBookings(with(anything()), with(anything()),
+            with.booleanIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -1974,6 +2062,45 @@ public class RuleManagerTest {
         .applyRules(existingSaturdayRecurringRuleWithExclusion.getBooking().getDate(), false);
   }
 
+  @Test
+  public void testApplyRulesThrowsAndNotifiesTheSnsTopicIfARuleBookingClashes() throws Exception {
+    // The rule bookings that do not clash are still created - but the admin
+    // user should be told about the ones that do, so they can sort them out.
+
+    // ARRANGE
+    thrown.expect(Exception.class);
+    thrown.expectMessage("Booking creation failed");
+
+    initialiseRuleManager();
+    expectOptimisticPersisterToReturnVersionedAttributes(42);
+
+    Booking clashingBooking = existingThursdayNonRecurringRule.getBooking();
+    List<ImmutablePair<Booking, Boolean>> outcomes = new ArrayList<>();
+    outcomes.add(new ImmutablePair<>(clashingBooking, false));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockBookingManager).createBookings(with(equal(clashingBooking.getDate())),
+            with(anything()), with.booleanIs(anything()));
+        will(returnValue(outcomes));
+      }
+    });
+
+    // Set up mock SNS client to expect a notification
+    mockSNSClient = mockery.mock(AmazonSNS.class);
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockSNSClient).publish(with(equal(adminSnsTopicArn)),
+            with(startsWith("Apologies - but there was an error applying the booking rules")),
+            with(equal("Sqawsh booking rules failed to apply")));
+      }
+    });
+    ruleManager.setSNSClient(mockSNSClient);
+
+    // ACT
+    // This should throw - and notify the SNS topic
+    ruleManager.applyRules(clashingBooking.getDate(), false);
+  }
+
   @Test
   public void testApplyRulesNotifiesTheSnsTopicWhenItThrows() throws Exception {
     // It is useful for the admin user to be notified whenever the application
@@ -1991,7 +2118,8 @@ public class RuleManagerTest {
 
     mockery.checking(new Expectations() {
       {
-        oneOf(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
+        oneOf(mockBookingManager).createBookings(with(anything()), with(anything()),
+            with.booleanIs(anything()));
         will(throwException(new Exception(message)));
       }
     });
@@ -2127,7 +2255,8 @@ public class RuleManagerTest {
     expectPurgeExpiredRulesAndRuleExclusions(42, existingBookingRules);
     mockery.checking(new Expectations() {
       {
-        never(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
+        never(mockBookingManager).createBookings(with(anything()), with(anything()),
+            with.booleanIs(anything()));
       }
     });
 
@@ -2149,7 +2278,8 @@ public class RuleManagerTest {
     expectPurgeExpiredRulesAndRuleExclusions(42, existingBookingRules);
     mockery.checking(new Expectations() {
       {
-        never(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
+        never(mockBookingManager).createBookings(with(anything()), with(anything()),
+            with.booleanIs(anything()));
       }
     });
 
@@ -2174,7 +2304,8 @@ public class RuleManagerTest {
     expectPurgeExpiredRulesAndRuleExclusions(42, existingBookingRules);
     mockery.checking(new Expectations() {
       {
-        never(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
+        never(mockBookingManager).createBookings(with(anything()), with(anything()),
+            with.booleanIs(anything()));
       }
     });
 
@@ -2198,7 +2329,8 @@ public class RuleManagerTest {
     expectPurgeExpiredRulesAndRuleExclusions(42, existingBookingRules);
     mockery.checking(new Expectations() {
       {
-        never(mockBookingManager).createBooking(with(anything()), with.booleanIs(anything()));
+        never(mockBookingManager).createBookings(with(anything()), with(anything()),
+            with.booleanIs(anything()));
       }
     });
 
@@ -2232,8 +2364,8 @@ public class RuleManagerTest {
     existingRules.add(sameDayRule);
     expectOptimisticPersisterToReturnVersionedAttributes(2, existingRules);
 
-    expectBookingManagerCall(existingFridayRecurringRuleWithoutExclusions.getBooking());
-    expectBookingManagerCall(sameDayRule.getBooking());
+    expectBookingManagerCall(existingFridayRecurringRuleWithoutExclusions.getBooking(),
+        sameDayRule.getBooking());
     expectPurgeExpiredRulesAndRuleExclusions(42, existingRules);
 
     // ACT
@@ -2261,8 +2393,8 @@ public class RuleManagerTest {
     existingRules.add(sameDayRule);
     expectOptimisticPersisterToReturnVersionedAttributes(2, existingRules);
 
-    expectBookingManagerCall(existingFridayRecurringRuleWithoutExclusions.getBooking());
-    expectBookingManagerCall(sameDayRule.getBooking());
+    expectBookingManagerCall(existingFridayRecurringRuleWithoutExclusions.getBooking(),
+        sameDayRule.getBooking());
     expectPurgeExpiredRulesAndRuleExclusions(42, existingRules);
 
     List<Booking> expectedBookings = new ArrayList<>();
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.sns.AmazonSNS;
+
+/**
+ * Tests the {@link AwsClientRegistry}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class AwsClientRegistryTest {
+
+  @Test
+  public void testGetSimpleDBClientReturnsTheSameClientForTheSameRegion() {
+
+    // ACT
+    AmazonSimpleDB firstClient = AwsClientRegistry.getSimpleDBClient("eu-west-1");
+    AmazonSimpleDB secondClient = AwsClientRegistry.getSimpleDBClient("eu-west-1");
+
+    // ASSERT
+    assertTrue("The client should be built once and then reused", firstClient == secondClient);
+  }
+
+  @Test
+  public void testGetSimpleDBClientReturnsADifferentClientForADifferentRegion() {
+
+    // ACT
+    AmazonSimpleDB euClient = AwsClientRegistry.getSimpleDBClient("eu-west-1");
+    AmazonSimpleDB usClient = AwsClientRegistry.getSimpleDBClient("us-east-1");
+
+    // ASSERT
+    assertTrue("Each region should have its own client", euClient != usClient);
+  }
+
+  @Test
+  public void testGetSNSClientReturnsTheSameClientForTheSameRegion() {
+
+    // ACT
+    AmazonSNS firstClient = AwsClientRegistry.getSNSClient("eu-west-1");
+    AmazonSNS secondClient = AwsClientRegistry.getSNSClient("eu-west-1");
+
+    // ASSERT
+    assertTrue("The client should be built once and then reused", firstClient == secondClient);
+  }
+
+  @Test
+  public void testGetSNSClientReturnsADifferentClientForADifferentRegion() {
+
+    // ACT
+    AmazonSNS euClient = AwsClientRegistry.getSNSClient("eu-west-1");
+    AmazonSNS usClient = AwsClientRegistry.getSNSClient("us-east-1");
+
+    // ASSERT
+    assertTrue("Each region should have its own client", euClient != usClient);
+  }
+
+  @Test
+  public void testGetS3ClientReturnsTheSameClientForTheSameRegionOnly() {
+
+    // ACT
+    AmazonS3 firstClient = AwsClientRegistry.getS3Client("eu-west-1");
+    AmazonS3 secondClient = AwsClientRegistry.getS3Client("eu-west-1");
+    AmazonS3 usClient = AwsClientRegistry.getS3Client("us-east-1");
+
+    // ASSERT
+    assertTrue("The client should be built once and then reused", firstClient == secondClient);
+    assertTrue("Each region should have its own client", firstClient != usClient);
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests the {@link GzipBuffer}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class GzipBufferTest {
+  GzipBuffer gzipBuffer;
+  String text;
+
+  @Before
+  public void beforeTest() {
+    gzipBuffer = GzipBuffer.acquire();
+
+    // Make the text span several chunks, and include multi-byte characters
+    StringBuilder builder = new StringBuilder();
+    for (int line = 0; line < 2000; line++) {
+      builder.append("Court booked by A.Shabana/N.David éè - line ").append(line)
+          .append("\n");
+    }
+    text = builder.toString();
+  }
+
+  @After
+  public void afterTest() {
+    GzipBuffer.release(gzipBuffer);
+  }
+
+  @Test
+  public void testGzipRoundTripsTheText() throws Exception {
+
+    // ACT
+    gzipBuffer.gzip(text);
+
+    // ASSERT
+    String gunzippedText = IOUtils.toString(new GZIPInputStream(gzipBuffer.getInputStream()),
+        StandardCharsets.UTF_8);
+    assertEquals("The gzip-ed content should gunzip to the text", text, gunzippedText);
+    assertEquals("The uncompressed size should be that of the UTF-8 text",
+        text.getBytes(StandardCharsets.UTF_8).length, gzipBuffer.getUncompressedSize());
+  }
+
+  @Test
+  public void testGetCompressedMd5IsTheMd5OfTheGzippedContent() throws Exception {
+    // This is the ETag S3 gives the content - so is compared with published ETags
+
+    // ARRANGE
+    gzipBuffer.gzip(text);
+    String expectedHash = Hashing.md5().hashBytes(ByteStreams.toByteArray(
+        gzipBuffer.getInputStream())).toString();
+
+    // ACT and ASSERT
+    assertEquals("The hash should be that of the gzip-ed content", expectedHash,
+        gzipBuffer.getCompressedMd5());
+    assertEquals("The hash should not change when read again", expectedHash,
+        gzipBuffer.getCompressedMd5());
+  }
+
+  @Test
+  public void testGzipGivesIdenticalContentForIdenticalText() throws Exception {
+    // Unchanged pages are found by the hash of their gzip-ed content - so the
+    // gzip-ed content must not vary, e.g. with the time.
+
+    // ARRANGE
+    GzipBuffer otherGzipBuffer = GzipBuffer.acquire();
+    try {
+      otherGzipBuffer.gzip(text);
+
+      // ACT
+      gzipBuffer.gzip(text);
+
+      // ASSERT
+      assertEquals("Identical text should gzip to identical content",
+          otherGzipBuffer.getCompressedMd5(), gzipBuffer.getCompressedMd5());
+    } finally {
+      GzipBuffer.release(otherGzipBuffer);
+    }
+  }
+
+  @Test
+  public void testGzipReplacesThePreviousContent() throws Exception {
+
+    // ARRANGE
+    gzipBuffer.gzip("Previous content");
+    String previousHash = gzipBuffer.getCompressedMd5();
+
+    // ACT
+    gzipBuffer.gzip(text);
+
+    // ASSERT
+    assertEquals("The content should be the new text", text, IOUtils.toString(
+        new GZIPInputStream(gzipBuffer.getInputStream()), StandardCharsets.UTF_8));
+    assertEquals("The hash should be that of the new content",
+        Hashing.md5().hashBytes(ByteStreams.toByteArray(gzipBuffer.getInputStream())).toString(),
+        gzipBuffer.getCompressedMd5());
+    assertNotEquals("The hash should not be that of the previous content", previousHash,
+        gzipBuffer.getCompressedMd5());
+  }
+}
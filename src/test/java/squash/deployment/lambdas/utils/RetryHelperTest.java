@@ -0,0 +1,189 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import squash.deployment.lambdas.utils.RetryPolicy.ErrorClass;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the {@link RetryHelper}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class RetryHelperTest {
+  // Retries at once, so tests need not sleep
+  RetryPolicy immediateRetryPolicy = new RetryPolicy(3, 0, 0, ErrorClass.THROTTLED);
+  AtomicInteger attempts;
+  AmazonServiceException throttlingException;
+
+  // Mocks
+  Mockery mockery = new Mockery();
+  LambdaLogger mockLogger;
+
+  @Before
+  public void beforeTest() {
+    mockLogger = mockery.mock(LambdaLogger.class);
+    mockery.checking(new Expectations() {
+      {
+        ignoring(mockLogger);
+      }
+    });
+
+    attempts = new AtomicInteger();
+    throttlingException = new AmazonServiceException("Boom!");
+    throttlingException.setStatusCode(429);
+    throttlingException.setErrorCode("Throttling");
+  }
+
+  @After
+  public void afterTest() {
+    // Restore the unlimited budget, so other tests are unaffected
+    startInvocation(0);
+    mockery.assertIsSatisfied();
+  }
+
+  @Test
+  public void testDoWithRetriesRetriesRetryableErrorsUntilSuccess() throws Exception {
+
+    // ACT
+    String result = RetryHelper.DoWithRetries(() -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw throttlingException;
+      }
+      return "Success";
+    }, immediateRetryPolicy, "Operation", mockLogger);
+
+    // ASSERT
+    assertEquals("The result of the successful attempt should be returned", "Success", result);
+    assertEquals("There should have been three attempts", 3, attempts.get());
+  }
+
+  @Test
+  public void testDoWithRetriesRethrowsAfterTheMaximumNumberOfAttempts() throws Exception {
+
+    // ACT
+    Exception exception = doWithRetriesAlwaysThrowing(throttlingException, immediateRetryPolicy);
+
+    // ASSERT
+    assertTrue("The last error should be rethrown", exception == throttlingException);
+    assertEquals("There should have been three attempts", 3, attempts.get());
+  }
+
+  @Test
+  public void testDoWithRetriesRethrowsNonRetryableErrorsImmediately() throws Exception {
+
+    // ARRANGE
+    Exception permanentException = new Exception("Booking creation failed");
+
+    // ACT
+    Exception exception = doWithRetriesAlwaysThrowing(permanentException, immediateRetryPolicy);
+
+    // ASSERT
+    assertTrue("The error should be rethrown", exception == permanentException);
+    assertEquals("There should have been a single attempt", 1, attempts.get());
+  }
+
+  @Test
+  public void testDoWithRetriesStopsWhenTheInvocationIsAboutToTimeOut() throws Exception {
+    // The budget keeps a second in hand for reporting errors - so with 1.5
+    // seconds left there is no time for a one second sleep before a retry.
+
+    // ARRANGE
+    startInvocation(1500);
+    RetryPolicy slowRetryPolicy = new RetryPolicy(3, 1000, 1000, ErrorClass.THROTTLED);
+
+    // ACT
+    Exception exception = doWithRetriesAlwaysThrowing(throttlingException, slowRetryPolicy);
+
+    // ASSERT
+    assertTrue("The error should be rethrown", exception == throttlingException);
+    assertEquals("There should have been a single attempt", 1, attempts.get());
+  }
+
+  @Test
+  public void testDoWithRetriesStopsWhenTheInvocationHasUsedAllItsRetries() throws Exception {
+    // Each invocation may retry at most 20 times, however many attempts the
+    // policy allows.
+
+    // ARRANGE
+    startInvocation(60000);
+    RetryPolicy manyRetriesPolicy = new RetryPolicy(30, 0, 0, ErrorClass.THROTTLED);
+
+    // ACT
+    doWithRetriesAlwaysThrowing(throttlingException, manyRetriesPolicy);
+
+    // ASSERT
+    assertEquals("There should have been a first attempt and 20 retries", 21, attempts.get());
+  }
+
+  @Test
+  public void testDoWithRetriesGivesUpAndRestoresTheInterruptFlagWhenInterrupted()
+      throws Exception {
+
+    // ARRANGE
+    RetryPolicy sleepingRetryPolicy = new RetryPolicy(3, 10, 10, ErrorClass.THROTTLED);
+    // The sleep before the first retry will be interrupted
+    Thread.currentThread().interrupt();
+
+    // ACT
+    Exception exception = doWithRetriesAlwaysThrowing(throttlingException, sleepingRetryPolicy);
+
+    // ASSERT
+    // N.B. This also clears the flag again
+    assertTrue("The interrupt flag should be restored", Thread.interrupted());
+    assertTrue("The error should be rethrown", exception == throttlingException);
+    assertEquals("There should have been a single attempt", 1, attempts.get());
+  }
+
+  private Exception doWithRetriesAlwaysThrowing(Exception exceptionToThrow, RetryPolicy policy) {
+    try {
+      RetryHelper.DoWithRetries(() -> {
+        attempts.incrementAndGet();
+        throw exceptionToThrow;
+      }, policy, "Operation", mockLogger);
+    } catch (Exception exception) {
+      return exception;
+    }
+    throw new AssertionError("DoWithRetries should have thrown");
+  }
+
+  private void startInvocation(int remainingTimeInMillis) {
+    // N.B. Name each mock by its time, as each test may start a second invocation
+    Context mockContext = mockery.mock(Context.class, "Context" + remainingTimeInMillis);
+    mockery.checking(new Expectations() {
+      {
+        allowing(mockContext).getRemainingTimeInMillis();
+        will(returnValue(remainingTimeInMillis));
+      }
+    });
+    RetryHelper.startInvocation(mockContext);
+  }
+}
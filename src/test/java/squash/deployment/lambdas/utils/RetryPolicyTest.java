@@ -0,0 +1,154 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import squash.deployment.lambdas.utils.RetryPolicy.ErrorClass;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * Tests the {@link RetryPolicy}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class RetryPolicyTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testClassifyTreatsA429AsThrottled() {
+
+    // ASSERT
+    assertEquals("A 429 should be classed as throttling", ErrorClass.THROTTLED,
+        RetryPolicy.classify(getServiceException(429, "TooManyRequestsException")));
+  }
+
+  @Test
+  public void testClassifyTreatsAThrottlingErrorCodeAsThrottled() {
+
+    // ASSERT
+    assertEquals("A throttling error code should be classed as throttling",
+        ErrorClass.THROTTLED, RetryPolicy.classify(getServiceException(400, "Throttling")));
+  }
+
+  @Test
+  public void testClassifyTreatsAConditionalCheckFailedErrorCodeAsAConflict() {
+
+    // ASSERT
+    assertEquals("A failed conditional check should be classed as a conflict",
+        ErrorClass.CONFLICT, RetryPolicy.classify(getServiceException(409,
+            "ConditionalCheckFailed")));
+  }
+
+  @Test
+  public void testClassifyTreatsOurConditionalCheckFailedMessageAsAConflict() {
+
+    // ASSERT
+    assertEquals("The persisters' failed conditional check should be classed as a conflict",
+        ErrorClass.CONFLICT, RetryPolicy.classify(new Exception(
+            "Database put failed - conditional check failed")));
+  }
+
+  @Test
+  public void testClassifyTreatsA5xxAsTransient() {
+
+    // ASSERT
+    assertEquals("A 5xx should be classed as transient", ErrorClass.TRANSIENT,
+        RetryPolicy.classify(getServiceException(500, "InternalError")));
+  }
+
+  @Test
+  public void testClassifyTreatsOtherErrorsAsPermanent() {
+
+    // ASSERT
+    assertEquals("A 4xx should be classed as permanent", ErrorClass.PERMANENT,
+        RetryPolicy.classify(getServiceException(400, "InvalidParameterValue")));
+    assertEquals("Other exceptions should be classed as permanent", ErrorClass.PERMANENT,
+        RetryPolicy.classify(new Exception("Booking creation failed")));
+  }
+
+  @Test
+  public void testIsRetryableRetriesOnlyThePolicysErrorClasses() {
+
+    // ASSERT
+    assertTrue("The throttling policy should retry throttling",
+        RetryPolicy.THROTTLING.isRetryable(getServiceException(429, "Throttling")));
+    assertTrue("The throttling policy should not retry conflicts",
+        !RetryPolicy.THROTTLING.isRetryable(getServiceException(409, "ConditionalCheckFailed")));
+    assertTrue("The conflicts policy should not retry throttling",
+        !RetryPolicy.CONFLICTS.isRetryable(getServiceException(429, "Throttling")));
+  }
+
+  @Test
+  public void testNextDelayIsAlwaysBetweenTheBaseAndMaximumDelays() {
+    // Each delay is random - so check many of them, feeding each back in as
+    // the previous delay, as the retry helper does.
+
+    // ARRANGE
+    long baseDelayMillis = 50;
+    long maxDelayMillis = 1000;
+    RetryPolicy policy = new RetryPolicy(3, baseDelayMillis, maxDelayMillis,
+        ErrorClass.THROTTLED);
+
+    // ACT and ASSERT
+    long delayMillis = 0;
+    for (int retry = 0; retry < 10000; retry++) {
+      delayMillis = policy.nextDelayMillis(delayMillis);
+      assertTrue("The delay should not be below the base delay: " + delayMillis,
+          delayMillis >= baseDelayMillis);
+      assertTrue("The delay should not be above the maximum delay: " + delayMillis,
+          delayMillis <= maxDelayMillis);
+    }
+  }
+
+  @Test
+  public void testConstructorThrowsIfThereAreNoAttempts() {
+
+    // ARRANGE
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("The retry policy limits are invalid");
+
+    // ACT
+    new RetryPolicy(0, 50, 1000, ErrorClass.THROTTLED);
+  }
+
+  @Test
+  public void testConstructorThrowsIfTheMaximumDelayIsBelowTheBaseDelay() {
+
+    // ARRANGE
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("The retry policy limits are invalid");
+
+    // ACT
+    new RetryPolicy(3, 1000, 50, ErrorClass.THROTTLED);
+  }
+
+  private AmazonServiceException getServiceException(int statusCode, String errorCode) {
+    AmazonServiceException exception = new AmazonServiceException("Boom!");
+    exception.setStatusCode(statusCode);
+    exception.setErrorCode(errorCode);
+    return exception;
+  }
+}
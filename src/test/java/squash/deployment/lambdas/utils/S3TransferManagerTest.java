@@ -0,0 +1,203 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.amazonaws.regions.DefaultAwsRegionProviderChain;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.transfer.Transfer;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link S3TransferManager}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class S3TransferManagerTest {
+  // Synchronised, as the TransferManager calls S3 from its own threads
+  Mockery mockery = new Mockery() {
+    {
+      setThreadingPolicy(new Synchroniser());
+    }
+  };
+  AmazonS3 mockS3Client;
+  TransferManager transferManager;
+  S3TransferManager s3TransferManager;
+  String bucketName = "bucketName";
+  String keyName = "keyName";
+  long directPutThresholdBytes = 5 * 1024 * 1024;
+
+  @BeforeClass
+  public static void beforeClass() {
+    // Give the shared TransferManager a region without needing any AWS configuration
+    if (System.getenv("AWS_REGION") == null) {
+      System.setProperty("aws.region", "eu-west-1");
+    }
+  }
+
+  @Before
+  public void beforeTest() {
+    mockS3Client = mockery.mock(AmazonS3.class);
+    transferManager = TransferManagerBuilder.standard().withS3Client(mockS3Client).build();
+    s3TransferManager = new S3TransferManager(transferManager);
+    S3TransferManager.resetTransferLatencies();
+  }
+
+  @After
+  public void afterTest() {
+    transferManager.shutdownNow(false);
+    mockery.assertIsSatisfied();
+  }
+
+  @Test
+  public void testUploadPutsSmallObjectsDirectly() throws Exception {
+
+    // ARRANGE
+    PutObjectRequest putObjectRequest = getPutObjectRequest(directPutThresholdBytes - 1);
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockS3Client).putObject(putObjectRequest);
+        will(returnValue(new PutObjectResult()));
+      }
+    });
+
+    // ACT
+    Transfer transfer = s3TransferManager.upload(putObjectRequest);
+
+    // ASSERT
+    // The put should have completed before upload returned
+    mockery.assertIsSatisfied();
+    assertTrue("A direct put should return a completed transfer",
+        transfer instanceof CompletedTransfer);
+    assertTrue("A direct put should be done", transfer.isDone());
+    assertEquals("A direct put should report all its bytes as transferred",
+        directPutThresholdBytes - 1, transfer.getProgress().getBytesTransferred());
+  }
+
+  @Test
+  public void testUploadUsesTheTransferManagerForObjectsAtTheThreshold() throws Exception {
+
+    // ARRANGE
+    PutObjectRequest putObjectRequest = getPutObjectRequest(directPutThresholdBytes);
+    mockery.checking(new Expectations() {
+      {
+        // The TransferManager sends objects of this size as a single put, on its own thread
+        oneOf(mockS3Client).putObject(with(any(PutObjectRequest.class)));
+        will(returnValue(new PutObjectResult()));
+      }
+    });
+
+    // ACT
+    Transfer transfer = s3TransferManager.upload(putObjectRequest);
+    transfer.waitForCompletion();
+
+    // ASSERT
+    assertTrue("An upload at the threshold should go through the TransferManager",
+        !(transfer instanceof CompletedTransfer));
+  }
+
+  @Test
+  public void testUploadUsesTheTransferManagerWhenTheLengthIsUnknown() throws Exception {
+
+    // ARRANGE
+    PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, keyName,
+        new ByteArrayInputStream(new byte[1]), new ObjectMetadata());
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockS3Client).putObject(with(any(PutObjectRequest.class)));
+        will(returnValue(new PutObjectResult()));
+      }
+    });
+
+    // ACT
+    Transfer transfer = s3TransferManager.upload(putObjectRequest);
+    transfer.waitForCompletion();
+
+    // ASSERT
+    assertTrue("An upload of unknown length should go through the TransferManager",
+        !(transfer instanceof CompletedTransfer));
+  }
+
+  @Test
+  public void testRecordTransferLatencyUpdatesTheCountAndMean() {
+
+    // ACT
+    S3TransferManager.recordTransferLatency(TimeUnit.MILLISECONDS.toNanos(100));
+    S3TransferManager.recordTransferLatency(TimeUnit.MILLISECONDS.toNanos(300));
+
+    // ASSERT
+    assertEquals("Both transfers should be counted", 2,
+        S3TransferManager.getCompletedTransferCount());
+    assertEquals("The mean latency should be over both transfers", 200,
+        S3TransferManager.getMeanTransferLatencyMillis());
+  }
+
+  @Test
+  public void testMeanTransferLatencyIsZeroBeforeAnyTransfers() {
+
+    // ASSERT
+    assertEquals("The mean latency should be zero with no transfers", 0,
+        S3TransferManager.getMeanTransferLatencyMillis());
+  }
+
+  @Test
+  public void testEveryInstanceSharesOneTransferManager() {
+
+    // ACT
+    AmazonS3 firstClient = new S3TransferManager().getAmazonS3Client();
+    AmazonS3 secondClient = new S3TransferManager().getAmazonS3Client();
+
+    // ASSERT
+    assertTrue("Every instance should use the same S3 client", firstClient == secondClient);
+  }
+
+  @Test
+  public void testSharedTransferManagerUsesTheRegistrysS3Client() {
+
+    // ACT
+    AmazonS3 client = new S3TransferManager().getAmazonS3Client();
+
+    // ASSERT
+    assertTrue("The shared TransferManager should use the registry's S3 client",
+        client == AwsClientRegistry.getS3Client(new DefaultAwsRegionProviderChain().getRegion()));
+  }
+
+  private PutObjectRequest getPutObjectRequest(long contentLength) {
+    // The content need not match the length, as the mock client never reads it
+    ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentLength(contentLength);
+    return new PutObjectRequest(bucketName, keyName, new ByteArrayInputStream(new byte[1]),
+        metadata);
+  }
+}
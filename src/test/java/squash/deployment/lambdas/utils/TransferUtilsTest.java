@@ -0,0 +1,143 @@
+/**
+ * Copyright 2017 Robin Steel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package squash.deployment.lambdas.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.s3.transfer.Transfer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link TransferUtils}.
+ *
+ * @author robinsteel19@outlook.com (Robin Steel)
+ */
+public class TransferUtilsTest {
+  Mockery mockery = new Mockery();
+  LambdaLogger mockLogger;
+  Transfer mockTransfer;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void beforeTest() {
+    mockLogger = mockery.mock(LambdaLogger.class);
+    mockTransfer = mockery.mock(Transfer.class);
+    mockery.checking(new Expectations() {
+      {
+        ignoring(mockLogger);
+      }
+    });
+    S3TransferManager.resetTransferLatencies();
+  }
+
+  @After
+  public void afterTest() {
+    mockery.assertIsSatisfied();
+  }
+
+  @Test
+  public void testWaitForS3TransferWaitsForCompletionWithoutPolling() throws Exception {
+
+    // ARRANGE
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockTransfer).waitForCompletion();
+        never(mockTransfer).isDone();
+        never(mockTransfer).getProgress();
+      }
+    });
+
+    // ACT
+    TransferUtils.waitForS3Transfer(mockTransfer, mockLogger);
+
+    // ASSERT
+    assertEquals("The transfer's latency should be recorded", 1,
+        S3TransferManager.getCompletedTransferCount());
+  }
+
+  @Test
+  public void testWaitForS3TransferRecordsTheLatencyOfADirectPut() throws Exception {
+
+    // ARRANGE
+    // A direct put has completed already - so its own latency should be recorded
+    CompletedTransfer completedTransfer = new CompletedTransfer("description", 10,
+        TimeUnit.MILLISECONDS.toNanos(250));
+
+    // ACT
+    TransferUtils.waitForS3Transfer(completedTransfer, mockLogger);
+
+    // ASSERT
+    assertEquals("The put's latency should be recorded", 1,
+        S3TransferManager.getCompletedTransferCount());
+    assertEquals("The put's own latency should be recorded", 250,
+        S3TransferManager.getMeanTransferLatencyMillis());
+  }
+
+  @Test
+  public void testWaitForS3TransferThrowsIfTheTransferFailed() throws Exception {
+
+    // ARRANGE
+    AmazonServiceException failure = new AmazonServiceException("Transfer failed");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockTransfer).waitForCompletion();
+        will(throwException(failure));
+      }
+    });
+    thrown.expect(AmazonServiceException.class);
+
+    // ACT
+    TransferUtils.waitForS3Transfer(mockTransfer, mockLogger);
+  }
+
+  @Test
+  public void testWaitForS3TransferRestoresTheInterruptFlagWhenInterrupted() throws Exception {
+
+    // ARRANGE
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mockTransfer).waitForCompletion();
+        will(throwException(new InterruptedException()));
+      }
+    });
+
+    // ACT
+    try {
+      TransferUtils.waitForS3Transfer(mockTransfer, mockLogger);
+    } catch (InterruptedException e) {
+      // Expected
+    }
+
+    // ASSERT
+    // N.B. interrupted() also clears the flag, so later tests are unaffected
+    assertTrue("The interrupt flag should be restored", Thread.interrupted());
+  }
+}